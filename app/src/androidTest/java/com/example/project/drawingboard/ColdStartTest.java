@@ -0,0 +1,182 @@
+package com.example.project.drawingboard;
+
+import com.example.project.drawingboard.models.CanvasSnapshot;
+import com.example.project.drawingboard.models.DrawingPathCacheStore;
+import com.example.project.drawingboard.views.PaintCanvas;
+
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Tracks how long a cold start takes to bring back the drawing of the previous session, i.e. the
+ * time until the user can ink again, for drawings of increasing complexity.
+ */
+public class ColdStartTest extends ActivityInstrumentationTestCase2<DrawingBoardActivity> {
+
+    private static final String LOG_TAG = ColdStartTest.class.getSimpleName();
+    private static final long RESTORE_TIMEOUT_MILLIS = 10000;
+
+    public ColdStartTest() {
+        super(DrawingBoardActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CanvasSnapshot.getFile(getInstrumentation().getTargetContext()).delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CanvasSnapshot.getFile(getInstrumentation().getTargetContext()).delete();
+        super.tearDown();
+    }
+
+    public void testTimeToFirstInkDoesNotGrowWithStrokes() throws Exception {
+        // warm up, so that the first measure does not pay for loading classes.
+        measureTimeToFirstInk(1);
+
+        final long simple = measureTimeToFirstInk(10);
+        final long complex = measureTimeToFirstInk(2000);
+        Log.i(LOG_TAG, "time to first ink: " + simple + "ms for 10 strokes, " + complex
+                + "ms for 2000 strokes");
+
+        // the snapshot holds pixels, not strokes, allow for timing noise only.
+        assertTrue("restoring 2000 strokes took " + complex + "ms against " + simple + "ms",
+                complex <= 2 * simple + 100);
+    }
+
+    public void testDrawingIsRestoredIntoStoreRecreatedFromSavedState() throws Exception {
+        final DrawingBoardActivity activity = getActivity();
+        getInstrumentation().waitForIdleSync();
+        final DrawingPathCacheStore[] recreated = new DrawingPathCacheStore[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final DrawingPathCacheStore store = findStore(activity);
+                store.resetCache();
+                drawStrokes(store, 10);
+                store.saveSnapshot(CanvasSnapshot.getFile(activity));
+
+                // after the process is killed, the fragment manager re-creates the store from
+                // the saved state of the activity: found under its tag, but empty.
+                recreated[0] = (DrawingPathCacheStore) Fragment.instantiate(activity,
+                        DrawingPathCacheStore.class.getName());
+                final FragmentManager fragmentManager = activity.getFragmentManager();
+                fragmentManager.beginTransaction()
+                        .remove(store)
+                        .add(recreated[0], DrawingPathCacheStore.LOG_TAG)
+                        .commit();
+                fragmentManager.executePendingTransactions();
+                new PaintCanvas(activity);
+                // pausing before the drawing is back must not lose it.
+                recreated[0].saveSnapshot(CanvasSnapshot.getFile(activity));
+            }
+        });
+
+        final long start = SystemClock.uptimeMillis();
+        final boolean[] isRestoring = {true};
+        while (isRestoring[0]) {
+            assertTrue("restore timed out",
+                    SystemClock.uptimeMillis() - start < RESTORE_TIMEOUT_MILLIS);
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    isRestoring[0] = recreated[0].isRestoring();
+                }
+            });
+        }
+        final boolean[] isBlank = new boolean[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                isBlank[0] = recreated[0].getLayerStack().isBlank();
+            }
+        });
+        assertFalse("the drawing was not restored", isBlank[0]);
+    }
+
+    /**
+     * Draws the given number of strokes, leaves the activity as the user would, and times a
+     * fresh launch until the drawing is back.
+     */
+    private long measureTimeToFirstInk(final int strokeCount) throws Exception {
+        final DrawingBoardActivity previous = getActivity();
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DrawingPathCacheStore store = findStore(previous);
+                store.resetCache();
+                drawStrokes(store, strokeCount);
+            }
+        });
+        previous.finish();
+        getInstrumentation().waitForIdleSync();
+        setActivity(null);
+
+        final long start = SystemClock.uptimeMillis();
+        final DrawingBoardActivity relaunched = getActivity();
+        final boolean[] isRestoring = {true};
+        while (isRestoring[0]) {
+            assertTrue("restore timed out",
+                    SystemClock.uptimeMillis() - start < RESTORE_TIMEOUT_MILLIS);
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    isRestoring[0] = findStore(relaunched).isRestoring();
+                }
+            });
+        }
+        final long timeToFirstInk = SystemClock.uptimeMillis() - start;
+
+        final boolean[] isBlank = new boolean[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                isBlank[0] = findStore(relaunched).getLayerStack().isBlank();
+            }
+        });
+        assertFalse("the drawing was not restored", isBlank[0]);
+        return timeToFirstInk;
+    }
+
+    private static DrawingPathCacheStore findStore(DrawingBoardActivity activity) {
+        return (DrawingPathCacheStore) activity.getFragmentManager()
+                .findFragmentByTag(DrawingPathCacheStore.LOG_TAG);
+    }
+
+    private static void drawStrokes(DrawingPathCacheStore store, int strokeCount) {
+        final int width = store.getLayerStack().getWidth();
+        final int height = store.getLayerStack().getHeight();
+        final Random random = new Random(strokeCount);
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(5f);
+        final Path path = new Path();
+        final float[] points = new float[2 * 9];
+        for (int s = 0; s < strokeCount; s++) {
+            paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256)));
+            path.reset();
+            for (int p = 0; p < 9; p++) {
+                points[2 * p] = random.nextInt(width);
+                points[2 * p + 1] = random.nextInt(height);
+                if (p == 0) {
+                    path.moveTo(points[0], points[1]);
+                } else {
+                    path.lineTo(points[2 * p], points[2 * p + 1]);
+                }
+            }
+            store.commitStroke(path, paint, points, 9);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Checks that a snapshot keeps showing the drawing as it was when taken, whatever is drawn,
+ * erased or removed afterwards.
+ */
+public class DrawingSnapshotTest extends TestCase {
+
+    private static final int SIZE = 3 * DrawingSnapshot.TILE_SIZE / 2;
+
+    private LayerStack mLayers;
+    private final Paint mPaint = new Paint();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLayers = new LayerStack();
+        mLayers.ensureSize(SIZE, SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLayers.release();
+        super.tearDown();
+    }
+
+    public void testDrawingAfterSnapshotIsNotSeen() {
+        fill(mLayers.getActiveLayer(), new Rect(0, 0, 10, 10), Color.RED);
+        final DrawingSnapshot snapshot = mLayers.createSnapshot();
+        fill(mLayers.getActiveLayer(), new Rect(0, 0, 10, 10), Color.BLUE);
+        fill(mLayers.getActiveLayer(), new Rect(SIZE - 10, SIZE - 10, SIZE, SIZE), Color.BLUE);
+
+        final Bitmap image = snapshot.render();
+        snapshot.release();
+        assertEquals(Color.RED, image.getPixel(5, 5));
+        assertEquals(LayerStack.PAPER_COLOR, image.getPixel(SIZE - 5, SIZE - 5));
+        image.recycle();
+    }
+
+    public void testOnlyTouchedTilesAreCopied() {
+        final DrawingSnapshot snapshot = mLayers.createSnapshot();
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        final Bitmap pixels = layer.mBitmap;
+        fill(layer, new Rect(0, 0, 10, 10), Color.BLUE);
+
+        // the layer keeps drawing into the same buffer.
+        assertSame(pixels, layer.mBitmap);
+        assertTrue(snapshot.holdsPixelsOf(layer));
+        // the fill is inside the top left tile, of the two by two.
+        assertTrue(snapshot.isTileCopied(layer, 0, 0));
+        assertFalse(snapshot.isTileCopied(layer, 1, 0));
+        assertFalse(snapshot.isTileCopied(layer, 0, 1));
+        assertFalse(snapshot.isTileCopied(layer, 1, 1));
+
+        // drawn behind the back of the snapshot, only seen where it still reads the layer.
+        layer.mCanvas.drawRect(new Rect(0, 0, SIZE, SIZE), mPaint);
+        final Bitmap image = snapshot.render();
+        snapshot.release();
+        assertFalse(snapshot.holdsPixelsOf(layer));
+        assertEquals(LayerStack.PAPER_COLOR, image.getPixel(5, 5));
+        assertFalse(LayerStack.PAPER_COLOR == image.getPixel(SIZE - 5, 5));
+        assertFalse(LayerStack.PAPER_COLOR == image.getPixel(5, SIZE - 5));
+        assertFalse(LayerStack.PAPER_COLOR == image.getPixel(SIZE - 5, SIZE - 5));
+        image.recycle();
+    }
+
+    public void testErasedAndRemovedLayersAreHandedOver() {
+        fill(mLayers.getActiveLayer(), new Rect(0, 0, 10, 10), Color.RED);
+        final DrawingLayer top = mLayers.addLayer();
+        fill(top, new Rect(20, 20, 30, 30), Color.GREEN);
+        final DrawingSnapshot snapshot = mLayers.createSnapshot();
+
+        mLayers.removeLayer(mLayers.indexOf(top));
+        mLayers.clear();
+
+        final Bitmap image = snapshot.render();
+        snapshot.release();
+        assertEquals(Color.RED, image.getPixel(5, 5));
+        assertEquals(Color.GREEN, image.getPixel(25, 25));
+        image.recycle();
+    }
+
+    public void testSavedSnapshotKeepsPixelsDrawnOverWhileSaving() throws Exception {
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        fill(layer, new Rect(0, 0, 10, 10), Color.RED);
+        final DrawingSnapshot snapshot = mLayers.createSnapshot();
+        snapshot.setStrokeCount(3);
+        // the same color, so that the tile is copied out rather than the layer converted.
+        fill(layer, new Rect(SIZE - 10, SIZE - 10, SIZE, SIZE), Color.RED);
+
+        final File file = File.createTempFile("canvas", ".snapshot");
+        try {
+            CanvasSnapshot.write(snapshot, file);
+            snapshot.release();
+            final CanvasSnapshot saved = CanvasSnapshot.read(file);
+            final Bitmap pixels = saved.mLayers.get(0).mBitmap;
+            assertEquals(255, Color.alpha(pixels.getPixel(5, 5)));
+            assertEquals(0, Color.alpha(pixels.getPixel(SIZE - 5, SIZE - 5)));
+            assertEquals(3, saved.mHistoryPosition);
+            saved.recycle();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testRestoredLayersGrowToCoverALargerView() throws Exception {
+        fill(mLayers.getActiveLayer(), new Rect(0, 0, 10, 10), Color.RED);
+        final File file = File.createTempFile("canvas", ".snapshot");
+        try {
+            final DrawingSnapshot snapshot = mLayers.createSnapshot();
+            CanvasSnapshot.write(snapshot, file);
+            snapshot.release();
+            final CanvasSnapshot saved = CanvasSnapshot.read(file);
+            mLayers.setLayers(saved.mWidth, saved.mHeight, saved.mLayers, saved.mActiveIndex);
+        } finally {
+            file.delete();
+        }
+
+        // e.g. saved in portrait, restored in landscape.
+        mLayers.ensureSize(2 * SIZE, SIZE / 2);
+
+        assertEquals(2 * SIZE, mLayers.getWidth());
+        assertEquals(SIZE, mLayers.getHeight());
+        final Bitmap pixels = mLayers.getActiveLayer().mBitmap;
+        assertEquals(2 * SIZE, pixels.getWidth());
+        assertEquals(SIZE, pixels.getHeight());
+        assertEquals(255, Color.alpha(pixels.getPixel(5, 5)));
+    }
+
+    public void testSavedSnapshotKeepsTheStorageMode() throws Exception {
+        mLayers.setStorageMode(LayerStack.STORAGE_REDUCED_COLOR);
+        fill(mLayers.getActiveLayer(), new Rect(0, 0, 10, 10), Color.RED);
+        final File file = File.createTempFile("canvas", ".snapshot");
+        try {
+            final DrawingSnapshot snapshot = mLayers.createSnapshot();
+            CanvasSnapshot.write(snapshot, file);
+            snapshot.release();
+            final CanvasSnapshot saved = CanvasSnapshot.read(file);
+            assertEquals(LayerStack.STORAGE_REDUCED_COLOR, saved.mStorageMode);
+            assertEquals(Bitmap.Config.RGB_565, saved.mLayers.get(0).getStorageConfig());
+            saved.recycle();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSavedSnapshotKeepsTheVersionedDrawingId() throws Exception {
+        fill(mLayers.getActiveLayer(), new Rect(0, 0, 10, 10), Color.RED);
+        final File file = File.createTempFile("canvas", ".snapshot");
+        try {
+            final DrawingSnapshot snapshot = mLayers.createSnapshot();
+            snapshot.setVersionedDrawingId(1500000000L);
+            CanvasSnapshot.write(snapshot, file);
+            snapshot.release();
+            final CanvasSnapshot saved = CanvasSnapshot.read(file);
+            assertEquals(1500000000L, saved.mVersionedDrawingId);
+            saved.recycle();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void fill(DrawingLayer layer, Rect region, int color) {
+        mPaint.setColor(color);
+        mLayers.prepareToDraw(layer, color);
+        mLayers.beforeDraw(layer, region);
+        layer.mCanvas.drawRect(region, mPaint);
+        mLayers.markDirty(layer, region);
+    }
+}
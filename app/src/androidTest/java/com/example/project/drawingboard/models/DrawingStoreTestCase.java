@@ -0,0 +1,51 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import junit.framework.TestCase;
+
+/**
+ * Base of the tests drawing on a {@link DrawingPathCacheStore}: sets up a square store, in full
+ * color so that pixels read back as drawn, and draws black lines on it.
+ */
+public abstract class DrawingStoreTestCase extends TestCase {
+
+    private final int mCanvasSize;
+    private final Paint mPaint = new Paint();
+    private final Path mPath = new Path();
+
+    protected DrawingPathCacheStore mStore;
+
+    protected DrawingStoreTestCase(int canvasSize) {
+        mCanvasSize = canvasSize;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = new DrawingPathCacheStore();
+        mStore.setCanvasSize(mCanvasSize, mCanvasSize);
+        mStore.getLayerStack().setStorageMode(LayerStack.STORAGE_FULL_COLOR);
+        StrokeHistory.applyStrokeStyle(mPaint);
+        mPaint.setStrokeWidth(6);
+        mPaint.setColor(Color.BLACK);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.getLayerStack().release();
+        super.tearDown();
+    }
+
+    /**
+     * Draws and records a straight stroke from x0, y0 to x1, y1 on the active layer.
+     */
+    protected void drawLine(float x0, float y0, float x1, float y1) {
+        mPath.reset();
+        mPath.moveTo(x0, y0);
+        mPath.lineTo(x1, y1);
+        mStore.commitStroke(mPath, mPaint, new float[]{x0, y0, x1, y1}, 2);
+    }
+}
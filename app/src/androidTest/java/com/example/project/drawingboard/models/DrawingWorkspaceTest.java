@@ -0,0 +1,174 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Color;
+import android.os.SystemClock;
+
+import java.io.File;
+
+/**
+ * Checks that documents past the memory budget are spilled least recently used first, and read
+ * back as they were.
+ */
+public class DrawingWorkspaceTest extends DrawingStoreTestCase {
+
+    private static final int SIZE = 100;
+    private static final long SPILL_TIMEOUT_MILLIS = 5000;
+
+    private File mSpillDirectory;
+
+    public DrawingWorkspaceTest() {
+        super(SIZE);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSpillDirectory = File.createTempFile("documents", "");
+        mSpillDirectory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = mSpillDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSpillDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testLeastRecentlyUsedDocumentsAreSpilledPastTheBudget() {
+        final DrawingWorkspace workspace = mStore.getWorkspace();
+        final long documentBytes = workspace.getCurrent().getResidentByteCount();
+        // room for two documents and a half.
+        mStore.openWorkspace(mSpillDirectory, 5 * documentBytes / 2);
+        final DrawingDocument first = workspace.getCurrent();
+
+        final DrawingDocument second = mStore.newDocument();
+        assertTrue(first.isResident());
+        final DrawingDocument third = mStore.newDocument();
+
+        assertSame(third, workspace.getCurrent());
+        waitUntilSpilled(first);
+        assertFalse(first.isResident());
+        assertTrue(second.isResident());
+        assertTrue(third.isResident());
+        assertEquals(3, workspace.getDocumentCount());
+        assertSame(first, workspace.getDocument(2));
+    }
+
+    public void testSpilledDocumentReadsBackAsItWas() throws Exception {
+        mStore.openWorkspace(mSpillDirectory, Long.MAX_VALUE);
+        drawLine(20, 20, 80, 20);
+        final DrawingWorkspace workspace = mStore.getWorkspace();
+        final DrawingDocument drawn = workspace.getCurrent();
+        drawn.setVersionedDrawingId(1500000000L);
+        mStore.newDocument();
+
+        workspace.spill(drawn);
+        // written in the background, it stays in memory until then.
+        assertTrue(drawn.isResident());
+        waitUntilSpilled(drawn);
+        assertFalse(drawn.isResident());
+        final DrawingWorkspace.SpilledContent content = workspace.readSpillFiles(drawn);
+
+        assertEquals(1, content.mHistory.size());
+        assertEquals(80f, content.mHistory.getX(0, 1));
+        final DrawingLayer layer = content.mSnapshot.mLayers.get(0);
+        assertEquals(Color.BLACK, layer.mBitmap.getPixel(50, 20));
+        // the strokes are known, they can be selected again.
+        assertFalse(layer.mHasUnrecordedPixels);
+        // saving another version of it must not fork its history.
+        assertEquals(1500000000L, content.mSnapshot.mVersionedDrawingId);
+        content.mSnapshot.recycle();
+    }
+
+    public void testSpilledDocumentsAreListedOnOpen() {
+        mStore.openWorkspace(mSpillDirectory, Long.MAX_VALUE);
+        drawLine(20, 20, 80, 20);
+        final DrawingWorkspace workspace = mStore.getWorkspace();
+        final DrawingDocument drawn = workspace.getCurrent();
+        mStore.newDocument();
+        workspace.spill(drawn);
+        waitUntilSpilled(drawn);
+
+        final DrawingPathCacheStore nextSession = new DrawingPathCacheStore();
+        nextSession.openWorkspace(mSpillDirectory, Long.MAX_VALUE);
+
+        final DrawingWorkspace reopened = nextSession.getWorkspace();
+        assertEquals(2, reopened.getDocumentCount());
+        assertFalse(reopened.getDocument(1).isResident());
+        assertEquals(drawn.getId(), reopened.getDocument(1).getId());
+        assertTrue(reopened.getCurrent().getId() != drawn.getId());
+    }
+
+    public void testSavedDocumentIsNotWrittenAgainUntilItChanges() {
+        mStore.openWorkspace(mSpillDirectory, Long.MAX_VALUE);
+        drawLine(20, 20, 80, 20);
+        final DrawingWorkspace workspace = mStore.getWorkspace();
+        final DrawingDocument drawn = workspace.getCurrent();
+        mStore.newDocument();
+
+        workspace.saveBackgroundDocuments();
+        waitUntilSaved(drawn);
+        final File snapshotFile = new File(mSpillDirectory, drawn.getId() + ".snapshot");
+        assertTrue(snapshotFile.delete());
+        workspace.saveBackgroundDocuments();
+
+        assertNull(drawn.mSaveTask);
+        // drawn on again, it is saved on the next pause.
+        mStore.switchToDocument(drawn);
+        assertFalse(drawn.mIsSaved);
+    }
+
+    public void testFilesOfUnfinishedWritesAreDeletedOnOpen() throws Exception {
+        assertTrue(mSpillDirectory.mkdirs());
+        final File orphanedHistory = new File(mSpillDirectory, "7.strokes");
+        final File partial = new File(mSpillDirectory, "7.snapshot.partial");
+        assertTrue(orphanedHistory.createNewFile());
+        assertTrue(partial.createNewFile());
+
+        mStore.openWorkspace(mSpillDirectory, Long.MAX_VALUE);
+
+        assertEquals(1, mStore.getWorkspace().getDocumentCount());
+        assertFalse(orphanedHistory.exists());
+        assertFalse(partial.exists());
+    }
+
+    public void testDocumentMadeCurrentWhileBeingSpilledStaysInMemory() throws Exception {
+        mStore.openWorkspace(mSpillDirectory, Long.MAX_VALUE);
+        drawLine(20, 20, 80, 20);
+        final DrawingWorkspace workspace = mStore.getWorkspace();
+        final DrawingDocument drawn = workspace.getCurrent();
+        mStore.newDocument();
+
+        workspace.spill(drawn);
+        mStore.switchToDocument(drawn);
+        // give the spill time to finish, had it not been called off.
+        SystemClock.sleep(500);
+
+        assertTrue(drawn.isResident());
+        assertSame(drawn, workspace.getCurrent());
+        assertEquals(1, mStore.getStrokeHistory().size());
+    }
+
+    private static void waitUntilSaved(DrawingDocument document) {
+        final long start = SystemClock.uptimeMillis();
+        while (!document.mIsSaved) {
+            assertTrue("save timed out",
+                    SystemClock.uptimeMillis() - start < SPILL_TIMEOUT_MILLIS);
+            SystemClock.sleep(10);
+        }
+    }
+
+    private static void waitUntilSpilled(DrawingDocument document) {
+        final long start = SystemClock.uptimeMillis();
+        while (document.isResident()) {
+            assertTrue("spill timed out",
+                    SystemClock.uptimeMillis() - start < SPILL_TIMEOUT_MILLIS);
+            SystemClock.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that layers are stored with as few bytes per pixel as what is drawn on them allows,
+ * and that switching storage keeps the drawing as it looks.
+ */
+public class LayerStorageTest extends TestCase {
+
+    private static final int SIZE = 64;
+
+    private LayerStack mLayers;
+    private final Paint mPaint = new Paint();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLayers = new LayerStack();
+        mLayers.ensureSize(SIZE, SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLayers.release();
+        super.tearDown();
+    }
+
+    public void testSingleColorLayerIsStoredAsCoverage() {
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        assertEquals(Bitmap.Config.ALPHA_8, layer.getStorageConfig());
+
+        fill(layer, new Rect(0, 0, 10, 10), Color.RED);
+        fill(layer, new Rect(20, 20, 30, 30), Color.RED);
+
+        assertEquals(Bitmap.Config.ALPHA_8, layer.getStorageConfig());
+        assertEquals(Color.RED, layer.getTint());
+        final Bitmap image = render();
+        assertEquals(Color.RED, image.getPixel(5, 5));
+        assertEquals(LayerStack.PAPER_COLOR, image.getPixel(15, 15));
+        image.recycle();
+    }
+
+    public void testSecondColorConvertsBottomLayerToReducedColor() {
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        fill(layer, new Rect(0, 0, 10, 10), Color.RED);
+        fill(layer, new Rect(20, 20, 30, 30), Color.BLUE);
+
+        assertEquals(Bitmap.Config.RGB_565, layer.getStorageConfig());
+        final Bitmap image = render();
+        assertEquals(Color.RED, image.getPixel(5, 5));
+        assertEquals(Color.BLUE, image.getPixel(25, 25));
+        assertEquals(LayerStack.PAPER_COLOR, image.getPixel(15, 15));
+        image.recycle();
+    }
+
+    public void testSecondColorConvertsUpperLayerToFullColor() {
+        final DrawingLayer top = mLayers.addLayer();
+        assertEquals(Bitmap.Config.ALPHA_8, top.getStorageConfig());
+        fill(top, new Rect(0, 0, 10, 10), Color.RED);
+        fill(top, new Rect(20, 20, 30, 30), Color.BLUE);
+
+        // the layers below have to show through.
+        assertEquals(Bitmap.Config.ARGB_8888, top.getStorageConfig());
+    }
+
+    public void testFullColorTakesThePaperOutOfReducedColor() {
+        mLayers.setStorageMode(LayerStack.STORAGE_REDUCED_COLOR);
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        assertEquals(Bitmap.Config.RGB_565, layer.getStorageConfig());
+        fill(layer, new Rect(0, 0, 10, 10), Color.BLACK);
+
+        mLayers.setStorageMode(LayerStack.STORAGE_FULL_COLOR);
+
+        // so that a background image would show around the strokes.
+        assertEquals(Bitmap.Config.ARGB_8888, layer.getStorageConfig());
+        assertEquals(Color.BLACK, layer.mBitmap.getPixel(5, 5));
+        assertEquals(Color.TRANSPARENT, layer.mBitmap.getPixel(15, 15));
+    }
+
+    public void testFullColorAndBackToAuto() {
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        fill(layer, new Rect(0, 0, 10, 10), Color.RED);
+
+        mLayers.setStorageMode(LayerStack.STORAGE_FULL_COLOR);
+        assertEquals(Bitmap.Config.ARGB_8888, layer.getStorageConfig());
+        assertEquals(Color.RED, layer.mBitmap.getPixel(5, 5));
+
+        // a layer drawn upon in full color is not known to be of a single color anymore.
+        mLayers.setStorageMode(LayerStack.STORAGE_AUTO);
+        assertEquals(Bitmap.Config.RGB_565, layer.getStorageConfig());
+
+        mLayers.clear();
+        assertEquals(Bitmap.Config.ALPHA_8, layer.getStorageConfig());
+    }
+
+    public void testImageKeepsBottomLayerInFullColor() {
+        final Bitmap image = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        for (int x = 0; x < SIZE; x++) {
+            // shades RGB_565 can not tell apart.
+            image.setPixel(x, 0, Color.rgb(x, x + 1, x + 2));
+        }
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        mLayers.prepareToDrawImage(layer);
+        layer.mCanvas.drawBitmap(image, 0, 0, null);
+        layer.mHasUnrecordedPixels = true;
+        mLayers.markDirty(layer, new Rect(0, 0, SIZE, SIZE));
+
+        assertEquals(Bitmap.Config.ARGB_8888, layer.getStorageConfig());
+        assertEquals(Color.rgb(33, 34, 35), layer.mBitmap.getPixel(33, 0));
+
+        mLayers.setStorageMode(LayerStack.STORAGE_FULL_COLOR);
+        mLayers.setStorageMode(LayerStack.STORAGE_AUTO);
+        assertEquals(Bitmap.Config.ARGB_8888, layer.getStorageConfig());
+        assertEquals(Color.rgb(33, 34, 35), layer.mBitmap.getPixel(33, 0));
+        image.recycle();
+    }
+
+    private void fill(DrawingLayer layer, Rect region, int color) {
+        mPaint.setColor(color);
+        mLayers.prepareToDraw(layer, color);
+        mLayers.beforeDraw(layer, region);
+        layer.mCanvas.drawRect(region, mPaint);
+        mLayers.markDirty(layer, region);
+    }
+
+    private Bitmap render() {
+        final Bitmap image = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mLayers.draw(new Canvas(image));
+        return image;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * Checks that a lasso selects the strokes inside it, lifts them off their layer, and puts them
+ * back where the selection was moved to.
+ */
+public class StrokeSelectionTest extends DrawingStoreTestCase {
+
+    private static final int SIZE = 200;
+
+    public StrokeSelectionTest() {
+        super(SIZE);
+    }
+
+    public void testPointInPolygon() {
+        final float[] square = {0, 0, 10, 0, 10, 10, 0, 10};
+        assertTrue(StrokeSelection.contains(square, 4, 5, 5));
+        assertFalse(StrokeSelection.contains(square, 4, 15, 5));
+
+        // a U shape, whose notch is outside.
+        final float[] u = {0, 0, 4, 0, 4, 6, 6, 6, 6, 0, 10, 0, 10, 10, 0, 10};
+        assertTrue(StrokeSelection.contains(u, 8, 2, 2));
+        assertFalse(StrokeSelection.contains(u, 8, 5, 2));
+        assertTrue(StrokeSelection.contains(u, 8, 5, 8));
+    }
+
+    public void testOnlyStrokesInsideTheLassoAreSelected() {
+        drawLine(20, 20, 40, 20);
+        drawLine(120, 120, 160, 120);
+
+        final StrokeSelection selection = mStore.selectStrokes(square(10, 10, 50, 50), 4);
+
+        assertNotNull(selection);
+        assertTrue(selection.mIsSelected[0]);
+        assertFalse(selection.mIsSelected[1]);
+        // lifted off the layer, shown as a sprite instead.
+        assertEquals(Color.TRANSPARENT, pixelAt(30, 20));
+        assertEquals(Color.BLACK, pixelAt(140, 120));
+    }
+
+    public void testAppliedSelectionMovesTheStrokes() {
+        drawLine(20, 20, 40, 20);
+        final StrokeSelection selection = mStore.selectStrokes(square(10, 10, 50, 50), 4);
+        selection.getTransform().postTranslate(100, 50);
+
+        mStore.applySelection();
+
+        assertNull(mStore.getSelection());
+        assertEquals(Color.TRANSPARENT, pixelAt(30, 20));
+        assertEquals(Color.BLACK, pixelAt(130, 70));
+        assertEquals(120f, mStore.mHistory.getX(0, 0));
+    }
+
+    public void testNothingInsideTheLassoSelectsNothing() {
+        drawLine(120, 120, 160, 120);
+        assertNull(mStore.selectStrokes(square(10, 10, 50, 50), 4));
+    }
+
+    public void testPendingStrokeSurvivesTheSelection() {
+        drawLine(20, 20, 40, 20);
+        final PendingStroke pending = mStore.beginPendingStroke(blackPaint());
+        mStore.extendPendingStroke(pending, line(20, 40, 40, 40));
+
+        // the lifted region covers part of the stroke still being received.
+        assertNotNull(mStore.selectStrokes(square(10, 10, 50, 30), 4));
+
+        assertEquals(Color.TRANSPARENT, pixelAt(30, 20));
+        assertEquals(Color.BLACK, pixelAt(30, 40));
+    }
+
+    public void testPendingStrokeIsRecordedOnTheLayerItBeganOn() {
+        final int firstLayerId = mStore.getLayerStack().getActiveLayer().getId();
+        final PendingStroke pending = mStore.beginPendingStroke(blackPaint());
+        mStore.extendPendingStroke(pending, line(20, 40, 40, 40));
+
+        mStore.getLayerStack().addLayer();
+        mStore.endPendingStroke(pending, new float[]{20, 40, 40, 40}, 2);
+
+        assertEquals(1, mStore.mHistory.size());
+        assertEquals(firstLayerId, mStore.mHistory.getLayerId(0));
+    }
+
+    private static float[] square(float left, float top, float right, float bottom) {
+        return new float[]{left, top, right, top, right, bottom, left, bottom};
+    }
+
+    private static Paint blackPaint() {
+        final Paint paint = new Paint();
+        StrokeHistory.applyStrokeStyle(paint);
+        paint.setStrokeWidth(6);
+        paint.setColor(Color.BLACK);
+        return paint;
+    }
+
+    private static Path line(float x0, float y0, float x1, float y1) {
+        final Path path = new Path();
+        path.moveTo(x0, y0);
+        path.lineTo(x1, y1);
+        return path;
+    }
+
+    private int pixelAt(int x, int y) {
+        return mStore.getLayerStack().getActiveLayer().mBitmap.getPixel(x, y);
+    }
+}
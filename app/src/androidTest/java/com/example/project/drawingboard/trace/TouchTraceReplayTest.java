@@ -0,0 +1,158 @@
+package com.example.project.drawingboard.trace;
+
+import com.example.project.drawingboard.DrawingBoardActivity;
+import com.example.project.drawingboard.R;
+import com.example.project.drawingboard.models.CanvasSnapshot;
+import com.example.project.drawingboard.views.PaintCanvas;
+
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays touch traces into the drawing canvas and reports how smoothly it kept up.
+ *
+ * Besides a synthetic trace, every trace recorded with "Record touch trace" and dropped into
+ * the androidTest assets under traces/ is replayed at its recorded pace.
+ */
+public class TouchTraceReplayTest extends ActivityInstrumentationTestCase2<DrawingBoardActivity> {
+
+    private static final String LOG_TAG = TouchTraceReplayTest.class.getSimpleName();
+    private static final String TRACES_ASSET_DIR = "traces";
+
+    private PaintCanvas mCanvas;
+
+    public TouchTraceReplayTest() {
+        super(DrawingBoardActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // start from a blank canvas, not from the drawing a previous test left behind.
+        CanvasSnapshot.getFile(getInstrumentation().getTargetContext()).delete();
+        mCanvas = (PaintCanvas) getActivity().findViewById(R.id.paintCanvas);
+        getInstrumentation().waitForIdleSync();
+    }
+
+    public void testSyntheticTraceRoundTrips() throws Exception {
+        final byte[] trace = createZigZagTrace(mCanvas.getWidth(), mCanvas.getHeight(), 5, 60);
+        final TouchTraceReader reader = new TouchTraceReader(new ByteArrayInputStream(trace));
+        assertEquals(mCanvas.getWidth(), reader.getViewWidth());
+        assertEquals(mCanvas.getHeight(), reader.getViewHeight());
+
+        final TouchTraceEvent event = new TouchTraceEvent();
+        int eventCount = 0;
+        long lastTime = -1;
+        while (reader.read(event)) {
+            assertEquals(1, event.getPointerCount());
+            assertTrue(event.getEventTime() >= lastTime);
+            lastTime = event.getEventTime();
+            if (eventCount == 0) {
+                // coordinates are delta coded, the first one from the origin.
+                assertEquals(0f, event.getX(0, 0), 1f / 16);
+                assertEquals(mCanvas.getHeight() / 6f, event.getY(0, 0), 1f / 16);
+            }
+            eventCount++;
+        }
+        assertEquals(5 * 62, eventCount);
+        // the last stroke ends on the right edge, after every delta was added up.
+        assertEquals((float) mCanvas.getWidth(), event.getX(0, 0), 1f / 16);
+        assertEquals(MotionEvent.ACTION_UP, event.getAction());
+    }
+
+    public void testReplaySyntheticTrace() throws Exception {
+        final byte[] trace = createZigZagTrace(mCanvas.getWidth(), mCanvas.getHeight(), 5, 60);
+        final ReplayReport report = new TouchTraceReplayer(mCanvas)
+                .replay(new ByteArrayInputStream(trace), false);
+        Log.i(LOG_TAG, "synthetic: " + report);
+
+        assertEquals(5 * 62, report.getEventCount());
+        assertNotNull(report.getImageHash());
+        assertEquals(40, report.getImageHash().length());
+    }
+
+    public void testReplayIsDeterministic() throws Exception {
+        final byte[] trace = createZigZagTrace(mCanvas.getWidth(), mCanvas.getHeight(), 5, 60);
+        final String firstHash = new TouchTraceReplayer(mCanvas)
+                .replay(new ByteArrayInputStream(trace), false).getImageHash();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCanvas.clearCanvas();
+            }
+        });
+        final String secondHash = new TouchTraceReplayer(mCanvas)
+                .replay(new ByteArrayInputStream(trace), false).getImageHash();
+
+        // strokes reach the layers on touch up, not whenever a frame happens to be drawn.
+        assertEquals(firstHash, secondHash);
+    }
+
+    public void testReplayRecordedTraces() throws Exception {
+        final AssetManager assets = getInstrumentation().getContext().getAssets();
+        final String[] traces = assets.list(TRACES_ASSET_DIR);
+        if (traces == null) {
+            return;
+        }
+        for (String name : traces) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mCanvas.clearCanvas();
+                }
+            });
+            final InputStream trace = assets.open(TRACES_ASSET_DIR + "/" + name);
+            try {
+                final ReplayReport report = new TouchTraceReplayer(mCanvas).replay(trace, true);
+                Log.i(LOG_TAG, name + ": " + report);
+                assertTrue(report.getEventCount() > 0);
+            } finally {
+                trace.close();
+            }
+        }
+    }
+
+    /**
+     * @return a trace of strokes zig-zagging across the view, each with the given number of
+     * moves 16ms apart, i.e. a down, the moves and an up per stroke.
+     */
+    private static byte[] createZigZagTrace(int width, int height, int strokes, int moves)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final TouchTraceWriter writer = new TouchTraceWriter(bytes, width, height);
+        long time = SystemClock.uptimeMillis();
+        for (int s = 0; s < strokes; s++) {
+            final long downTime = time;
+            final float y = height * (s + 1) / (strokes + 1f);
+            record(writer, downTime, time, MotionEvent.ACTION_DOWN, 0, y);
+            for (int m = 1; m <= moves; m++) {
+                time += 16;
+                final float x = width * m / (float) moves;
+                record(writer, downTime, time, MotionEvent.ACTION_MOVE, x,
+                        y + ((m & 1) == 0 ? -20 : 20));
+            }
+            record(writer, downTime, time, MotionEvent.ACTION_UP, width, y);
+            time += 200;
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static void record(TouchTraceWriter writer, long downTime, long time, int action,
+                               float x, float y) throws IOException {
+        final MotionEvent event = MotionEvent.obtain(downTime, time, action, x, y, 0);
+        try {
+            writer.record(event);
+        } finally {
+            event.recycle();
+        }
+    }
+}
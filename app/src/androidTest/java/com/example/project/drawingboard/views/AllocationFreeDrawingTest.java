@@ -0,0 +1,110 @@
+package com.example.project.drawingboard.views;
+
+import com.example.project.drawingboard.DrawingBoardActivity;
+import com.example.project.drawingboard.R;
+import com.example.project.drawingboard.models.CanvasSnapshot;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.MotionEvent;
+
+/**
+ * Guards the input to ink path against allocations: once warmed up, handling a touch move and
+ * drawing the frame that follows must not allocate a single object, or the garbage collector
+ * ends up pausing the UI thread in the middle of a stroke.
+ */
+public class AllocationFreeDrawingTest
+        extends ActivityInstrumentationTestCase2<DrawingBoardActivity> {
+
+    private static final int MOVES = 200;
+
+    private PaintCanvas mCanvas;
+    private Bitmap mFrame;
+    private Canvas mFrameCanvas;
+
+    public AllocationFreeDrawingTest() {
+        super(DrawingBoardActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // start from a blank canvas, not from the drawing a previous test left behind.
+        CanvasSnapshot.getFile(getInstrumentation().getTargetContext()).delete();
+        mCanvas = (PaintCanvas) getActivity().findViewById(R.id.paintCanvas);
+        getInstrumentation().waitForIdleSync();
+        mFrame = Bitmap.createBitmap(mCanvas.getWidth(), mCanvas.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        mFrameCanvas = new Canvas(mFrame);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFrame.recycle();
+        super.tearDown();
+    }
+
+    public void testTouchMoveAndDrawDoNotAllocate() throws Exception {
+        // events are obtained up front, as they would be by the input system.
+        final MotionEvent[] warmUp = createStroke(0);
+        final MotionEvent[] stroke = createStroke(1);
+        final int[] allocations = new int[1];
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // a first stroke grows the point buffers and the stroke history.
+                for (MotionEvent event : warmUp) {
+                    mCanvas.onTouchEvent(event);
+                    mCanvas.onDraw(mFrameCanvas);
+                }
+                mCanvas.onTouchEvent(stroke[0]);
+                mCanvas.onDraw(mFrameCanvas);
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 1; i < stroke.length - 1; i++) {
+                    mCanvas.onTouchEvent(stroke[i]);
+                    mCanvas.onDraw(mFrameCanvas);
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+
+                mCanvas.onTouchEvent(stroke[stroke.length - 1]);
+            }
+        });
+        recycle(warmUp);
+        recycle(stroke);
+
+        assertEquals("Allocations while drawing " + MOVES + " moves", 0, allocations[0]);
+    }
+
+    /**
+     * @return a down, {@link #MOVES} moves zig-zagging across the canvas and an up.
+     */
+    private MotionEvent[] createStroke(int index) {
+        final MotionEvent[] events = new MotionEvent[MOVES + 2];
+        final int width = mCanvas.getWidth();
+        final float y = mCanvas.getHeight() * (index + 1) / 3f;
+        final long downTime = SystemClock.uptimeMillis();
+        long time = downTime;
+        events[0] = MotionEvent.obtain(downTime, time, MotionEvent.ACTION_DOWN, 0, y, 0);
+        for (int m = 1; m <= MOVES; m++) {
+            time += 8;
+            events[m] = MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE,
+                    width * m / (float) MOVES, y + ((m & 1) == 0 ? -20 : 20), 0);
+        }
+        events[MOVES + 1] = MotionEvent.obtain(downTime, time, MotionEvent.ACTION_UP, width, y,
+                0);
+        return events;
+    }
+
+    private static void recycle(MotionEvent[] events) {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+    }
+}
@@ -1,11 +1,21 @@
 package com.example.project.drawingboard;
 
+import com.example.project.drawingboard.library.DrawingVersion;
+import com.example.project.drawingboard.library.DrawingVersions;
+import com.example.project.drawingboard.models.DrawingDocument;
+import com.example.project.drawingboard.models.DrawingWorkspace;
+import com.example.project.drawingboard.models.LayerStack;
+import com.example.project.drawingboard.sync.RelayServer;
+import com.example.project.drawingboard.sync.SharedBoardSession;
+import com.example.project.drawingboard.trace.TouchTraceWriter;
 import com.example.project.drawingboard.views.ColorPickerFragment;
 import com.example.project.drawingboard.views.PaintCanvasFragment;
 
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.graphics.Color;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
@@ -16,8 +26,15 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
 import java.util.EnumSet;
+import java.util.List;
 
 public class DrawingBoardActivity extends AppCompatActivity implements ColorPickerFragment
         .OnColorPickerListener {
@@ -34,10 +51,20 @@ public class DrawingBoardActivity extends AppCompatActivity implements ColorPick
     private static final String KEY_SAVE_DIALOG = "key_save_dialog";
     private static final String KEY_SCREEN_STATES = "key_screen_states";
     private static final String KEY_LAST_SELECTED_COLOR = "key_last_selected_color";
+    private static final int REQUEST_PICK_BACKGROUND = 1;
+
+    // how many times faster than drawn, time-lapses are played back and exported.
+    private static final float PLAYBACK_SPEED = 4f;
 
     private int mLastSelectedColor = Color.BLACK;
     private EnumSet<ActionType> pendingActions = EnumSet.noneOf(ActionType.class);
 
+    // non null while connected to a shared board.
+    private SharedBoardSession mSharedBoard;
+
+    // non null while the touches on the canvas are being recorded, for replaying them in tests.
+    private TouchTraceWriter mTouchTrace;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -53,6 +80,14 @@ public class DrawingBoardActivity extends AppCompatActivity implements ColorPick
 
         mCanvasFragment = (PaintCanvasFragment) getFragmentManager()
                 .findFragmentById(R.id.canvasFragment);
+        // a shared board stays connected while the activity is re-created.
+        final SharedBoardSession sharedBoard =
+                (SharedBoardSession) getLastCustomNonConfigurationInstance();
+        if (sharedBoard != null) {
+            sharedBoard.setBoardView(mCanvasFragment.getCanvasView());
+            mSharedBoard = sharedBoard;
+            mCanvasFragment.setSharedBoardSession(sharedBoard);
+        }
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -71,6 +106,12 @@ public class DrawingBoardActivity extends AppCompatActivity implements ColorPick
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        checkStorageModeItem(menu);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -78,11 +119,114 @@ public class DrawingBoardActivity extends AppCompatActivity implements ColorPick
             pendingActions.add(ActionType.ERASE);
             showSaveDialog();
             return true;
+        } else if (id == R.id.action_new_document) {
+            mCanvasFragment.newDocument();
+            return true;
+        } else if (id == R.id.action_switch_document) {
+            showSwitchDocumentDialog();
+            return true;
+        } else if (id == R.id.action_save_version) {
+            performVersionSave();
+            return true;
+        } else if (id == R.id.action_versions) {
+            showVersionsDialog();
+            return true;
+        } else if (id == R.id.action_add_layer) {
+            mCanvasFragment.addLayer();
+            return true;
+        } else if (id == R.id.action_lasso) {
+            mCanvasFragment.setLassoMode(!mCanvasFragment.isLassoMode());
+            item.setChecked(mCanvasFragment.isLassoMode());
+            return true;
+        } else if (id == R.id.action_play_back) {
+            mCanvasFragment.startPlayback(PLAYBACK_SPEED);
+            return true;
+        } else if (id == R.id.action_export_frames) {
+            performFrameExport();
+            return true;
+        } else if (id == R.id.action_export_svg) {
+            performVectorExport(ExportVectorTask.FORMAT_SVG);
+            return true;
+        } else if (id == R.id.action_export_pdf) {
+            performVectorExport(ExportVectorTask.FORMAT_PDF);
+            return true;
+        } else if (id == R.id.action_trace_image) {
+            Intent pickImage = new Intent(Intent.ACTION_GET_CONTENT)
+                    .setType("image/*")
+                    .addCategory(Intent.CATEGORY_OPENABLE);
+            startActivityForResult(pickImage, REQUEST_PICK_BACKGROUND);
+            return true;
+        } else if (id == R.id.action_host_board) {
+            startSharedBoard(SharedBoardSession.host(RelayServer.DEFAULT_PORT,
+                    mCanvasFragment.getCanvasView()));
+            return true;
+        } else if (id == R.id.action_join_board) {
+            showJoinBoardDialog();
+            return true;
+        } else if (id == R.id.action_canvas_depth) {
+            // the restore may have completed since the menu was prepared.
+            checkStorageModeItem(item.getSubMenu());
+            return false;
+        } else if (id == R.id.action_depth_auto) {
+            return selectStorageMode(item, LayerStack.STORAGE_AUTO);
+        } else if (id == R.id.action_depth_full_color) {
+            return selectStorageMode(item, LayerStack.STORAGE_FULL_COLOR);
+        } else if (id == R.id.action_depth_reduced_color) {
+            return selectStorageMode(item, LayerStack.STORAGE_REDUCED_COLOR);
+        } else if (id == R.id.action_depth_single_color) {
+            return selectStorageMode(item, LayerStack.STORAGE_SINGLE_COLOR);
+        } else if (id == R.id.action_record_touch_trace) {
+            if (mTouchTrace == null) {
+                startTouchTrace();
+            } else {
+                stopTouchTrace();
+            }
+            item.setChecked(mTouchTrace != null);
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_PICK_BACKGROUND && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            mCanvasFragment.setBackgroundImage(data.getData());
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (!isChangingConfigurations()) {
+            // the retained drawing survives configuration changes, but not the process.
+            mCanvasFragment.saveSnapshot();
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mSharedBoard;
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (isChangingConfigurations()) {
+            if (mSharedBoard != null) {
+                // handed over to the next activity, see onRetainCustomNonConfigurationInstance.
+                mSharedBoard.setBoardView(null);
+                mCanvasFragment.setSharedBoardSession(null);
+                mSharedBoard = null;
+            }
+        } else {
+            leaveSharedBoard();
+        }
+        stopTouchTrace();
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         // save if needed and finish();
@@ -187,7 +331,7 @@ public class DrawingBoardActivity extends AppCompatActivity implements ColorPick
             Log.d(LOG_TAG, "Spawned a new task to save drawing.");
         }
 
-        new SaveDrawingTask(mCanvasFragment.getBitmap(), this).execute();
+        new SaveDrawingTask(mCanvasFragment.createSnapshot(), this).execute();
 
         if (pendingActions.contains(ActionType.ERASE)) {
             performErase();
@@ -199,6 +343,216 @@ public class DrawingBoardActivity extends AppCompatActivity implements ColorPick
         }
     }
 
+    private void performFrameExport() {
+        Snackbar.make(mCanvasFragment.getView(), R.string.status_exporting_frames,
+                Snackbar.LENGTH_LONG).show();
+        new ExportFrameSequenceTask(mCanvasFragment.createPlayback(), PLAYBACK_SPEED, this)
+                .execute();
+    }
+
+    private void performVectorExport(final int format) {
+        if (!ExportVectorTask.isIncomplete(mCanvasFragment.getLayerStack())) {
+            startVectorExport(format);
+            return;
+        }
+        // e.g. an opened image or version, or a drawing restored without its strokes.
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dialog_vector_export_title)
+                .setMessage(R.string.dialog_vector_export_incomplete_msg)
+                .setPositiveButton(R.string.action_export_anyway,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                startVectorExport(format);
+                            }
+                        })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void startVectorExport(int format) {
+        new ExportVectorTask(mCanvasFragment.getStrokeHistory(), mCanvasFragment.getLayerStack(),
+                format, this).execute();
+    }
+
+    private void showSwitchDocumentDialog() {
+        final DrawingWorkspace workspace = mCanvasFragment.getWorkspace();
+        final DrawingDocument[] documents = new DrawingDocument[workspace.getDocumentCount()];
+        final String[] titles = new String[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = workspace.getDocument(i);
+            titles[i] = getString(documents[i].isResident() ? R.string.document_title
+                    : R.string.document_title_spilled, documents[i].getId() + 1);
+        }
+        // the current drawing comes first.
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dialog_switch_document_title)
+                .setSingleChoiceItems(titles, 0, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mCanvasFragment.switchToDocument(documents[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    private void performVersionSave() {
+        final DrawingDocument document = mCanvasFragment.getWorkspace().getCurrent();
+        if (document.getVersionedDrawingId() == 0) {
+            // the first version names the drawing in the library, as a plain save does.
+            document.setVersionedDrawingId(System.currentTimeMillis() / 1000);
+        }
+        new SaveDrawingTask(mCanvasFragment.createSnapshot(), document.getVersionedDrawingId(),
+                this).execute();
+    }
+
+    private void showVersionsDialog() {
+        final long drawingId = mCanvasFragment.getWorkspace().getCurrent()
+                .getVersionedDrawingId();
+        if (drawingId == 0) {
+            Snackbar.make(mCanvasFragment.getView(), R.string.snackbar_no_versions,
+                    Snackbar.LENGTH_LONG).show();
+            return;
+        }
+        // manifests are small, but still read off the UI thread.
+        new AsyncTask<Void, Void, List<DrawingVersion>>() {
+            @Override
+            protected List<DrawingVersion> doInBackground(Void... params) {
+                final DrawingVersions versions =
+                        SaveDrawingTask.openVersions(DrawingBoardActivity.this);
+                try {
+                    return versions.list(drawingId);
+                } finally {
+                    versions.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(final List<DrawingVersion> versions) {
+                if (isFinishing()) {
+                    return;
+                }
+                if (versions.isEmpty()) {
+                    Snackbar.make(mCanvasFragment.getView(), R.string.snackbar_no_versions,
+                            Snackbar.LENGTH_LONG).show();
+                    return;
+                }
+                final DateFormat dateFormat = DateFormat.getDateTimeInstance();
+                final String[] titles = new String[versions.size()];
+                for (int i = 0; i < titles.length; i++) {
+                    titles[i] = dateFormat.format(new Date(versions.get(i).getSavedMillis()));
+                }
+                // the most recent version comes first.
+                new AlertDialog.Builder(DrawingBoardActivity.this)
+                        .setTitle(R.string.dialog_versions_title)
+                        .setItems(titles, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                new OpenVersionTask(versions.get(which), mCanvasFragment,
+                                        DrawingBoardActivity.this).execute();
+                            }
+                        })
+                        .show();
+            }
+        }.execute();
+    }
+
+    private void showJoinBoardDialog() {
+        final EditText hostInput = new EditText(this);
+        hostInput.setHint(R.string.hint_board_host);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dialog_join_board_title)
+                .setView(hostInput)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final String host = hostInput.getText().toString().trim();
+                        if (!host.isEmpty()) {
+                            startSharedBoard(SharedBoardSession.join(host,
+                                    RelayServer.DEFAULT_PORT, mCanvasFragment.getCanvasView()));
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void startSharedBoard(SharedBoardSession session) {
+        leaveSharedBoard();
+        mSharedBoard = session;
+        mCanvasFragment.setSharedBoardSession(session);
+    }
+
+    private void leaveSharedBoard() {
+        if (mSharedBoard != null) {
+            mCanvasFragment.setSharedBoardSession(null);
+            mSharedBoard.close();
+            mSharedBoard = null;
+        }
+    }
+
+    private void startTouchTrace() {
+        final View canvas = mCanvasFragment.getCanvasView();
+        final File trace = new File(getExternalFilesDir("traces"),
+                "trace_" + System.currentTimeMillis() + ".dbtr");
+        try {
+            mTouchTrace = new TouchTraceWriter(new FileOutputStream(trace), canvas.getWidth(),
+                    canvas.getHeight());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not start recording touches to " + trace, e);
+            return;
+        }
+        mCanvasFragment.setTouchTraceWriter(mTouchTrace);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Recording touches to " + trace);
+        }
+    }
+
+    private void stopTouchTrace() {
+        if (mTouchTrace != null) {
+            mCanvasFragment.setTouchTraceWriter(null);
+            try {
+                mTouchTrace.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not finish the touch trace", e);
+            }
+            mTouchTrace = null;
+        }
+    }
+
+    /**
+     * Checks the item of the current storage mode, which may have been restored along with the
+     * drawing.
+     */
+    private void checkStorageModeItem(Menu menu) {
+        final int depthItemId;
+        switch (mCanvasFragment.getStorageMode()) {
+            case LayerStack.STORAGE_FULL_COLOR:
+                depthItemId = R.id.action_depth_full_color;
+                break;
+            case LayerStack.STORAGE_REDUCED_COLOR:
+                depthItemId = R.id.action_depth_reduced_color;
+                break;
+            case LayerStack.STORAGE_SINGLE_COLOR:
+                depthItemId = R.id.action_depth_single_color;
+                break;
+            default:
+                depthItemId = R.id.action_depth_auto;
+                break;
+        }
+        final MenuItem depthItem = menu.findItem(depthItemId);
+        if (depthItem != null) {
+            depthItem.setChecked(true);
+        }
+    }
+
+    private boolean selectStorageMode(MenuItem item, int storageMode) {
+        mCanvasFragment.setStorageMode(storageMode);
+        item.setChecked(true);
+        return true;
+    }
+
     private void performErase() {
         mCanvasFragment.clearCanvas();
         pendingActions.remove(ActionType.ERASE);
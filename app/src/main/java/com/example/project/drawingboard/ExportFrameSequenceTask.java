@@ -0,0 +1,177 @@
+package com.example.project.drawingboard;
+
+import com.example.project.drawingboard.models.HistoryPlayback;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Asynchronously exports a time-lapse of a stroke history as a numbered sequence of PNG frames,
+ * at a fixed frame rate, to a new folder in the external DCIM directory.
+ *
+ * Frames are rendered incrementally by a {@link HistoryPlayback}, so each frame only draws the
+ * strokes since the previous one. Encoding is handed off to a small pool of threads. Only a fixed
+ * number of frame buffers exist, and rendering waits for one of them to be encoded and returned
+ * before going on, so memory stays flat however long the history is.
+ */
+public class ExportFrameSequenceTask extends AsyncTask<Void, Void, File> {
+
+    private static final String LOG_TAG = ExportFrameSequenceTask.class.getSimpleName();
+
+    public static final int FRAMES_PER_SECOND = 24;
+
+    // Upper bound on frames rendered but not yet written out.
+    private static final int MAX_FRAMES_IN_FLIGHT = 3;
+    private static final int ENCODER_THREADS = 2;
+
+    private static final File STORAGE_PATH =
+            SaveDrawingTask.getStoragePath(Environment.DIRECTORY_DCIM);
+
+    private Activity mUiContext;
+    private final HistoryPlayback mPlayback;
+    private final float mSpeed;
+
+    /**
+     * @param playback the history to export, this task takes ownership of it.
+     * @param speed how many times faster than it was drawn the time-lapse plays.
+     */
+    public ExportFrameSequenceTask(HistoryPlayback playback, float speed, Activity uiContext) {
+        mUiContext = uiContext;
+        mPlayback = playback;
+        mSpeed = speed;
+    }
+
+    @Override
+    protected File doInBackground(Void... taskInputParams) {
+        final File framesFolder = new File(STORAGE_PATH,
+                "drawing_" + System.currentTimeMillis() / 1000 + "_frames");
+        if (!framesFolder.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create folder " + framesFolder);
+            mPlayback.release();
+            return null;
+        }
+
+        final BlockingQueue<Bitmap> freeFrames = new ArrayBlockingQueue<Bitmap>(
+                MAX_FRAMES_IN_FLIGHT);
+        for (int i = 0; i < MAX_FRAMES_IN_FLIGHT; i++) {
+            freeFrames.add(Bitmap.createBitmap(mPlayback.getWidth(), mPlayback.getHeight(),
+                    Bitmap.Config.ARGB_8888));
+        }
+        final ExecutorService encoders = Executors.newFixedThreadPool(ENCODER_THREADS);
+        final AtomicBoolean hasFailed = new AtomicBoolean(false);
+
+        // time on the playback clock between two frames.
+        final long frameStep = Math.max(1, (long) (mSpeed * 1000 / FRAMES_PER_SECOND));
+        final Canvas frameCanvas = new Canvas();
+        int frameIndex = 0;
+        try {
+            for (long clock = 0; !hasFailed.get() && !isCancelled(); clock += frameStep) {
+                mPlayback.advanceTo(clock);
+
+                // blocks while MAX_FRAMES_IN_FLIGHT frames are waiting to be encoded.
+                final Bitmap frame = freeFrames.take();
+                frameCanvas.setBitmap(frame);
+                mPlayback.draw(frameCanvas);
+
+                final File frameFile = new File(framesFolder,
+                        String.format(Locale.US, "frame_%05d.png", frameIndex++));
+                encoders.execute(new EncodeFrame(frame, frameFile, freeFrames, hasFailed));
+
+                if (mPlayback.isFinished()) {
+                    break;
+                }
+            }
+            encoders.shutdown();
+            encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interrupted) {
+            encoders.shutdownNow();
+            Log.e(LOG_TAG, "Frame export interrupted");
+            // frames being encoded are only handed back once written, interrupted or not.
+            while (!encoders.isTerminated()) {
+                SystemClock.sleep(10);
+            }
+            recycleFrames(freeFrames);
+            return null;
+        } finally {
+            frameCanvas.setBitmap(null);
+            mPlayback.release();
+        }
+
+        recycleFrames(freeFrames);
+
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, " exported " + frameIndex + " frames to " + framesFolder);
+        }
+        return hasFailed.get() ? null : framesFolder;
+    }
+
+    private static void recycleFrames(BlockingQueue<Bitmap> freeFrames) {
+        Bitmap frame;
+        while ((frame = freeFrames.poll()) != null) {
+            frame.recycle();
+        }
+    }
+
+    @Override
+    protected void onPostExecute(final File framesFolder) {
+        if (mUiContext != null && framesFolder != null) {
+            Toast.makeText(mUiContext, R.string.snackbar_frames_exported, Toast.LENGTH_LONG)
+                    .show();
+        }
+    }
+
+    /**
+     * Writes one frame out, and hands its buffer back for the next frames to be rendered in.
+     */
+    private static class EncodeFrame implements Runnable {
+        private final Bitmap mFrame;
+        private final File mFrameFile;
+        private final BlockingQueue<Bitmap> mFreeFrames;
+        private final AtomicBoolean mHasFailed;
+
+        EncodeFrame(Bitmap frame, File frameFile, BlockingQueue<Bitmap> freeFrames,
+                    AtomicBoolean hasFailed) {
+            mFrame = frame;
+            mFrameFile = frameFile;
+            mFreeFrames = freeFrames;
+            mHasFailed = hasFailed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final OutputStream outputStream = new BufferedOutputStream(
+                        new FileOutputStream(mFrameFile));
+                try {
+                    mFrame.compress(Bitmap.CompressFormat.PNG, 0, outputStream);
+                } finally {
+                    outputStream.close();
+                }
+            } catch (IOException ioe) {
+                Log.e(LOG_TAG, "Could not write frame " + mFrameFile);
+                mHasFailed.set(true);
+            } finally {
+                mFreeFrames.add(mFrame);
+            }
+        }
+    }
+}
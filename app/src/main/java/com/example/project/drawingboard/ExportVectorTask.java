@@ -0,0 +1,138 @@
+package com.example.project.drawingboard;
+
+import com.example.project.drawingboard.export.PdfStrokeWriter;
+import com.example.project.drawingboard.export.SvgStrokeWriter;
+import com.example.project.drawingboard.export.VectorStrokeWriter;
+import com.example.project.drawingboard.models.DrawingLayer;
+import com.example.project.drawingboard.models.LayerStack;
+import com.example.project.drawingboard.models.StrokeHistory;
+
+import android.app.Activity;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Asynchronously exports the strokes of the visible layers as an SVG or PDF document to the
+ * external Downloads directory.
+ *
+ * Strokes are read from the live history one at a time and written straight to the file, so
+ * memory stays flat however many strokes there are, and drawing can go on meanwhile. Clearing
+ * the drawing meanwhile fails the export, rather than leave a document missing strokes. The
+ * background image, the blend modes of the layers and pixels that are not strokes, see
+ * {@link #isIncomplete(LayerStack)}, are not exported.
+ */
+public class ExportVectorTask extends AsyncTask<Void, Void, File> {
+
+    private static final String LOG_TAG = ExportVectorTask.class.getSimpleName();
+
+    public static final int FORMAT_SVG = 0;
+    public static final int FORMAT_PDF = 1;
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    private static final File STORAGE_PATH =
+            SaveDrawingTask.getStoragePath(Environment.DIRECTORY_DOWNLOADS);
+
+    private Activity mUiContext;
+    private final StrokeHistory mHistory;
+    private final int mFormat;
+    private final int mWidth, mHeight;
+    private final int[] mLayerIds;
+    private final int[] mLayerOpacities;
+
+    /**
+     * Takes what it needs of the layers right away, so must be created on the UI thread.
+     *
+     * @param format {@link #FORMAT_SVG} or {@link #FORMAT_PDF}.
+     */
+    public ExportVectorTask(StrokeHistory history, LayerStack layers, int format,
+                            Activity uiContext) {
+        mUiContext = uiContext;
+        mHistory = history;
+        mFormat = format;
+        mWidth = layers.getWidth();
+        mHeight = layers.getHeight();
+
+        int visibleCount = 0;
+        for (int i = 0; i < layers.getLayerCount(); i++) {
+            if (layers.getLayer(i).isVisible()) {
+                visibleCount++;
+            }
+        }
+        mLayerIds = new int[visibleCount];
+        mLayerOpacities = new int[visibleCount];
+        for (int i = 0, visible = 0; i < layers.getLayerCount(); i++) {
+            final DrawingLayer layer = layers.getLayer(i);
+            if (layer.isVisible()) {
+                mLayerIds[visible] = layer.getId();
+                mLayerOpacities[visible] = layer.getOpacity();
+                visible++;
+            }
+        }
+    }
+
+    /**
+     * @return true if a visible layer holds pixels that are not strokes, which an export leaves
+     * out.
+     */
+    public static boolean isIncomplete(LayerStack layers) {
+        for (int i = 0; i < layers.getLayerCount(); i++) {
+            final DrawingLayer layer = layers.getLayer(i);
+            if (layer.isVisible() && layer.hasUnrecordedPixels()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected File doInBackground(Void... taskInputParams) {
+        STORAGE_PATH.mkdirs();
+        final File file = new File(STORAGE_PATH, "drawing_" + System.currentTimeMillis() / 1000
+                + (mFormat == FORMAT_PDF ? ".pdf" : ".svg"));
+        final long start = System.nanoTime();
+        try {
+            final BufferedOutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(file), FILE_BUFFER_SIZE);
+            VectorStrokeWriter writer = null;
+            try {
+                writer = mFormat == FORMAT_PDF
+                        ? new PdfStrokeWriter(out, mWidth, mHeight, LayerStack.PAPER_COLOR)
+                        : new SvgStrokeWriter(out, mWidth, mHeight, LayerStack.PAPER_COLOR);
+                writer.writeLayers(mHistory, mLayerIds, mLayerOpacities);
+            } finally {
+                // finishes the document, and closes the file.
+                if (writer != null) {
+                    writer.close();
+                } else {
+                    out.close();
+                }
+            }
+        } catch (IOException ioe) {
+            Log.e(LOG_TAG, "Could not export to " + file, ioe);
+            file.delete();
+            return null;
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, " exported " + file.length() + " bytes to " + file + " in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        return file;
+    }
+
+    @Override
+    protected void onPostExecute(final File file) {
+        if (mUiContext != null) {
+            Toast.makeText(mUiContext, file != null ? R.string.snackbar_vector_exported
+                    : R.string.snackbar_vector_export_failed, Toast.LENGTH_LONG).show();
+        }
+    }
+}
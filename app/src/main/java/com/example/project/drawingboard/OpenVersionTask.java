@@ -0,0 +1,78 @@
+package com.example.project.drawingboard;
+
+import com.example.project.drawingboard.library.DrawingVersion;
+import com.example.project.drawingboard.library.DrawingVersions;
+import com.example.project.drawingboard.views.PaintCanvasFragment;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.IOException;
+
+/**
+ * Asynchronously reads the tiles of a saved version of a drawing back into an image, and opens
+ * it as a new drawing on the canvas.
+ */
+public class OpenVersionTask extends AsyncTask<Void, Void, Bitmap> {
+
+    private static final String LOG_TAG = OpenVersionTask.class.getSimpleName();
+
+    private Activity mUiContext;
+    private final PaintCanvasFragment mCanvasFragment;
+    private final DrawingVersion mVersion;
+
+    public OpenVersionTask(DrawingVersion version, PaintCanvasFragment canvasFragment,
+                           Activity uiContext) {
+        mUiContext = uiContext;
+        mCanvasFragment = canvasFragment;
+        mVersion = version;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Void... taskInputParams) {
+        final long start = System.nanoTime();
+        final DrawingVersions versions = SaveDrawingTask.openVersions(mUiContext);
+        final int tileSize = mVersion.getTileSize();
+        final int[] tile = new int[tileSize * tileSize];
+        final Bitmap image = Bitmap.createBitmap(mVersion.getWidth(), mVersion.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        try {
+            for (int row = 0; row < mVersion.getRows(); row++) {
+                for (int column = 0; column < mVersion.getColumns(); column++) {
+                    versions.readTile(mVersion, column, row, tile);
+                    final int x = column * tileSize;
+                    final int y = row * tileSize;
+                    final int tileWidth = Math.min(tileSize, mVersion.getWidth() - x);
+                    image.setPixels(tile, 0, tileWidth, x, y, tileWidth,
+                            Math.min(tileSize, mVersion.getHeight() - y));
+                }
+            }
+        } catch (IOException ioe) {
+            Log.e(LOG_TAG, "Could not read the version " + mVersion.getManifestFile(), ioe);
+            image.recycle();
+            return null;
+        } finally {
+            versions.close();
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, " read a version in " + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        return image;
+    }
+
+    @Override
+    protected void onPostExecute(final Bitmap image) {
+        final boolean isOpened = image != null
+                && mCanvasFragment.openVersion(image, mVersion.getDrawingId());
+        if (image != null) {
+            image.recycle();
+        }
+        if (!isOpened && mUiContext != null) {
+            Toast.makeText(mUiContext, R.string.snackbar_version_open_failed,
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.example.project.drawingboard;
 
+import com.example.project.drawingboard.library.DrawingLibrary;
+import com.example.project.drawingboard.library.DrawingVersion;
+import com.example.project.drawingboard.library.DrawingVersions;
+import com.example.project.drawingboard.models.DrawingSnapshot;
+
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
@@ -10,36 +15,59 @@ import android.os.Environment;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Created by ritwaj.ratan on 1/13/2016.
  */
 
 /**
- * Asynchronously saves the provided bitmap to the external DCIM directory.
+ * Asynchronously renders the provided snapshot of a drawing and saves it to the external DCIM
+ * directory. The snapshot is released once rendered.
+ *
+ * In versioned mode, the drawing is saved as a new version in {@link DrawingVersions} instead,
+ * which only stores the tiles that no earlier version has.
  */
 public class SaveDrawingTask extends AsyncTask<Void, Void, Uri> {
 
     private static final String LOG_TAG = SaveDrawingTask.class.getSimpleName();
 
     private Activity mUiContext;
-    private Bitmap mDrawing;
+    private DrawingSnapshot mDrawing;
+    // 0 unless saving a version.
+    private final long mVersionedDrawingId;
+
+    private static final File STORAGE_PATH = getStoragePath(Environment.DIRECTORY_DCIM);
 
-    //TODO: this should ideally be pulled in from user settings (preference)
-    private static final File STORAGE_PATH = Environment.getExternalStoragePublicDirectory
-            (Environment.DIRECTORY_DCIM);
+    // Longest side, in pixels, of the thumbnails kept in the drawings library.
+    private static final int THUMBNAIL_SIZE = 256;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    public SaveDrawingTask(DrawingSnapshot drawing, Activity uiContext) {
+        this(drawing, 0, uiContext);
+    }
 
-    public SaveDrawingTask(Bitmap drawing, Activity uiContext) {
+    /**
+     * @param versionedDrawingId if not 0, the id to save the drawing as a new version of.
+     */
+    public SaveDrawingTask(DrawingSnapshot drawing, long versionedDrawingId, Activity uiContext) {
         mUiContext = uiContext;
         mDrawing = drawing;
+        mVersionedDrawingId = versionedDrawingId;
     }
 
     @Override
     protected Uri doInBackground(Void... taskInputParams) {
+        if (mVersionedDrawingId != 0) {
+            return saveVersion();
+        }
 
         Uri savedFileUri = Uri.EMPTY;
         if (!STORAGE_PATH.exists()) {
@@ -47,15 +75,38 @@ public class SaveDrawingTask extends AsyncTask<Void, Void, Uri> {
         }
         try {
             // Save to the default camera (DCIM) album.
+            final long savedMillis = System.currentTimeMillis();
+            final DrawingLibrary library = openLibrary(mUiContext);
+            long drawingId = savedMillis / 1000;
+            try {
+                drawingId = library.newId(savedMillis);
+            } catch (IOException libraryError) {
+                Log.e(LOG_TAG, "Could not read the library", libraryError);
+            }
             final String newImageFilePath = STORAGE_PATH +
-                    File.separator + "drawing_" + System.currentTimeMillis() / 1000 + ".png";
+                    File.separator + "drawing_" + drawingId + ".png";
             File userDrawing = new File(newImageFilePath);
-            final FileOutputStream outputStream = new FileOutputStream(userDrawing);
-            mDrawing.compress(Bitmap.CompressFormat.PNG, 0 /** PNG formats ignore the quality
+            // hash the image while it is written, for the library.
+            final MessageDigest contentHash = MessageDigest.getInstance("SHA-1");
+            final DigestOutputStream outputStream = new DigestOutputStream(
+                    new FileOutputStream(userDrawing), contentHash);
+            final Bitmap image = mDrawing.render();
+            image.compress(Bitmap.CompressFormat.PNG, 0 /** PNG formats ignore the quality
              parameter anyway*/, outputStream);
             outputStream.flush();
             outputStream.close();
 
+            final byte[] thumbnail = encodeThumbnail(image);
+            image.recycle();
+            try {
+                library.add(drawingId, savedMillis, savedMillis,
+                        mDrawing.getWidth(), mDrawing.getHeight(), mDrawing.getStrokeCount(),
+                        contentHash.digest(), thumbnail);
+            } catch (IOException libraryError) {
+                // the drawing is saved all the same, it only does not get listed.
+                Log.e(LOG_TAG, "Could not add the drawing to the library", libraryError);
+            }
+
             savedFileUri = Uri.fromFile(userDrawing);
 
             // force the media content provider to update with this file.
@@ -71,17 +122,110 @@ public class SaveDrawingTask extends AsyncTask<Void, Void, Uri> {
             Log.e(LOG_TAG, "Unable to create the image");
         } catch (IOException ioe) {
             Log.e(LOG_TAG, "Could not write to gallery");
+        } catch (NoSuchAlgorithmException noSha1) {
+            Log.e(LOG_TAG, "Could not hash the drawing");
+        } finally {
+            mDrawing.release();
         }
 
         return savedFileUri;
     }
 
+    /**
+     * Splits the drawing into tiles and stores those not stored yet, then lists the version in
+     * the library, in place of the previous one.
+     *
+     * @return the manifest of the version, or {@link Uri#EMPTY} if it could not be saved.
+     */
+    private Uri saveVersion() {
+        final Bitmap image = mDrawing.render();
+        final DrawingVersions versions = openVersions(mUiContext);
+        try {
+            final long start = System.nanoTime();
+            final long savedMillis = System.currentTimeMillis();
+            final int width = image.getWidth();
+            final int height = image.getHeight();
+            final DrawingVersions.VersionWriter writer = versions.beginVersion(
+                    mVersionedDrawingId, savedMillis, width, height, mDrawing.getStrokeCount());
+            final int tileSize = DrawingVersions.TILE_SIZE;
+            final int[] tile = new int[tileSize * tileSize];
+            for (int y = 0; y < height; y += tileSize) {
+                for (int x = 0; x < width; x += tileSize) {
+                    final int tileWidth = Math.min(tileSize, width - x);
+                    image.getPixels(tile, 0, tileWidth, x, y, tileWidth,
+                            Math.min(tileSize, height - y));
+                    writer.putTile(x / tileSize, y / tileSize, tile);
+                }
+            }
+            final DrawingVersion version = writer.commit();
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, " saved a version with " + writer.getNewTileCount()
+                        + " new tiles in " + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+
+            try {
+                openLibrary(mUiContext).add(mVersionedDrawingId, mVersionedDrawingId * 1000,
+                        savedMillis, width, height, mDrawing.getStrokeCount(),
+                        version.getContentHash(), encodeThumbnail(image));
+            } catch (IOException libraryError) {
+                Log.e(LOG_TAG, "Could not add the version to the library", libraryError);
+            }
+            return Uri.fromFile(version.getManifestFile());
+        } catch (IOException ioe) {
+            Log.e(LOG_TAG, "Could not save a version of the drawing", ioe);
+            return Uri.EMPTY;
+        } finally {
+            versions.close();
+            image.recycle();
+            mDrawing.release();
+        }
+    }
+
+    /**
+     * @param type one of the DIRECTORY_ constants of {@link Environment}.
+     * @return the public directory of that type that drawings are saved or exported to.
+     */
+    static File getStoragePath(String type) {
+        //TODO: this should ideally be pulled in from user settings (preference)
+        return Environment.getExternalStoragePublicDirectory(type);
+    }
+
+    /**
+     * @return the versions of the drawings saved by this task in versioned mode, to be closed
+     * by the caller.
+     */
+    public static DrawingVersions openVersions(Context context) {
+        return new DrawingVersions(new File(context.getFilesDir(), "versions"));
+    }
+
+    /**
+     * @return the library of the drawings saved by this task.
+     */
+    public static DrawingLibrary openLibrary(Context context) {
+        return new DrawingLibrary(new File(context.getFilesDir(), "library"));
+    }
+
+    private static byte[] encodeThumbnail(Bitmap image) {
+        final float scale = Math.min(1f,
+                (float) THUMBNAIL_SIZE / Math.max(image.getWidth(), image.getHeight()));
+        final Bitmap thumbnail = Bitmap.createScaledBitmap(image,
+                Math.max(1, Math.round(image.getWidth() * scale)),
+                Math.max(1, Math.round(image.getHeight() * scale)), true);
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, encoded);
+        if (thumbnail != image) {
+            thumbnail.recycle();
+        }
+        return encoded.toByteArray();
+    }
+
     @Override
     protected void onPostExecute(final Uri savedFileUri) {
         if (mUiContext != null && savedFileUri != null
                 && !savedFileUri.getPath().isEmpty()) {
-            Toast.makeText((Context) mUiContext, R.string
-                    .snackbar_drawing_saved, Toast.LENGTH_LONG);
+            Toast.makeText((Context) mUiContext, mVersionedDrawingId != 0
+                    ? R.string.snackbar_version_saved
+                    : R.string.snackbar_drawing_saved, Toast.LENGTH_LONG).show();
         }
     }
 
@@ -0,0 +1,145 @@
+package com.example.project.drawingboard.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered output stream for text formats made of ASCII tokens and numbers, which prints
+ * numbers straight into its buffer rather than through intermediate strings, and keeps count of
+ * the bytes written through it.
+ */
+final class AsciiOutputStream extends OutputStream {
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000};
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer = new byte[8192];
+    private int mBufferCount = 0;
+    private long mFlushedCount = 0;
+
+    // digits of the number being printed, least significant first.
+    private final byte[] mDigits = new byte[20];
+
+    AsciiOutputStream(OutputStream out) {
+        mOut = out;
+    }
+
+    /**
+     * @return how many bytes were written to this stream so far.
+     */
+    long getPosition() {
+        return mFlushedCount + mBufferCount;
+    }
+
+    AsciiOutputStream print(char c) throws IOException {
+        if (mBufferCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mBufferCount++] = (byte) c;
+        return this;
+    }
+
+    AsciiOutputStream print(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            print(text.charAt(i));
+        }
+        return this;
+    }
+
+    AsciiOutputStream printInt(long value) throws IOException {
+        return printFixed(value, 0);
+    }
+
+    /**
+     * Prints value / 10^decimals, with no trailing zeros, and no leading zero before the
+     * decimal point, e.g. 5 with one decimal is printed as ".5".
+     */
+    AsciiOutputStream printFixed(long value, int decimals) throws IOException {
+        if (value < 0) {
+            print('-');
+            value = -value;
+        }
+        final long scale = POWERS_OF_TEN[decimals];
+        long whole = value / scale;
+        long fraction = value % scale;
+        while (decimals > 0 && fraction % 10 == 0) {
+            fraction /= 10;
+            decimals--;
+        }
+        if (whole > 0 || decimals == 0) {
+            printDigits(whole, 1);
+        }
+        if (decimals > 0) {
+            print('.');
+            printDigits(fraction, decimals);
+        }
+        return this;
+    }
+
+    /**
+     * Prints the lowest bits of the value as the given number of lowercase hex digits.
+     */
+    AsciiOutputStream printHex(int value, int digits) throws IOException {
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            print(HEX_DIGITS[(value >>> shift) & 0xF]);
+        }
+        return this;
+    }
+
+    private void printDigits(long value, int minDigits) throws IOException {
+        int count = 0;
+        do {
+            mDigits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (count < minDigits) {
+            mDigits[count++] = '0';
+        }
+        while (count > 0) {
+            print((char) mDigits[--count]);
+        }
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        print((char) (oneByte & 0xFF));
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (count > mBuffer.length - mBufferCount) {
+            flushBuffer();
+        }
+        if (count > mBuffer.length) {
+            mOut.write(buffer, offset, count);
+            mFlushedCount += count;
+        } else {
+            System.arraycopy(buffer, offset, mBuffer, mBufferCount, count);
+            mBufferCount += count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mBufferCount > 0) {
+            mOut.write(mBuffer, 0, mBufferCount);
+            mFlushedCount += mBufferCount;
+            mBufferCount = 0;
+        }
+    }
+}
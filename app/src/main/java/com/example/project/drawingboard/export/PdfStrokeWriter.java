@@ -0,0 +1,248 @@
+package com.example.project.drawingboard.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes strokes as a one page PDF document, each layer a compressed transparency group drawn
+ * onto the page with the layer opacity.
+ *
+ * The document is written in one pass: objects whose content is only known at the end, like
+ * the page and its resources, are numbered up front and written last, and the length of each
+ * layer stream is written after it as an object of its own. Curves are written as the cubic
+ * curves PDF has, and stroke colour, width and opacity only when they change.
+ */
+public class PdfStrokeWriter extends VectorStrokeWriter {
+
+    // objects written last, and so numbered up front.
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int PAGE = 3;
+    private static final int RESOURCES = 4;
+    private static final int PAGE_CONTENT = 5;
+
+    private final AsciiOutputStream mFile;
+    private final int mWidth, mHeight;
+    private final int mPaperColor;
+
+    // offsets of the objects in the file, by object number.
+    private long[] mOffsets = new long[32];
+    private int mLastObject = PAGE_CONTENT;
+
+    // form object of each layer, and the opacity to draw it with.
+    private int[] mLayerObjects = new int[8];
+    private int[] mLayerOpacities = new int[8];
+    private int mLayerCount = 0;
+
+    // the opacities a graphics state is needed for.
+    private final boolean[] mIsAlphaUsed = new boolean[256];
+
+    // the layer being written.
+    private Deflater mDeflater;
+    private DeflaterOutputStream mDeflaterStream;
+    private AsciiOutputStream mContent;
+    private long mContentStart;
+    private int mLengthObject;
+    // stroke state of the layer content, -1 until set.
+    private int mStrokeRgb, mStrokeAlpha, mStrokeWidth;
+    // current point, in tenths of a pixel.
+    private int mX, mY;
+
+    /**
+     * Writes the start of the document to the given stream, which this writer closes once done.
+     */
+    public PdfStrokeWriter(OutputStream out, int width, int height, int paperColor)
+            throws IOException {
+        mFile = new AsciiOutputStream(out);
+        mWidth = width;
+        mHeight = height;
+        mPaperColor = paperColor;
+        // the binary comment tells transfer tools the file is not text.
+        mFile.print("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+        beginObject(CATALOG).print("<< /Type /Catalog /Pages ").printInt(PAGES)
+                .print(" 0 R >>\n");
+        endObject();
+        beginObject(PAGES).print("<< /Type /Pages /Kids [").printInt(PAGE)
+                .print(" 0 R] /Count 1 >>\n");
+        endObject();
+    }
+
+    @Override
+    public void beginLayer(int opacity) throws IOException {
+        final int layerObject = ++mLastObject;
+        mLengthObject = ++mLastObject;
+        if (mLayerCount == mLayerObjects.length) {
+            mLayerObjects = Arrays.copyOf(mLayerObjects, 2 * mLayerCount);
+            mLayerOpacities = Arrays.copyOf(mLayerOpacities, 2 * mLayerCount);
+        }
+        mLayerObjects[mLayerCount] = layerObject;
+        mLayerOpacities[mLayerCount] = opacity;
+        mLayerCount++;
+        mIsAlphaUsed[opacity] = true;
+
+        beginObject(layerObject).print("<< /Type /XObject /Subtype /Form /BBox [0 0 ")
+                .printInt(mWidth).print(' ').printInt(mHeight)
+                .print("] /Group << /S /Transparency >> /Resources ").printInt(RESOURCES)
+                .print(" 0 R /Filter /FlateDecode /Length ").printInt(mLengthObject)
+                .print(" 0 R >>\nstream\n");
+        mContentStart = mFile.getPosition();
+        mDeflater = new Deflater(Deflater.BEST_COMPRESSION);
+        mDeflaterStream = new DeflaterOutputStream(mFile, mDeflater);
+        mContent = new AsciiOutputStream(mDeflaterStream);
+        // round caps and joins, coordinates in tenths of a pixel.
+        mContent.print("1 J 1 j .1 0 0 .1 0 0 cm\n");
+        mStrokeRgb = -1;
+        mStrokeAlpha = -1;
+        mStrokeWidth = -1;
+    }
+
+    @Override
+    public void endLayer() throws IOException {
+        mContent.flush();
+        mDeflaterStream.finish();
+        mDeflater.end();
+        final long length = mFile.getPosition() - mContentStart;
+        mFile.print("\nendstream\n");
+        endObject();
+        beginObject(mLengthObject).printInt(length).print('\n');
+        endObject();
+        mContent = null;
+        mDeflaterStream = null;
+        mDeflater = null;
+    }
+
+    @Override
+    protected void beginStroke(int color, int width) throws IOException {
+        final int alpha = color >>> 24;
+        if (alpha != mStrokeAlpha) {
+            mContent.print("/a").printInt(alpha).print(" gs\n");
+            mIsAlphaUsed[alpha] = true;
+            mStrokeAlpha = alpha;
+        }
+        final int rgb = color & 0xFFFFFF;
+        if (rgb != mStrokeRgb) {
+            printRgb(mContent, rgb).print(" RG\n");
+            mStrokeRgb = rgb;
+        }
+        if (width != mStrokeWidth) {
+            mContent.printInt(width).print(" w\n");
+            mStrokeWidth = width;
+        }
+    }
+
+    @Override
+    protected void moveTo(int x, int y) throws IOException {
+        mContent.printInt(x).print(' ').printInt(y).print(" m\n");
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    protected void lineTo(int x, int y) throws IOException {
+        mContent.printInt(x).print(' ').printInt(y).print(" l\n");
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    protected void quadTo(int controlX, int controlY, int x, int y) throws IOException {
+        // the cubic curve with its control points two thirds of the way to the quadratic one.
+        mContent.printInt(mX + Math.round(2f * (controlX - mX) / 3)).print(' ')
+                .printInt(mY + Math.round(2f * (controlY - mY) / 3)).print(' ')
+                .printInt(x + Math.round(2f * (controlX - x) / 3)).print(' ')
+                .printInt(y + Math.round(2f * (controlY - y) / 3)).print(' ')
+                .printInt(x).print(' ').printInt(y).print(" c\n");
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    protected void endStroke() throws IOException {
+        mContent.print("S\n");
+    }
+
+    /**
+     * Writes the page, which draws the paper then the layers, and finishes the document.
+     */
+    @Override
+    public void close() throws IOException {
+        // small, it is only a few operators a layer.
+        final StringBuilder page = new StringBuilder();
+        // y goes down the page on the canvas, up in PDF.
+        page.append("1 0 0 -1 0 ").append(mHeight).append(" cm\n");
+        page.append((mPaperColor >> 16 & 0xFF) / 255f).append(' ')
+                .append((mPaperColor >> 8 & 0xFF) / 255f).append(' ')
+                .append((mPaperColor & 0xFF) / 255f).append(" rg\n");
+        page.append("0 0 ").append(mWidth).append(' ').append(mHeight).append(" re f\n");
+        for (int i = 0; i < mLayerCount; i++) {
+            page.append("q /a").append(mLayerOpacities[i]).append(" gs /L").append(i)
+                    .append(" Do Q\n");
+        }
+        beginObject(PAGE_CONTENT).print("<< /Length ").printInt(page.length())
+                .print(" >>\nstream\n").print(page.toString()).print("endstream\n");
+        endObject();
+
+        beginObject(PAGE).print("<< /Type /Page /Parent ").printInt(PAGES)
+                .print(" 0 R /MediaBox [0 0 ").printInt(mWidth).print(' ').printInt(mHeight)
+                .print("] /Resources ").printInt(RESOURCES).print(" 0 R /Contents ")
+                .printInt(PAGE_CONTENT).print(" 0 R >>\n");
+        endObject();
+
+        beginObject(RESOURCES).print("<< /ExtGState <<");
+        for (int alpha = 0; alpha < mIsAlphaUsed.length; alpha++) {
+            if (mIsAlphaUsed[alpha]) {
+                mFile.print(" /a").printInt(alpha).print(" << /CA ")
+                        .printFixed(alpha * 1000L / 255, 3).print(" /ca ")
+                        .printFixed(alpha * 1000L / 255, 3).print(" >>");
+            }
+        }
+        mFile.print(" >> /XObject <<");
+        for (int i = 0; i < mLayerCount; i++) {
+            mFile.print(" /L").printInt(i).print(' ').printInt(mLayerObjects[i]).print(" 0 R");
+        }
+        mFile.print(" >> >>\n");
+        endObject();
+
+        final long xrefOffset = mFile.getPosition();
+        mFile.print("xref\n0 ").printInt(mLastObject + 1).print('\n')
+                .print("0000000000 65535 f \n");
+        for (int object = 1; object <= mLastObject; object++) {
+            printPadded(mOffsets[object], 10).print(" 00000 n \n");
+        }
+        mFile.print("trailer\n<< /Size ").printInt(mLastObject + 1).print(" /Root ")
+                .printInt(CATALOG).print(" 0 R >>\nstartxref\n").printInt(xrefOffset)
+                .print("\n%%EOF\n");
+        mFile.close();
+    }
+
+    private AsciiOutputStream beginObject(int object) throws IOException {
+        if (object >= mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, 2 * object);
+        }
+        mOffsets[object] = mFile.getPosition();
+        return mFile.printInt(object).print(" 0 obj\n");
+    }
+
+    private void endObject() throws IOException {
+        mFile.print("endobj\n");
+    }
+
+    private AsciiOutputStream printPadded(long value, int digits) throws IOException {
+        for (long limit = 10; digits > 1; limit *= 10, digits--) {
+            if (value < limit) {
+                mFile.print('0');
+            }
+        }
+        return mFile.printInt(value);
+    }
+
+    private static AsciiOutputStream printRgb(AsciiOutputStream out, int rgb)
+            throws IOException {
+        return out.printFixed((rgb >> 16 & 0xFF) * 1000L / 255, 3).print(' ')
+                .printFixed((rgb >> 8 & 0xFF) * 1000L / 255, 3).print(' ')
+                .printFixed((rgb & 0xFF) * 1000L / 255, 3);
+    }
+}
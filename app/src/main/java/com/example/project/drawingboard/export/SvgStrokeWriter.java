@@ -0,0 +1,142 @@
+package com.example.project.drawingboard.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes strokes as an SVG document, each stroke a path, each layer a group.
+ *
+ * Path data is kept short: coordinates are relative to the previous point, a command letter is
+ * only written when it changes, and a curve continuing smoothly from the previous one, which
+ * the strokes are mostly made of, is written with just its end point.
+ */
+public class SvgStrokeWriter extends VectorStrokeWriter {
+
+    private final AsciiOutputStream mOut;
+
+    // current point, and control point of the last curve, in tenths of a pixel.
+    private int mX, mY;
+    private int mControlX, mControlY;
+    private char mLastCommand;
+
+    /**
+     * Writes the start of the document, with the paper, to the given stream, which this writer
+     * closes once done.
+     */
+    public SvgStrokeWriter(OutputStream out, int width, int height, int paperColor)
+            throws IOException {
+        mOut = new AsciiOutputStream(out);
+        mOut.print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .print("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").printInt(width)
+                .print("\" height=\"").printInt(height)
+                .print("\" viewBox=\"0 0 ").printInt(width).print(' ').printInt(height)
+                .print("\">\n")
+                .print("<rect width=\"100%\" height=\"100%\" fill=\"#")
+                .printHex(paperColor, 6).print("\"/>\n");
+    }
+
+    @Override
+    public void beginLayer(int opacity) throws IOException {
+        mOut.print("<g fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\"");
+        if (opacity < 255) {
+            mOut.print(" opacity=\"").printFixed(opacity * 1000L / 255, 3).print('"');
+        }
+        mOut.print(">\n");
+    }
+
+    @Override
+    public void endLayer() throws IOException {
+        mOut.print("</g>\n");
+    }
+
+    @Override
+    protected void beginStroke(int color, int width) throws IOException {
+        mOut.print("<path stroke=\"#").printHex(color, 6).print('"');
+        final int alpha = color >>> 24;
+        if (alpha < 255) {
+            mOut.print(" stroke-opacity=\"").printFixed(alpha * 1000L / 255, 3).print('"');
+        }
+        mOut.print(" stroke-width=\"").printFixed(width, COORDINATE_DECIMALS)
+                .print("\" d=\"");
+    }
+
+    @Override
+    protected void moveTo(int x, int y) throws IOException {
+        mOut.print('M');
+        mLastCommand = 'M';
+        printCoordinate(x, false);
+        printCoordinate(y, true);
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    protected void lineTo(int x, int y) throws IOException {
+        printCommand('l');
+        printCoordinate(x - mX, mLastCommand == 'l');
+        printCoordinate(y - mY, true);
+        mLastCommand = 'l';
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    protected void quadTo(int controlX, int controlY, int x, int y) throws IOException {
+        // the reflection of the previous control point, which a smooth curve implies. Points
+        // being rounded, it may be a tenth off.
+        final boolean isSmooth = (mLastCommand == 'q' || mLastCommand == 't')
+                && Math.abs(2 * mX - mControlX - controlX) <= 1
+                && Math.abs(2 * mY - mControlY - controlY) <= 1;
+        if (isSmooth) {
+            printCommand('t');
+            printCoordinate(x - mX, mLastCommand == 't');
+            mLastCommand = 't';
+            // what the reader takes the control point to be.
+            mControlX = 2 * mX - mControlX;
+            mControlY = 2 * mY - mControlY;
+        } else {
+            printCommand('q');
+            printCoordinate(controlX - mX, mLastCommand == 'q');
+            printCoordinate(controlY - mY, true);
+            printCoordinate(x - mX, true);
+            mLastCommand = 'q';
+            mControlX = controlX;
+            mControlY = controlY;
+        }
+        printCoordinate(y - mY, true);
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    protected void endStroke() throws IOException {
+        mOut.print("\"/>\n");
+        mLastCommand = 0;
+    }
+
+    /**
+     * Finishes the document and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        mOut.print("</svg>\n");
+        mOut.close();
+    }
+
+    private void printCommand(char command) throws IOException {
+        if (command != mLastCommand) {
+            mOut.print(command);
+        }
+    }
+
+    /**
+     * @param needsSeparator whether a number was printed right before, which a minus sign
+     * separates from this one just as well as a space.
+     */
+    private void printCoordinate(int value, boolean needsSeparator) throws IOException {
+        if (needsSeparator && value >= 0) {
+            mOut.print(' ');
+        }
+        mOut.printFixed(value, COORDINATE_DECIMALS);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.project.drawingboard.export;
+
+import com.example.project.drawingboard.models.StrokeHistory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes strokes out as a vector document, one stroke at a time, straight to an output stream.
+ * Nothing but the stroke being written is held in memory, so the cost of an export does not
+ * grow with the size of the drawing.
+ *
+ * Strokes are written with the geometry the canvas draws them with: a straight start, then
+ * quadratic curves through the midpoints between their points, ending with a straight line.
+ * Coordinates are rounded to a tenth of a pixel, and points that round to the same coordinates
+ * as the previous one are dropped.
+ *
+ * Subclasses write the document format, opening it when created, and finishing it on
+ * {@link #close()}.
+ */
+public abstract class VectorStrokeWriter implements Closeable {
+
+    // coordinates and widths are written in tenths of a pixel.
+    static final int COORDINATE_SCALE = 10;
+    static final int COORDINATE_DECIMALS = 1;
+
+    private final StrokeHistory.StrokeCopy mStroke = new StrokeHistory.StrokeCopy();
+    private int[] mQuantized = new int[512];
+
+    /**
+     * Writes the strokes of each of the given layers, bottom first, in the order they were
+     * drawn. May be called from a background thread while strokes keep being drawn, which are
+     * then left out.
+     *
+     * @param layerIds ids of the layers to write.
+     * @param layerOpacities opacity of each layer, from 0 to 255.
+     * @throws IOException also if the history was cleared meanwhile, the document written so
+     * far then misses strokes.
+     */
+    public void writeLayers(StrokeHistory history, int[] layerIds, int[] layerOpacities)
+            throws IOException {
+        final int strokeCount = history.size();
+        for (int layer = 0; layer < layerIds.length; layer++) {
+            beginLayer(layerOpacities[layer]);
+            for (int stroke = 0; stroke < strokeCount; stroke++) {
+                if (!history.read(stroke, mStroke)) {
+                    throw new IOException("Stroke history cleared while writing stroke "
+                            + stroke + " of " + strokeCount);
+                }
+                if (mStroke.layerId == layerIds[layer]) {
+                    writeStroke(mStroke.color, mStroke.strokeWidth, mStroke.points,
+                            mStroke.pointCount);
+                }
+            }
+            endLayer();
+        }
+    }
+
+    /**
+     * Starts a group of strokes composited together, with the given opacity, over what was
+     * written before.
+     */
+    public abstract void beginLayer(int opacity) throws IOException;
+
+    public abstract void endLayer() throws IOException;
+
+    /**
+     * Writes a stroke through the given points, within the current layer.
+     *
+     * @param points x, y pairs of the points the stroke goes through.
+     */
+    public void writeStroke(int color, float strokeWidth, float[] points, int pointCount)
+            throws IOException {
+        if ((color >>> 24) == 0 || pointCount == 0) {
+            return;
+        }
+        if (mQuantized.length < 2 * pointCount) {
+            mQuantized = new int[2 * pointCount];
+        }
+        final int[] quantized = mQuantized;
+        int count = 0;
+        for (int i = 0; i < pointCount; i++) {
+            final int x = quantize(points[2 * i]);
+            final int y = quantize(points[2 * i + 1]);
+            if (count > 0 && x == quantized[2 * count - 2] && y == quantized[2 * count - 1]) {
+                continue;
+            }
+            quantized[2 * count] = x;
+            quantized[2 * count + 1] = y;
+            count++;
+        }
+
+        beginStroke(color, Math.max(1, quantize(strokeWidth)));
+        moveTo(quantized[0], quantized[1]);
+        for (int i = 1; i < count; i++) {
+            final int controlX = quantized[2 * i - 2];
+            final int controlY = quantized[2 * i - 1];
+            final int midX = (controlX + quantized[2 * i]) / 2;
+            final int midY = (controlY + quantized[2 * i + 1]) / 2;
+            if (i == 1) {
+                // the first curve has its control point on its start, it is a line.
+                lineTo(midX, midY);
+            } else {
+                quadTo(controlX, controlY, midX, midY);
+            }
+        }
+        // a single point is drawn as a dot, by a line of no length.
+        lineTo(quantized[2 * count - 2], quantized[2 * count - 1]);
+        endStroke();
+    }
+
+    /**
+     * Starts a stroke.
+     *
+     * @param width in tenths of a pixel.
+     */
+    protected abstract void beginStroke(int color, int width) throws IOException;
+
+    // coordinates are in tenths of a pixel.
+    protected abstract void moveTo(int x, int y) throws IOException;
+
+    protected abstract void lineTo(int x, int y) throws IOException;
+
+    protected abstract void quadTo(int controlX, int controlY, int x, int y) throws IOException;
+
+    protected abstract void endStroke() throws IOException;
+
+    static int quantize(float value) {
+        return Math.round(value * COORDINATE_SCALE);
+    }
+}
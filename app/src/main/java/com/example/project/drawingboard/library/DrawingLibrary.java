@@ -0,0 +1,367 @@
+package com.example.project.drawingboard.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Index of the saved drawings, so that they can be listed without scanning or decoding any
+ * image.
+ *
+ * The library is two append-only files:
+ * <ul>
+ * <li>an index of fixed-size records, one appended per save or removal, the latest record of a
+ * drawing winning. Each record ends with a CRC, so a record torn by a crash is ignored, and
+ * writing one is the atomic commit of the change.</li>
+ * <li>a blob of encoded thumbnails, back to back, referenced by offset from the records.</li>
+ * </ul>
+ * Listing the library is a single sequential read of the index, and loading the thumbnails of
+ * the listed drawings a single sequential read of the blob.
+ *
+ * Index layout, big endian:
+ * <pre>
+ *   i32 magic "DBLI", i32 version, i32 thumbnail blob generation
+ *   records of {@link #RECORD_SIZE} bytes:
+ *     i64 id, i64 created, i64 modified, i32 width, i32 height, i32 stroke count,
+ *     i64 thumbnail offset, i32 thumbnail length, 20 bytes SHA-1 of the image, i32 flags,
+ *     i32 CRC32 of all the above
+ * </pre>
+ * Superseded records and thumbnails are only dropped by {@link #compact()}.
+ *
+ * Pure Java, not thread safe: a single writer at a time is expected.
+ */
+public class DrawingLibrary {
+
+    static final int MAGIC = 0x44424C49;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int HASH_SIZE = 20;
+    static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 4 + 4 + 8 + 4 + HASH_SIZE + 4 + 4;
+
+    private static final int FLAG_REMOVED = 1;
+
+    private static final String INDEX_FILE_NAME = "drawings.idx";
+
+    private final File mDirectory;
+    private final File mIndexFile;
+
+    public DrawingLibrary(File directory) {
+        mDirectory = directory;
+        mIndexFile = new File(directory, INDEX_FILE_NAME);
+    }
+
+    /**
+     * @return an id for a drawing saved at the given time, that no drawing in the library has:
+     * the time in seconds, or the id after the last one if that is not past it, e.g. for a
+     * second save within the same second. The id is only taken once the drawing is added.
+     */
+    public long newId(long savedMillis) throws IOException {
+        long id = savedMillis / 1000;
+        for (long listedId : readLatestRecords().keySet()) {
+            id = Math.max(id, listedId + 1);
+        }
+        return id;
+    }
+
+    /**
+     * Adds a saved drawing to the library, or updates it if a drawing with the same id is
+     * already in it.
+     *
+     * @param contentHash SHA-1 of the saved image file.
+     * @param thumbnail the encoded thumbnail image.
+     */
+    public DrawingRecord add(long id, long createdMillis, long modifiedMillis, int width,
+                             int height, int strokeCount, byte[] contentHash, byte[] thumbnail)
+            throws IOException {
+        if (contentHash.length != HASH_SIZE) {
+            throw new IllegalArgumentException("Not a SHA-1: " + contentHash.length + " bytes");
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+
+        final RandomAccessFile index = new RandomAccessFile(mIndexFile, "rw");
+        try {
+            final int generation = readOrWriteHeader(index);
+
+            // the thumbnail goes first, a crash before its record only leaves unreferenced bytes.
+            final RandomAccessFile blob = new RandomAccessFile(getBlobFile(generation), "rw");
+            final long thumbnailOffset;
+            try {
+                thumbnailOffset = blob.length();
+                blob.seek(thumbnailOffset);
+                blob.write(thumbnail);
+                blob.getFD().sync();
+            } finally {
+                blob.close();
+            }
+
+            DrawingRecord record = new DrawingRecord(id, createdMillis, modifiedMillis, width,
+                    height, strokeCount, thumbnailOffset, thumbnail.length, contentHash.clone());
+            appendRecord(index, record, 0);
+            return record;
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Removes a drawing from the library. Its image file is not touched.
+     */
+    public void remove(long id) throws IOException {
+        if (!mIndexFile.exists()) {
+            return;
+        }
+        final RandomAccessFile index = new RandomAccessFile(mIndexFile, "rw");
+        try {
+            readOrWriteHeader(index);
+            appendRecord(index, new DrawingRecord(id, 0, 0, 0, 0, 0, 0, 0, new byte[HASH_SIZE]),
+                    FLAG_REMOVED);
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * @return every drawing in the library, most recently modified first.
+     */
+    public List<DrawingRecord> list() throws IOException {
+        final ArrayList<DrawingRecord> records =
+                new ArrayList<DrawingRecord>(readLatestRecords().values());
+        Collections.sort(records, new Comparator<DrawingRecord>() {
+            @Override
+            public int compare(DrawingRecord a, DrawingRecord b) {
+                return a.getModifiedMillis() < b.getModifiedMillis() ? 1
+                        : a.getModifiedMillis() > b.getModifiedMillis() ? -1
+                        : 0;
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Reads the thumbnails of the given drawings, in a single sequential read of the blob.
+     *
+     * @return the encoded thumbnails, in the order of the given records.
+     */
+    public byte[][] readThumbnails(List<DrawingRecord> records) throws IOException {
+        final byte[][] thumbnails = new byte[records.size()][];
+        if (records.isEmpty()) {
+            return thumbnails;
+        }
+        long start = Long.MAX_VALUE;
+        long end = 0;
+        for (DrawingRecord record : records) {
+            start = Math.min(start, record.getThumbnailOffset());
+            end = Math.max(end, record.getThumbnailOffset() + record.getThumbnailLength());
+        }
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Too many thumbnails to read at once");
+        }
+
+        final byte[] span = new byte[(int) (end - start)];
+        final RandomAccessFile blob = new RandomAccessFile(getBlobFile(readGeneration()), "r");
+        try {
+            blob.seek(start);
+            blob.readFully(span);
+        } finally {
+            blob.close();
+        }
+        for (int i = 0; i < thumbnails.length; i++) {
+            final DrawingRecord record = records.get(i);
+            final int from = (int) (record.getThumbnailOffset() - start);
+            thumbnails[i] = Arrays.copyOfRange(span, from, from + record.getThumbnailLength());
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Rewrites the library with only its latest records and the thumbnails they use. The new
+     * index replaces the old one atomically; the new thumbnails go to a new blob, so the old
+     * index stays valid until then.
+     */
+    public void compact() throws IOException {
+        if (!mIndexFile.exists()) {
+            return;
+        }
+        final int generation = readGeneration();
+        final List<DrawingRecord> records = list();
+        final byte[][] thumbnails = readThumbnails(records);
+
+        final File newBlobFile = getBlobFile(generation + 1);
+        final RandomAccessFile blob = new RandomAccessFile(newBlobFile, "rw");
+        final ArrayList<DrawingRecord> moved = new ArrayList<DrawingRecord>(records.size());
+        try {
+            blob.setLength(0);
+            long offset = 0;
+            // oldest first, as if saved again in order.
+            for (int i = records.size() - 1; i >= 0; i--) {
+                final DrawingRecord record = records.get(i);
+                blob.write(thumbnails[i]);
+                moved.add(new DrawingRecord(record.getId(), record.getCreatedMillis(),
+                        record.getModifiedMillis(), record.getWidth(), record.getHeight(),
+                        record.getStrokeCount(), offset, record.getThumbnailLength(),
+                        record.getContentHash()));
+                offset += record.getThumbnailLength();
+            }
+            blob.getFD().sync();
+        } finally {
+            blob.close();
+        }
+
+        final File newIndexFile = new File(mDirectory, INDEX_FILE_NAME + ".compact");
+        final RandomAccessFile index = new RandomAccessFile(newIndexFile, "rw");
+        try {
+            index.setLength(0);
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + moved.size() * RECORD_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(generation + 1);
+            for (DrawingRecord record : moved) {
+                encodeRecord(buffer, record, 0);
+            }
+            index.write(buffer.array());
+            index.getFD().sync();
+        } finally {
+            index.close();
+        }
+        if (!newIndexFile.renameTo(mIndexFile)) {
+            throw new IOException("Could not replace " + mIndexFile);
+        }
+        getBlobFile(generation).delete();
+    }
+
+    private File getBlobFile(int generation) {
+        return new File(mDirectory, "thumbnails_" + generation + ".blob");
+    }
+
+    private int readGeneration() throws IOException {
+        final RandomAccessFile index = new RandomAccessFile(mIndexFile, "r");
+        try {
+            return readHeader(index);
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Reads the header of the index, writing it first if the index is new.
+     *
+     * @return the generation of the thumbnail blob.
+     */
+    private static int readOrWriteHeader(RandomAccessFile index) throws IOException {
+        if (index.length() < HEADER_SIZE) {
+            index.setLength(0);
+            index.writeInt(MAGIC);
+            index.writeInt(VERSION);
+            index.writeInt(0);
+            index.getFD().sync();
+            return 0;
+        }
+        return readHeader(index);
+    }
+
+    /**
+     * @return the generation of the thumbnail blob, 0 for an index whose header was never fully
+     * written.
+     */
+    private static int readHeader(RandomAccessFile index) throws IOException {
+        if (index.length() < HEADER_SIZE) {
+            return 0;
+        }
+        index.seek(0);
+        if (index.readInt() != MAGIC || index.readInt() != VERSION) {
+            throw new IOException("Not a drawing library index");
+        }
+        return index.readInt();
+    }
+
+    private static void appendRecord(RandomAccessFile index, DrawingRecord record, int flags)
+            throws IOException {
+        // a torn record at the end is dropped, so that this one starts on a record boundary.
+        final long length = index.length();
+        final long end = HEADER_SIZE + (length - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+        if (end != length) {
+            index.setLength(end);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        encodeRecord(buffer, record, flags);
+        index.seek(end);
+        index.write(buffer.array());
+        index.getFD().sync();
+    }
+
+    private static void encodeRecord(ByteBuffer buffer, DrawingRecord record, int flags) {
+        final int start = buffer.position();
+        buffer.putLong(record.getId())
+                .putLong(record.getCreatedMillis())
+                .putLong(record.getModifiedMillis())
+                .putInt(record.getWidth())
+                .putInt(record.getHeight())
+                .putInt(record.getStrokeCount())
+                .putLong(record.getThumbnailOffset())
+                .putInt(record.getThumbnailLength())
+                .put(record.getContentHash())
+                .putInt(flags);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * @return the latest record of every drawing not removed, keyed by id, in index order.
+     */
+    private LinkedHashMap<Long, DrawingRecord> readLatestRecords() throws IOException {
+        final LinkedHashMap<Long, DrawingRecord> records = new LinkedHashMap<Long, DrawingRecord>();
+        if (!mIndexFile.exists()) {
+            return records;
+        }
+        final byte[] bytes;
+        final RandomAccessFile index = new RandomAccessFile(mIndexFile, "r");
+        try {
+            readHeader(index);
+            bytes = new byte[(int) Math.max(0, index.length() - HEADER_SIZE)];
+            index.seek(HEADER_SIZE);
+            index.readFully(bytes);
+        } finally {
+            index.close();
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final CRC32 crc = new CRC32();
+        for (int start = 0; start + RECORD_SIZE <= bytes.length; start += RECORD_SIZE) {
+            crc.reset();
+            crc.update(bytes, start, RECORD_SIZE - 4);
+            buffer.position(start);
+            if (buffer.getInt(start + RECORD_SIZE - 4) != (int) crc.getValue()) {
+                // a record torn by a crash, or otherwise damaged.
+                continue;
+            }
+            final long id = buffer.getLong();
+            final long createdMillis = buffer.getLong();
+            final long modifiedMillis = buffer.getLong();
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            final int strokeCount = buffer.getInt();
+            final long thumbnailOffset = buffer.getLong();
+            final int thumbnailLength = buffer.getInt();
+            final byte[] contentHash = new byte[HASH_SIZE];
+            buffer.get(contentHash);
+            final int flags = buffer.getInt();
+
+            // re-inserting moves the drawing to the position of its latest record.
+            records.remove(id);
+            if ((flags & FLAG_REMOVED) == 0) {
+                records.put(id, new DrawingRecord(id, createdMillis, modifiedMillis, width,
+                        height, strokeCount, thumbnailOffset, thumbnailLength, contentHash));
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.project.drawingboard.library;
+
+/**
+ * One entry of the {@link DrawingLibrary}: what is known about a saved drawing without opening
+ * its image.
+ */
+public class DrawingRecord {
+
+    private final long mId;
+    private final long mCreatedMillis;
+    private final long mModifiedMillis;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mStrokeCount;
+    private final long mThumbnailOffset;
+    private final int mThumbnailLength;
+    private final byte[] mContentHash;
+
+    DrawingRecord(long id, long createdMillis, long modifiedMillis, int width, int height,
+                  int strokeCount, long thumbnailOffset, int thumbnailLength,
+                  byte[] contentHash) {
+        mId = id;
+        mCreatedMillis = createdMillis;
+        mModifiedMillis = modifiedMillis;
+        mWidth = width;
+        mHeight = height;
+        mStrokeCount = strokeCount;
+        mThumbnailOffset = thumbnailOffset;
+        mThumbnailLength = thumbnailLength;
+        mContentHash = contentHash;
+    }
+
+    /**
+     * @return the id the drawing was saved under, the one in its image file name.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    public long getCreatedMillis() {
+        return mCreatedMillis;
+    }
+
+    public long getModifiedMillis() {
+        return mModifiedMillis;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    long getThumbnailOffset() {
+        return mThumbnailOffset;
+    }
+
+    int getThumbnailLength() {
+        return mThumbnailLength;
+    }
+
+    /**
+     * @return SHA-1 of the saved image file.
+     */
+    public byte[] getContentHash() {
+        return mContentHash.clone();
+    }
+}
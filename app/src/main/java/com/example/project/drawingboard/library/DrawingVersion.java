@@ -0,0 +1,98 @@
+package com.example.project.drawingboard.library;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * One saved version of a drawing in {@link DrawingVersions}: its size, and the hash of each of
+ * its tiles, under which the tile pixels are stored.
+ */
+public class DrawingVersion {
+
+    private final long mDrawingId;
+    private final long mSavedMillis;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int mStrokeCount;
+    // [row * columns + column]
+    private final byte[][] mTileHashes;
+    private final File mManifestFile;
+
+    DrawingVersion(long drawingId, long savedMillis, int width, int height, int tileSize,
+                   int strokeCount, byte[][] tileHashes, File manifestFile) {
+        mDrawingId = drawingId;
+        mSavedMillis = savedMillis;
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mStrokeCount = strokeCount;
+        mTileHashes = tileHashes;
+        mManifestFile = manifestFile;
+    }
+
+    /**
+     * @return the id of the drawing this is a version of.
+     */
+    public long getDrawingId() {
+        return mDrawingId;
+    }
+
+    public long getSavedMillis() {
+        return mSavedMillis;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getColumns() {
+        return (mWidth + mTileSize - 1) / mTileSize;
+    }
+
+    public int getRows() {
+        return (mHeight + mTileSize - 1) / mTileSize;
+    }
+
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    /**
+     * @return the file this version is described by.
+     */
+    public File getManifestFile() {
+        return mManifestFile;
+    }
+
+    byte[] getTileHash(int column, int row) {
+        return mTileHashes[row * getColumns() + column];
+    }
+
+    /**
+     * @return a SHA-1 of the content of the version, equal for versions with the same pixels.
+     */
+    public byte[] getContentHash() {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            // tiles are hashed with their own size, the layout of the grid depends on this one.
+            digest.update(ByteBuffer.allocate(8).putInt(mWidth).putInt(mHeight).array());
+            for (byte[] tileHash : mTileHashes) {
+                digest.update(tileHash);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-1", e);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.project.drawingboard.library;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Saved versions of drawings, stored as tiles in a content-addressed store shared by every
+ * version of every drawing.
+ *
+ * A version is split into square tiles, each stored under the SHA-1 of its pixels, unless a tile
+ * with that hash is already stored. A version itself is only a small manifest listing the hashes
+ * of its tiles, so saving a version that differs from the previous one by a few strokes costs
+ * the tiles those strokes touched, and tiles of blank paper are stored once for all drawings.
+ * Restoring a version reads its tiles back, in any order.
+ *
+ * Tiles are raw ARGB pixels, big endian, deflated, in tiles/ab/cdef..., named after the hex
+ * SHA-1 of their width, height and pixels. Manifests are in versions/drawing id/saved
+ * millis.ver, laid out, big endian:
+ * <pre>
+ *   i32 magic "DBVM", i32 version
+ *   i64 drawing id, i64 saved millis, i32 width, i32 height, i32 tile size, i32 stroke count
+ *   columns x rows x 20 bytes SHA-1 of the tile, row by row
+ *   i32 CRC32 of all the above
+ * </pre>
+ * Files are written aside and renamed into place, so a crash never leaves a partial tile or
+ * manifest behind under its final name.
+ *
+ * Pure Java, not thread safe: a single writer at a time is expected. Must be closed once done
+ * with, to free the native memory of the deflater and inflater.
+ */
+public class DrawingVersions {
+
+    static final int MAGIC = 0x4442564D;
+    static final int VERSION = 1;
+    static final int HASH_SIZE = 20;
+
+    /**
+     * Side, in pixels, of the tiles versions are split into.
+     */
+    public static final int TILE_SIZE = 128;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final String TILES_DIRECTORY_NAME = "tiles";
+    private static final String VERSIONS_DIRECTORY_NAME = "versions";
+    private static final String MANIFEST_SUFFIX = ".ver";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mTilesDirectory;
+    private final File mVersionsDirectory;
+
+    // scratch for the tile being stored or read.
+    private final byte[] mTileBytes = new byte[8 + 4 * TILE_SIZE * TILE_SIZE];
+    private final byte[] mDeflated = new byte[mTileBytes.length + mTileBytes.length / 100 + 64];
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    private final MessageDigest mDigest;
+
+    public DrawingVersions(File directory) {
+        mTilesDirectory = new File(directory, TILES_DIRECTORY_NAME);
+        mVersionsDirectory = new File(directory, VERSIONS_DIRECTORY_NAME);
+        try {
+            mDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-1", e);
+        }
+    }
+
+    /**
+     * Frees the deflater and inflater. The versions can not be used anymore afterwards.
+     */
+    public void close() {
+        mDeflater.end();
+        mInflater.end();
+    }
+
+    /**
+     * Starts saving a new version of a drawing. Every tile must be put before the version is
+     * committed.
+     */
+    public VersionWriter beginVersion(long drawingId, long savedMillis, int width, int height,
+                                      int strokeCount) {
+        return new VersionWriter(drawingId, savedMillis, width, height, strokeCount);
+    }
+
+    /**
+     * Writes the tiles of a version as they are put, then the manifest on commit.
+     */
+    public class VersionWriter {
+        private final long mDrawingId;
+        private final long mSavedMillis;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mStrokeCount;
+        private final int mColumns;
+        private final byte[][] mTileHashes;
+        private int mNewTileCount = 0;
+
+        private VersionWriter(long drawingId, long savedMillis, int width, int height,
+                              int strokeCount) {
+            mDrawingId = drawingId;
+            mSavedMillis = savedMillis;
+            mWidth = width;
+            mHeight = height;
+            mStrokeCount = strokeCount;
+            mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            mTileHashes = new byte[mColumns * ((height + TILE_SIZE - 1) / TILE_SIZE)][];
+        }
+
+        /**
+         * Stores the pixels of a tile, unless a tile with the same pixels is already stored.
+         *
+         * @param pixels ARGB pixels of the tile, row by row, as many columns as the tile is
+         * wide, which is {@link #TILE_SIZE} but on the right and bottom edges.
+         * @return true if the tile was new and had to be written.
+         */
+        public boolean putTile(int column, int row, int[] pixels) throws IOException {
+            final int tileWidth = Math.min(TILE_SIZE, mWidth - column * TILE_SIZE);
+            final int tileHeight = Math.min(TILE_SIZE, mHeight - row * TILE_SIZE);
+            final int length = encodeTile(tileWidth, tileHeight, pixels);
+            mDigest.update(mTileBytes, 0, length);
+            final byte[] hash = mDigest.digest();
+            mTileHashes[row * mColumns + column] = hash;
+
+            final File tileFile = getTileFile(hash);
+            if (tileFile.exists()) {
+                return false;
+            }
+            mDeflater.reset();
+            mDeflater.setInput(mTileBytes, 0, length);
+            mDeflater.finish();
+            final int deflatedLength = mDeflater.deflate(mDeflated);
+            if (!mDeflater.finished()) {
+                throw new IOException("Tile does not deflate into its buffer");
+            }
+            final File directory = tileFile.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            writeAside(tileFile, mDeflated, deflatedLength);
+            mNewTileCount++;
+            return true;
+        }
+
+        /**
+         * @return how many tiles put so far were not stored yet.
+         */
+        public int getNewTileCount() {
+            return mNewTileCount;
+        }
+
+        /**
+         * Writes the manifest of the version, which makes it part of the versions of the
+         * drawing.
+         */
+        public DrawingVersion commit() throws IOException {
+            final ByteBuffer manifest = ByteBuffer.allocate(
+                    HEADER_SIZE + HASH_SIZE * mTileHashes.length + 4);
+            manifest.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(mDrawingId)
+                    .putLong(mSavedMillis)
+                    .putInt(mWidth)
+                    .putInt(mHeight)
+                    .putInt(TILE_SIZE)
+                    .putInt(mStrokeCount);
+            for (int i = 0; i < mTileHashes.length; i++) {
+                if (mTileHashes[i] == null) {
+                    throw new IllegalStateException("Tile " + i + " was not put");
+                }
+                manifest.put(mTileHashes[i]);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(manifest.array(), 0, manifest.position());
+            manifest.putInt((int) crc.getValue());
+
+            final File directory = getDrawingDirectory(mDrawingId);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            final File manifestFile = new File(directory, mSavedMillis + MANIFEST_SUFFIX);
+            writeAside(manifestFile, manifest.array(), manifest.capacity());
+            return new DrawingVersion(mDrawingId, mSavedMillis, mWidth, mHeight, TILE_SIZE,
+                    mStrokeCount, mTileHashes, manifestFile);
+        }
+    }
+
+    /**
+     * @return the versions of the given drawing, most recent first. Manifests that cannot be
+     * read are left out.
+     */
+    public List<DrawingVersion> list(long drawingId) {
+        final ArrayList<DrawingVersion> versions = new ArrayList<DrawingVersion>();
+        final File[] files = getDrawingDirectory(drawingId).listFiles();
+        if (files == null) {
+            return versions;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(MANIFEST_SUFFIX)) {
+                continue;
+            }
+            try {
+                versions.add(readManifest(file));
+            } catch (IOException e) {
+                // torn or foreign, it is not a version.
+            }
+        }
+        Collections.sort(versions, new Comparator<DrawingVersion>() {
+            @Override
+            public int compare(DrawingVersion a, DrawingVersion b) {
+                return a.getSavedMillis() < b.getSavedMillis() ? 1
+                        : a.getSavedMillis() > b.getSavedMillis() ? -1
+                        : 0;
+            }
+        });
+        return versions;
+    }
+
+    /**
+     * Reads the pixels of a tile of the given version.
+     *
+     * @param pixels receives the ARGB pixels of the tile, row by row, as many columns as the
+     * tile is wide.
+     */
+    public void readTile(DrawingVersion version, int column, int row, int[] pixels)
+            throws IOException {
+        final File tileFile = getTileFile(version.getTileHash(column, row));
+        final int deflatedLength = readFully(tileFile, mDeflated);
+        mInflater.reset();
+        mInflater.setInput(mDeflated, 0, deflatedLength);
+        final int length;
+        try {
+            length = mInflater.inflate(mTileBytes);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt tile " + tileFile, e);
+        }
+        final ByteBuffer tile = ByteBuffer.wrap(mTileBytes, 0, length);
+        final int tileWidth = tile.getInt();
+        final int tileHeight = tile.getInt();
+        if (!mInflater.finished() || length != 8 + 4 * tileWidth * tileHeight
+                || tileWidth != Math.min(TILE_SIZE, version.getWidth() - column * TILE_SIZE)
+                || tileHeight != Math.min(TILE_SIZE, version.getHeight() - row * TILE_SIZE)) {
+            throw new IOException("Corrupt tile " + tileFile);
+        }
+        tile.asIntBuffer().get(pixels, 0, tileWidth * tileHeight);
+    }
+
+    /**
+     * Deletes every stored tile no manifest lists, e.g. after versions were deleted.
+     *
+     * @return how many tiles were deleted.
+     */
+    public int deleteUnreferencedTiles() {
+        final ArrayList<String> referenced = new ArrayList<String>();
+        final File[] drawings = mVersionsDirectory.listFiles();
+        if (drawings != null) {
+            for (File drawing : drawings) {
+                final File[] manifests = drawing.listFiles();
+                if (manifests == null) {
+                    continue;
+                }
+                for (File manifest : manifests) {
+                    try {
+                        final DrawingVersion version = readManifest(manifest);
+                        for (int row = 0; row < version.getRows(); row++) {
+                            for (int column = 0; column < version.getColumns(); column++) {
+                                referenced.add(toHex(version.getTileHash(column, row)));
+                            }
+                        }
+                    } catch (IOException e) {
+                        // lists nothing.
+                    }
+                }
+            }
+        }
+        Collections.sort(referenced);
+
+        int deletedCount = 0;
+        final File[] fanOuts = mTilesDirectory.listFiles();
+        if (fanOuts == null) {
+            return 0;
+        }
+        for (File fanOut : fanOuts) {
+            final File[] tiles = fanOut.listFiles();
+            if (tiles == null) {
+                continue;
+            }
+            for (File tile : tiles) {
+                final String hex = fanOut.getName() + tile.getName();
+                if (Collections.binarySearch(referenced, hex) < 0 && tile.delete()) {
+                    deletedCount++;
+                }
+            }
+        }
+        return deletedCount;
+    }
+
+    private DrawingVersion readManifest(File file) throws IOException {
+        final long fileLength = file.length();
+        if (fileLength < HEADER_SIZE + 4 || fileLength > Integer.MAX_VALUE) {
+            throw new IOException("Not a version manifest " + file);
+        }
+        final byte[] bytes = new byte[(int) fileLength];
+        readFully(file, bytes);
+        final ByteBuffer manifest = ByteBuffer.wrap(bytes);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if (manifest.getInt() != MAGIC || manifest.getInt() != VERSION
+                || manifest.getInt(bytes.length - 4) != (int) crc.getValue()) {
+            throw new IOException("Not a version manifest " + file);
+        }
+        final long drawingId = manifest.getLong();
+        final long savedMillis = manifest.getLong();
+        final int width = manifest.getInt();
+        final int height = manifest.getInt();
+        final int tileSize = manifest.getInt();
+        final int strokeCount = manifest.getInt();
+        if (width <= 0 || height <= 0 || tileSize != TILE_SIZE) {
+            throw new IOException("Corrupt version manifest " + file);
+        }
+        final long tileCount = (long) ((width + tileSize - 1) / tileSize)
+                * ((height + tileSize - 1) / tileSize);
+        if (fileLength != HEADER_SIZE + HASH_SIZE * tileCount + 4) {
+            throw new IOException("Corrupt version manifest " + file);
+        }
+        final byte[][] tileHashes = new byte[(int) tileCount][HASH_SIZE];
+        for (byte[] tileHash : tileHashes) {
+            manifest.get(tileHash);
+        }
+        return new DrawingVersion(drawingId, savedMillis, width, height, tileSize, strokeCount,
+                tileHashes, file);
+    }
+
+    /**
+     * Lays out the tile as hashed and stored: its width and height, then its pixels.
+     *
+     * @return the length of the encoded tile.
+     */
+    private int encodeTile(int tileWidth, int tileHeight, int[] pixels) {
+        final ByteBuffer tile = ByteBuffer.wrap(mTileBytes);
+        tile.putInt(tileWidth).putInt(tileHeight);
+        tile.asIntBuffer().put(pixels, 0, tileWidth * tileHeight);
+        return 8 + 4 * tileWidth * tileHeight;
+    }
+
+    private File getDrawingDirectory(long drawingId) {
+        return new File(mVersionsDirectory, Long.toString(drawingId));
+    }
+
+    private File getTileFile(byte[] hash) {
+        final String hex = toHex(hash);
+        // fanned out, so that no directory lists every tile.
+        return new File(new File(mTilesDirectory, hex.substring(0, 2)), hex.substring(2));
+    }
+
+    private static void writeAside(File file, byte[] bytes, int length) throws IOException {
+        final File partial = new File(file.getPath() + ".partial");
+        final FileOutputStream output = new FileOutputStream(partial);
+        try {
+            output.write(bytes, 0, length);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static int readFully(File file, byte[] buffer) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final long length = input.length();
+            if (length > buffer.length) {
+                throw new IOException("Too large " + file);
+            }
+            input.readFully(buffer, 0, (int) length);
+            return (int) length;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
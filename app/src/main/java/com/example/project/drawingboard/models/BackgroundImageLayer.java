@@ -0,0 +1,390 @@
+package com.example.project.drawingboard.models;
+
+import com.example.project.drawingboard.BuildConfig;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A read-only image shown under all the layers of a drawing, to trace over.
+ *
+ * Decoding a camera picture in full would take more memory than the drawing itself, so the
+ * picture is never decoded whole. Instead it is decoded, with {@link BitmapRegionDecoder}, in
+ * tiles and at the resolution it is displayed at (a power of two sub-sampling). Only the tiles
+ * intersecting what is being drawn are decoded, in the background, and kept in an LRU cache
+ * capped in bytes. Until a tile is ready, a low resolution version of the whole picture, decoded
+ * when the image is opened, is shown in its place.
+ *
+ * All methods, but {@link #open}, {@link #drawDecoded}, {@link #retain} and {@link #release},
+ * must be called on the UI thread.
+ */
+public class BackgroundImageLayer {
+
+    private static final String LOG_TAG = BackgroundImageLayer.class.getSimpleName();
+
+    // Size, in decoded pixels, of a tile.
+    private static final int TILE_SIZE = 256;
+
+    // Longest side, in pixels, of the placeholder shown while tiles are decoding.
+    private static final int PLACEHOLDER_SIZE = 256;
+
+    // Photos are opaque, so two bytes per pixel are enough.
+    private static final Bitmap.Config TILE_CONFIG = Bitmap.Config.RGB_565;
+    private static final int TILE_BYTES_PER_PIXEL = 2;
+
+    /**
+     * Notified on the UI thread once {@link #open} is done.
+     */
+    public interface OnOpenedListener {
+        /**
+         * @param image the opened image, or null if it could not be opened.
+         */
+        void onBackgroundImageOpened(BackgroundImageLayer image);
+    }
+
+    private final ParcelFileDescriptor mFileDescriptor;
+    private final BitmapRegionDecoder mDecoder;
+    private final int mImageWidth;
+    private final int mImageHeight;
+
+    // The image is decoded at 1/mSampleSize of its resolution, and scaled by mScale on the
+    // canvas, centered in it.
+    private final int mSampleSize;
+    private final float mScale;
+    private final RectF mImageBounds = new RectF();
+    private final int mColumns;
+    private final int mRows;
+
+    private final Bitmap mPlaceholder;
+    private final LruCache<Integer, Bitmap> mTiles;
+    private final HashSet<Integer> mPendingTiles = new HashSet<Integer>();
+
+    private final ExecutorService mDecodeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mIsReleased = false;
+
+    // the owning stack, and any snapshot still to be rendered, each hold on to the image.
+    private int mRetainCount = 1;
+
+    // stack this image is the background of, to invalidate its composites as tiles come in.
+    LayerStack mOwner;
+    private View mTargetView;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mClip = new Rect();
+    private final RectF mTileBounds = new RectF();
+    private final Rect mTileRegion = new Rect();
+
+    /**
+     * Opens the image in the background, and decodes its placeholder. Tiles are decoded later,
+     * as they are drawn.
+     *
+     * @param canvasWidth width of the canvas the image is fit in.
+     * @param canvasHeight height of the canvas the image is fit in.
+     */
+    public static void open(final ContentResolver contentResolver, final Uri imageUri,
+                            final int canvasWidth, final int canvasHeight,
+                            final OnOpenedListener listener) {
+        new AsyncTask<Void, Void, BackgroundImageLayer>() {
+            @Override
+            protected BackgroundImageLayer doInBackground(Void... params) {
+                ParcelFileDescriptor fileDescriptor = null;
+                try {
+                    fileDescriptor = contentResolver.openFileDescriptor(imageUri, "r");
+                    BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(
+                            fileDescriptor.getFileDescriptor(), false);
+                    return new BackgroundImageLayer(fileDescriptor, decoder, canvasWidth,
+                            canvasHeight);
+                } catch (IOException ioe) {
+                    Log.e(LOG_TAG, "Could not open " + imageUri, ioe);
+                } catch (RuntimeException unsupported) {
+                    // e.g. a security exception, or a format the decoder does not support.
+                    Log.e(LOG_TAG, "Could not decode " + imageUri, unsupported);
+                }
+                if (fileDescriptor != null) {
+                    try {
+                        fileDescriptor.close();
+                    } catch (IOException ignored) {
+                        // nothing more to do.
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(BackgroundImageLayer image) {
+                listener.onBackgroundImageOpened(image);
+            }
+        }.execute();
+    }
+
+    private BackgroundImageLayer(ParcelFileDescriptor fileDescriptor,
+                                 BitmapRegionDecoder decoder, int canvasWidth,
+                                 int canvasHeight) {
+        mFileDescriptor = fileDescriptor;
+        mDecoder = decoder;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+
+        // fit the image in the canvas, keeping its aspect ratio.
+        mScale = Math.min((float) canvasWidth / mImageWidth, (float) canvasHeight / mImageHeight);
+        final float displayedWidth = mImageWidth * mScale;
+        final float displayedHeight = mImageHeight * mScale;
+        mImageBounds.set((canvasWidth - displayedWidth) / 2, (canvasHeight - displayedHeight) / 2,
+                (canvasWidth + displayedWidth) / 2, (canvasHeight + displayedHeight) / 2);
+
+        // The decoded tiles must all fit in the cache at once, otherwise drawing the image would
+        // evict its own tiles. Give up resolution rather than going over the memory budget.
+        final int cacheBytes = (int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / 8);
+        int sampleSize = sampleSizeFor(1 / mScale);
+        while (decodedBytes(sampleSize) > cacheBytes) {
+            sampleSize *= 2;
+        }
+        mSampleSize = sampleSize;
+
+        final int tileSourceSize = TILE_SIZE * mSampleSize;
+        mColumns = (mImageWidth + tileSourceSize - 1) / tileSourceSize;
+        mRows = (mImageHeight + tileSourceSize - 1) / tileSourceSize;
+
+        mTiles = new LruCache<Integer, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap tile) {
+                return tile.getRowBytes() * tile.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Bitmap oldTile,
+                                        Bitmap newTile) {
+                // tiles are only put and evicted on the UI thread, never while being drawn.
+                oldTile.recycle();
+            }
+        };
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(
+                (float) Math.max(mImageWidth, mImageHeight) / PLACEHOLDER_SIZE);
+        options.inPreferredConfig = TILE_CONFIG;
+        mPlaceholder = decoder.decodeRegion(new Rect(0, 0, mImageWidth, mImageHeight), options);
+
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Opened " + mImageWidth + "x" + mImageHeight + " image, sampled 1/"
+                    + mSampleSize + " in " + mColumns + "x" + mRows + " tiles");
+        }
+    }
+
+    /**
+     * @return the largest power of two not greater than the given down-scaling factor.
+     */
+    private static int sampleSizeFor(float downScale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 <= downScale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private long decodedBytes(int sampleSize) {
+        return (long) ((mImageWidth + sampleSize - 1) / sampleSize)
+                * ((mImageHeight + sampleSize - 1) / sampleSize) * TILE_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Sets the view to redraw when tiles finish decoding, null to stop redrawing any.
+     */
+    public void setTargetView(View targetView) {
+        mTargetView = targetView;
+    }
+
+    /**
+     * Draws the part of the image inside the clip of the given canvas. Tiles that are not
+     * decoded yet are drawn from the placeholder, and queued for decoding.
+     */
+    void draw(Canvas canvas) {
+        if (mIsReleased) {
+            return;
+        }
+        if (mPlaceholder != null) {
+            canvas.drawBitmap(mPlaceholder, null, mImageBounds, mPaint);
+        }
+
+        canvas.getClipBounds(mClip);
+        final float tileDisplaySize = TILE_SIZE * mSampleSize * mScale;
+        final int firstColumn = Math.max(0,
+                (int) ((mClip.left - mImageBounds.left) / tileDisplaySize));
+        final int lastColumn = Math.min(mColumns - 1,
+                (int) ((mClip.right - mImageBounds.left) / tileDisplaySize));
+        final int firstRow = Math.max(0,
+                (int) ((mClip.top - mImageBounds.top) / tileDisplaySize));
+        final int lastRow = Math.min(mRows - 1,
+                (int) ((mClip.bottom - mImageBounds.top) / tileDisplaySize));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int key = row * mColumns + column;
+                final Bitmap tile = mTiles.get(key);
+                if (tile == null) {
+                    requestTile(column, row);
+                    continue;
+                }
+                computeTileBounds(column, row, mTileBounds);
+                canvas.drawBitmap(tile, null, mTileBounds, mPaint);
+            }
+        }
+    }
+
+    private void computeTileBounds(int column, int row, RectF outBounds) {
+        final int tileSourceSize = TILE_SIZE * mSampleSize;
+        final int left = column * tileSourceSize;
+        final int top = row * tileSourceSize;
+        final int right = Math.min(left + tileSourceSize, mImageWidth);
+        final int bottom = Math.min(top + tileSourceSize, mImageHeight);
+        outBounds.set(mImageBounds.left + left * mScale, mImageBounds.top + top * mScale,
+                mImageBounds.left + right * mScale, mImageBounds.top + bottom * mScale);
+    }
+
+    private void requestTile(final int column, final int row) {
+        final int key = row * mColumns + column;
+        if (!mPendingTiles.add(key)) {
+            return;
+        }
+
+        final int tileSourceSize = TILE_SIZE * mSampleSize;
+        final Rect source = new Rect(column * tileSourceSize, row * tileSourceSize,
+                Math.min((column + 1) * tileSourceSize, mImageWidth),
+                Math.min((row + 1) * tileSourceSize, mImageHeight));
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsReleased) {
+                    return;
+                }
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = mSampleSize;
+                options.inPreferredConfig = TILE_CONFIG;
+                final Bitmap tile = mDecoder.decodeRegion(source, options);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileDecoded(key, column, row, tile);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onTileDecoded(int key, int column, int row, Bitmap tile) {
+        mPendingTiles.remove(key);
+        if (tile == null) {
+            Log.e(LOG_TAG, "Could not decode tile " + column + "," + row);
+            return;
+        }
+        if (mIsReleased) {
+            tile.recycle();
+            return;
+        }
+        mTiles.put(key, tile);
+
+        computeTileBounds(column, row, mTileBounds);
+        mTileBounds.roundOut(mTileRegion);
+        if (mOwner != null) {
+            mOwner.invalidateBackground(mTileRegion);
+        }
+        if (mTargetView != null) {
+            mTargetView.invalidate();
+        }
+    }
+
+    /**
+     * Draws the part of the image inside the given region, decoding it right away rather than
+     * from the tile cache. Meant for rendering snapshots off the UI thread, which must
+     * {@link #retain} the image while they use it.
+     */
+    void drawDecoded(Canvas canvas, Rect region) {
+        final RectF displayed = new RectF(region);
+        if (mIsReleased || !displayed.intersect(mImageBounds)) {
+            return;
+        }
+        final Rect source = new Rect(
+                Math.max(0, (int) Math.floor((displayed.left - mImageBounds.left) / mScale)),
+                Math.max(0, (int) Math.floor((displayed.top - mImageBounds.top) / mScale)),
+                Math.min(mImageWidth,
+                        (int) Math.ceil((displayed.right - mImageBounds.left) / mScale)),
+                Math.min(mImageHeight,
+                        (int) Math.ceil((displayed.bottom - mImageBounds.top) / mScale)));
+        if (source.isEmpty()) {
+            return;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = mSampleSize;
+        options.inPreferredConfig = TILE_CONFIG;
+        final Bitmap decoded = mDecoder.decodeRegion(source, options);
+        if (decoded == null) {
+            return;
+        }
+        displayed.set(mImageBounds.left + source.left * mScale,
+                mImageBounds.top + source.top * mScale,
+                mImageBounds.left + source.right * mScale,
+                mImageBounds.top + source.bottom * mScale);
+        canvas.drawBitmap(decoded, null, displayed, new Paint(Paint.FILTER_BITMAP_FLAG));
+        decoded.recycle();
+    }
+
+    /**
+     * Keeps the image alive until a matching {@link #release()}.
+     */
+    synchronized void retain() {
+        mRetainCount++;
+    }
+
+    /**
+     * Frees the decoder and every decoded tile, once every holder of the image released it.
+     * The image is not drawn afterwards.
+     */
+    void release() {
+        synchronized (this) {
+            if (--mRetainCount > 0) {
+                return;
+            }
+        }
+        mIsReleased = true;
+        mTargetView = null;
+        mTiles.evictAll();
+        if (mPlaceholder != null) {
+            mPlaceholder.recycle();
+        }
+        // the decoder may still be busy with a tile, let the decode thread recycle it.
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDecoder.recycle();
+                try {
+                    mFileDescriptor.close();
+                } catch (IOException ignored) {
+                    // nothing more to do.
+                }
+            }
+        });
+        mDecodeExecutor.shutdown();
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.project.drawingboard.models;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Raw, uncompressed snapshot of the layers of a drawing, for restoring the canvas on a cold start
+ * without decoding anything.
+ *
+ * The file is memory-mapped both ways: writing is a copy of each layer of a
+ * {@link DrawingSnapshot} into the page cache, flushed before the file takes its final name, and
+ * reading is a copy straight from the mapped file into freshly allocated layers. Either costs the
+ * same for a blank page as for a busy drawing.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   i32 magic "DBSN", i32 version
+ *   i32 width, i32 height, i32 layer count, i32 active layer index, i32 history position,
+ *   i32 storage mode of the {@link LayerStack}, missing in version 2
+ *   i64 id of the drawing in the version history, 0 if never versioned, missing before
+ *       version 4
+ *   layer count x (i32 id, i32 opacity, i32 visible, i32 blend mode,
+ *                  i32 left, top, right, bottom of the content bounds,
+ *                  i32 storage config, i32 tint)
+ *   padding up to {@link #PIXELS_ALIGNMENT}
+ *   layer count x pixels in the storage config of the layer, as laid out by
+ *                 Bitmap#copyPixelsToBuffer
+ * </pre>
+ */
+public class CanvasSnapshot {
+
+    public static final String FILE_NAME = "canvas.snapshot";
+
+    static final int MAGIC = 0x4442534E;
+    static final int VERSION = 4;
+    // without the versioned drawing id, read as never versioned.
+    static final int VERSION_3 = 3;
+    // without the storage mode either, read as automatic.
+    static final int VERSION_2 = 2;
+
+    // pixels start on a page boundary.
+    private static final int PIXELS_ALIGNMENT = 4096;
+    private static final int HEADER_INTS = 10;
+    private static final int LAYER_HEADER_INTS = 10;
+
+    final int mWidth;
+    final int mHeight;
+    final int mActiveIndex;
+    final int mHistoryPosition;
+    final int mStorageMode;
+    final long mVersionedDrawingId;
+    final ArrayList<DrawingLayer> mLayers;
+
+    private CanvasSnapshot(int width, int height, int activeIndex, int historyPosition,
+                           int storageMode, long versionedDrawingId,
+                           ArrayList<DrawingLayer> layers) {
+        mWidth = width;
+        mHeight = height;
+        mActiveIndex = activeIndex;
+        mHistoryPosition = historyPosition;
+        mStorageMode = storageMode;
+        mVersionedDrawingId = versionedDrawingId;
+        mLayers = layers;
+    }
+
+    /**
+     * @return where the snapshot of the drawing is kept.
+     */
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Writes the layers of the given snapshot of a drawing to the file, replacing it once fully
+     * written and flushed, so that a crash leaves either the previous file or the new one. The
+     * stroke count of the snapshot is kept as the history position. May be called on any
+     * thread, while the user keeps drawing.
+     */
+    static void write(DrawingSnapshot snapshot, File file) throws IOException {
+        final int layerCount = snapshot.getLayerCount();
+        final long pixelsOffset = getPixelsOffset(HEADER_INTS, layerCount);
+        long fileLength = pixelsOffset;
+        for (int i = 0; i < layerCount; i++) {
+            fileLength += snapshot.getByteCount(i);
+        }
+
+        final File partial = new File(file.getPath() + ".partial");
+        final RandomAccessFile output = new RandomAccessFile(partial, "rw");
+        try {
+            output.setLength(fileLength);
+            final MappedByteBuffer mapped =
+                    output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+            mapped.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(snapshot.getWidth())
+                    .putInt(snapshot.getHeight())
+                    .putInt(layerCount)
+                    .putInt(snapshot.getActiveLayerIndex())
+                    .putInt(snapshot.getStrokeCount())
+                    .putInt(snapshot.getStorageMode())
+                    .putLong(snapshot.getVersionedDrawingId());
+            for (int i = 0; i < layerCount; i++) {
+                final Rect contentBounds = snapshot.getContentBounds(i);
+                mapped.putInt(snapshot.getLayerId(i))
+                        .putInt(snapshot.getOpacity(i))
+                        .putInt(snapshot.isVisible(i) ? 1 : 0)
+                        .putInt(snapshot.getBlendMode(i).ordinal())
+                        .putInt(contentBounds.left)
+                        .putInt(contentBounds.top)
+                        .putInt(contentBounds.right)
+                        .putInt(contentBounds.bottom)
+                        .putInt(snapshot.getStorageConfig(i).ordinal())
+                        .putInt(snapshot.getTint(i));
+            }
+            long layerOffset = pixelsOffset;
+            for (int i = 0; i < layerCount; i++) {
+                snapshot.copyPixelsToBuffer(i,
+                        slice(mapped, layerOffset, snapshot.getByteCount(i)));
+                layerOffset += snapshot.getByteCount(i);
+            }
+            // the rename must not reach the disk before the pixels do.
+            mapped.force();
+        } finally {
+            output.close();
+        }
+        if (!partial.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Reads the snapshot in the file into new layers. Must not be called on the UI thread.
+     */
+    static CanvasSnapshot read(File file) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        final ArrayList<DrawingLayer> layers = new ArrayList<DrawingLayer>();
+        try {
+            final long fileLength = input.length();
+            final MappedByteBuffer mapped =
+                    input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            if (fileLength < HEADER_INTS * 4 || mapped.getInt() != MAGIC) {
+                throw new IOException("Not a canvas snapshot " + file);
+            }
+            final int version = mapped.getInt();
+            if (version != VERSION && version != VERSION_3 && version != VERSION_2) {
+                throw new IOException("Not a canvas snapshot " + file);
+            }
+            final int width = mapped.getInt();
+            final int height = mapped.getInt();
+            final int layerCount = mapped.getInt();
+            final int activeIndex = mapped.getInt();
+            final int historyPosition = mapped.getInt();
+            final int storageMode = version == VERSION_2
+                    ? LayerStack.STORAGE_AUTO
+                    : mapped.getInt();
+            final long versionedDrawingId = version == VERSION ? mapped.getLong() : 0;
+            final long pixelsOffset = getPixelsOffset(
+                    version == VERSION_2 ? HEADER_INTS - 3
+                            : version == VERSION_3 ? HEADER_INTS - 2
+                            : HEADER_INTS, layerCount);
+            if (width <= 0 || height <= 0 || layerCount <= 0 || activeIndex < 0
+                    || activeIndex >= layerCount || fileLength < pixelsOffset
+                    || storageMode < LayerStack.STORAGE_AUTO
+                    || storageMode > LayerStack.STORAGE_SINGLE_COLOR) {
+                throw new IOException("Corrupt canvas snapshot " + file);
+            }
+
+            final PorterDuff.Mode[] blendModes = PorterDuff.Mode.values();
+            final Bitmap.Config[] configs = Bitmap.Config.values();
+            long pixelsLength = 0;
+            for (int i = 0; i < layerCount; i++) {
+                final int id = mapped.getInt();
+                final int opacity = mapped.getInt();
+                final boolean isVisible = mapped.getInt() != 0;
+                final int blendMode = mapped.getInt();
+                final int left = mapped.getInt();
+                final int top = mapped.getInt();
+                final int right = mapped.getInt();
+                final int bottom = mapped.getInt();
+                final int config = mapped.getInt();
+                final int tint = mapped.getInt();
+                if (blendMode < 0 || blendMode >= blendModes.length
+                        || config < 0 || config >= configs.length) {
+                    throw new IOException("Corrupt canvas snapshot " + file);
+                }
+                final DrawingLayer layer = new DrawingLayer(id, width, height, configs[config]);
+                layers.add(layer);
+                layer.setOpacity(opacity);
+                layer.setVisible(isVisible);
+                layer.setBlendMode(blendModes[blendMode]);
+                layer.setTint(tint);
+                layer.mContentBounds.set(left, top, right, bottom);
+                layer.mHasUnrecordedPixels = !layer.isEmpty();
+                pixelsLength += layer.mBitmap.getByteCount();
+            }
+            if (fileLength != pixelsOffset + pixelsLength) {
+                throw new IOException("Corrupt canvas snapshot " + file);
+            }
+            long layerOffset = pixelsOffset;
+            for (int i = 0; i < layerCount; i++) {
+                final Bitmap pixels = layers.get(i).mBitmap;
+                pixels.copyPixelsFromBuffer(slice(mapped, layerOffset, pixels.getByteCount()));
+                layerOffset += pixels.getByteCount();
+            }
+            return new CanvasSnapshot(width, height, activeIndex, historyPosition, storageMode,
+                    versionedDrawingId, layers);
+        } catch (IOException e) {
+            recycle(layers);
+            throw e;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Frees the layers of a snapshot that ended up not being used.
+     */
+    void recycle() {
+        recycle(mLayers);
+    }
+
+    private static void recycle(ArrayList<DrawingLayer> layers) {
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).recycle();
+        }
+        layers.clear();
+    }
+
+    private static long getPixelsOffset(int headerInts, int layerCount) {
+        final long headerBytes = 4 * (headerInts + LAYER_HEADER_INTS * (long) layerCount);
+        return (headerBytes + PIXELS_ALIGNMENT - 1) / PIXELS_ALIGNMENT * PIXELS_ALIGNMENT;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+        buffer.limit((int) (offset + length));
+        buffer.position((int) offset);
+        return buffer.slice();
+    }
+}
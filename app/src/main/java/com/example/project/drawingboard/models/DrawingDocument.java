@@ -0,0 +1,76 @@
+package com.example.project.drawingboard.models;
+
+import android.os.AsyncTask;
+
+/**
+ * One of the drawings open in a {@link DrawingWorkspace}.
+ *
+ * A resident document holds its layers and stroke history in memory. A spilled one holds
+ * nothing but its id, its content is in the spill files of the workspace until it is switched
+ * back to.
+ */
+public class DrawingDocument {
+
+    int mId;
+
+    // null while the document is spilled.
+    LayerStack mLayers;
+    StrokeHistory mHistory;
+    // position in the stroke history, as of the last switch away from the document.
+    int mUserActionCount;
+    // non null while the document is being written to its spill files, to be dropped after.
+    AsyncTask<Void, Void, Boolean> mSpillTask;
+    // non null while the document is being saved to its spill files, staying in memory.
+    AsyncTask<Void, Void, Boolean> mSaveTask;
+    // true once its spill files hold the document as it is, until it is made current again.
+    boolean mIsSaved = false;
+    // id under which versions of the document are saved, 0 until the first one is.
+    private long mVersionedDrawingId = 0;
+
+    DrawingDocument(int id, LayerStack layers, StrokeHistory history) {
+        mId = id;
+        mLayers = layers;
+        mHistory = history;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return the id versions of the document are saved under in the drawings library, 0 if
+     * none was saved yet.
+     */
+    public long getVersionedDrawingId() {
+        return mVersionedDrawingId;
+    }
+
+    public void setVersionedDrawingId(long versionedDrawingId) {
+        mVersionedDrawingId = versionedDrawingId;
+    }
+
+    /**
+     * @return true if the document is in memory, false if it is spilled to disk.
+     */
+    public boolean isResident() {
+        return mLayers != null;
+    }
+
+    /**
+     * @return true while the document is being written to its spill files, it is still
+     * resident until it is.
+     */
+    boolean isSpilling() {
+        return mSpillTask != null;
+    }
+
+    /**
+     * @return how many bytes the document takes up in memory.
+     */
+    long getResidentByteCount() {
+        if (mLayers == null) {
+            return 0;
+        }
+        return mLayers.getByteCount() + mHistory.getByteCount();
+    }
+}
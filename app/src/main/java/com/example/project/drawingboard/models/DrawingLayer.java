@@ -0,0 +1,223 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+/**
+ * One raster layer of a drawing. Each layer owns its own pixel buffer and carries the properties
+ * (opacity, visibility and blend mode) used when it is composited with the other layers of a
+ * {@link LayerStack}.
+ *
+ * The buffer is stored in one of three configurations, picked by the stack:
+ * <ul>
+ *   <li>{@link Bitmap.Config#ARGB_8888}, any content.</li>
+ *   <li>{@link Bitmap.Config#RGB_565}, opaque content with the paper baked in, for the bottom
+ *   layer only. Strokes are dithered.</li>
+ *   <li>{@link Bitmap.Config#ALPHA_8}, coverage only, composited with a single tint color, for
+ *   as long as everything drawn on the layer is of that color.</li>
+ * </ul>
+ */
+public class DrawingLayer {
+
+    private final int mId;
+
+    // pixel buffer holding only what was drawn on this layer.
+    Bitmap mBitmap;
+    Canvas mCanvas;
+
+    private int mOpacity = 255;
+    private boolean mIsVisible = true;
+    private PorterDuff.Mode mBlendMode = PorterDuff.Mode.SRC_OVER;
+
+    // color the coverage of an ALPHA_8 layer is composited with, opaque.
+    private int mTint = Color.BLACK;
+
+    // Paint used to blit this layer, kept in sync with opacity and blend mode so that
+    // compositing does not need to allocate.
+    final Paint mCompositePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // Bounds of everything ever drawn on this layer since it was last cleared. Property changes
+    // only need to recomposite this region, not the whole canvas.
+    final Rect mContentBounds = new Rect();
+
+    // true if the layer holds pixels the stroke history does not describe, e.g. restored from a
+    // canvas snapshot, in which case it can not be re-rendered from that history.
+    boolean mHasUnrecordedPixels = false;
+
+    DrawingLayer(int id, int width, int height) {
+        this(id, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    DrawingLayer(int id, int width, int height, Bitmap.Config config) {
+        mId = id;
+        setPixels(createPixels(width, height, config));
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getOpacity() {
+        return mOpacity;
+    }
+
+    public boolean isVisible() {
+        return mIsVisible;
+    }
+
+    /**
+     * @return true if the layer holds pixels the stroke history does not describe, e.g. an
+     * image, which only exist as pixels.
+     */
+    public boolean hasUnrecordedPixels() {
+        return mHasUnrecordedPixels;
+    }
+
+    public PorterDuff.Mode getBlendMode() {
+        return mBlendMode;
+    }
+
+    /**
+     * @return how the pixels of this layer are stored.
+     */
+    public Bitmap.Config getStorageConfig() {
+        return mBitmap.getConfig();
+    }
+
+    /**
+     * @return the color an {@link Bitmap.Config#ALPHA_8} layer is composited with.
+     */
+    public int getTint() {
+        return mTint;
+    }
+
+    /**
+     * @return true if nothing was drawn on this layer since it was last cleared.
+     */
+    public boolean isEmpty() {
+        return mContentBounds.isEmpty();
+    }
+
+    void setOpacity(int opacity) {
+        mOpacity = Math.max(0, Math.min(255, opacity));
+        mCompositePaint.setAlpha(mOpacity);
+    }
+
+    void setTint(int tint) {
+        mTint = tint | 0xFF000000;
+        mCompositePaint.setColor(mTint);
+        mCompositePaint.setAlpha(mOpacity);
+    }
+
+    /**
+     * Called before drawing with the given color on this layer. An empty {@link
+     * Bitmap.Config#ALPHA_8} layer takes that color as its tint.
+     *
+     * @return false if the layer can not hold that color as it is stored now.
+     */
+    boolean acceptColor(int color) {
+        if (getStorageConfig() != Bitmap.Config.ALPHA_8) {
+            return true;
+        }
+        if (isEmpty()) {
+            setTint(color);
+            return true;
+        }
+        return (color | 0xFF000000) == mTint;
+    }
+
+    void setVisible(boolean isVisible) {
+        mIsVisible = isVisible;
+    }
+
+    void setBlendMode(PorterDuff.Mode blendMode) {
+        mBlendMode = blendMode;
+        mCompositePaint.setXfermode(blendMode == PorterDuff.Mode.SRC_OVER
+                ? null
+                : new PorterDuffXfermode(blendMode));
+    }
+
+    /**
+     * @return true if this layer can be pre-composited on transparency and later drawn over the
+     * layers below it with the same result, i.e. it uses the normal blend mode.
+     */
+    boolean isNormalBlend() {
+        return mBlendMode == PorterDuff.Mode.SRC_OVER;
+    }
+
+    /**
+     * Records that the given region of this layer has been drawn upon.
+     */
+    void includeInContent(Rect region) {
+        mContentBounds.union(region);
+    }
+
+    void clear() {
+        mBitmap.eraseColor(getBlankColor(getStorageConfig()));
+        mContentBounds.setEmpty();
+        mHasUnrecordedPixels = false;
+    }
+
+    /**
+     * Erases the given region of this layer, keeping the content bounds as they are.
+     */
+    void clear(Rect region) {
+        mCanvas.save();
+        mCanvas.clipRect(region);
+        mCanvas.drawColor(getBlankColor(getStorageConfig()), PorterDuff.Mode.SRC);
+        mCanvas.restore();
+    }
+
+    /**
+     * Gives this layer a new blank buffer, leaving the current one to whoever still reads it.
+     */
+    void replacePixels(Bitmap.Config config) {
+        setPixels(createPixels(mBitmap.getWidth(), mBitmap.getHeight(), config));
+        mContentBounds.setEmpty();
+        mHasUnrecordedPixels = false;
+    }
+
+    /**
+     * Makes the given buffer the pixels of this layer, leaving the current one, if any, to the
+     * caller. The content bounds are kept.
+     */
+    void setPixels(Bitmap pixels) {
+        mBitmap = pixels;
+        mCanvas = new Canvas(pixels);
+    }
+
+    /**
+     * @return a new blank buffer in the given configuration.
+     */
+    static Bitmap createPixels(int width, int height, Bitmap.Config config) {
+        final Bitmap pixels = Bitmap.createBitmap(width, height, config);
+        if (config == Bitmap.Config.RGB_565) {
+            pixels.eraseColor(getBlankColor(config));
+        }
+        return pixels;
+    }
+
+    private static int getBlankColor(Bitmap.Config config) {
+        // there is no transparency to fall back to without an alpha channel.
+        return config == Bitmap.Config.RGB_565 ? LayerStack.PAPER_COLOR : Color.TRANSPARENT;
+    }
+
+    /**
+     * Lets go of the buffer of this layer without freeing it, as it is still being read.
+     */
+    void detachPixels() {
+        mBitmap = null;
+        mCanvas = null;
+    }
+
+    void recycle() {
+        mBitmap.recycle();
+        mBitmap = null;
+        mCanvas = null;
+    }
+}
@@ -9,9 +9,16 @@ import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.SparseArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * A data fragment which has no knowledge about the UI using it. This fragment is retained
@@ -24,31 +31,53 @@ public class DrawingPathCacheStore extends Fragment {
 
     public static final String LOG_TAG = DrawingBoardActivity.class.getSimpleName();
 
-    // actual buffer which holds the pixel matrix that we draw on the canvas.
-    private Bitmap mBitmap;
-
-    // This canvas object just provides us with a convenient way to manipulate the bitmap buffer.
-    // It is important to note that, this is NOT the canvas that is being referenced by the
-    // canvas in {@link PaintCanvas}.
-    private Canvas mCanvas;
+    // actual buffers which hold the pixel matrices that we draw on the canvas, one per layer.
+    // It is important to note that, the canvases of these layers are NOT the canvas that is
+    // being referenced by the canvas in {@link PaintCanvas}.
+    // Those of the current document, replaced on switching documents.
+    private LayerStack mLayers = new LayerStack();
 
-    SparseArray<Stroke> mUndoRedoStack = new SparseArray<Stroke>();
+    // strokes drawn since the drawing was started, or restored.
+    StrokeHistory mHistory = new StrokeHistory();
+    // position in the stroke history, which, unlike the history, survives a cold start.
     int mUserActionCount = 0;
 
+    // the drawings open, the current one first.
+    private final DrawingWorkspace mWorkspace = new DrawingWorkspace(mLayers, mHistory);
+    // size of the view, which new documents are given.
+    private int mCanvasWidth, mCanvasHeight;
+
+    // scratch rects for computing the region touched by a commit, reused to avoid allocations.
+    private final RectF mCommitBounds = new RectF();
+    private final Rect mCommitRegion = new Rect();
+
+    // strokes lifted off the active layer by a lasso, non null until they are put back.
+    private StrokeSelection mSelection;
+    // strokes still being received, drawn but not recorded yet.
+    private final ArrayList<PendingStroke> mPendingStrokes = new ArrayList<PendingStroke>();
+    // scratch for re-rendering strokes from the history.
+    private final Path mRenderPath = new Path();
+    private final Paint mRenderPaint = new Paint();
+
+    // non null while the layers are being restored from a snapshot.
+    private AsyncTask<Void, Void, DrawingWorkspace.SpilledContent> mRestoreTask;
+    // the document being restored, if it is read back from its spill files.
+    private DrawingDocument mRestoringDocument;
+    // whether this store looked for the drawing of the previous session yet. A store the system
+    // re-creates after killing the process starts out empty, and must look for it again.
+    private boolean mIsSnapshotRestoreAttempted = false;
+    private OnSnapshotRestoredListener mSnapshotRestoredListener;
+
     /**
-     * Represents one contour drawn in response to the users action.
+     * Notified on the UI thread once restoring a snapshot is over.
      */
-    private class Stroke {
-        Path mPath;
-        Paint mPaintConfig;
-
-        public Stroke(Path pathToCopy, Paint paintConfigUsedByPath) {
-            mPath = new Path(pathToCopy);
-            mPaintConfig = new Paint(paintConfigUsedByPath);
-        }
+    public interface OnSnapshotRestoredListener {
+        /**
+         * @param isRestored false if the snapshot could not be read, the canvas is blank then.
+         */
+        void onSnapshotRestored(boolean isRestored);
     }
 
-
     /**
      * Use this factory method to create a new instance of
      * this fragment using the provided parameters.
@@ -67,44 +96,602 @@ public class DrawingPathCacheStore extends Fragment {
 
     public DrawingPathCacheStore() {
         // Required empty public constructor
+        StrokeHistory.applyStrokeStyle(mRenderPaint);
     }
 
     public void setCanvasSize(int width, int height) {
+        mCanvasWidth = width;
+        mCanvasHeight = height;
 
-
-        if (mBitmap == null) {
-            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            mCanvas = new Canvas(mBitmap);
-        }
+        mLayers.ensureSize(width, height);
 
         // Can be better handled by detecting the direction of device rotation and then applying
         // a rotation on the original bitmap in the opposite direction.
     }
 
-    public void commitToCache(Path pathToCommit, Paint currentPaintConfig) {
-        mUndoRedoStack.append(mUserActionCount++, new Stroke(pathToCommit, currentPaintConfig));
-        mCanvas.drawPath(pathToCommit, currentPaintConfig);
+    /**
+     * Draws a completed stroke on the active layer and records it in the stroke history.
+     *
+     * @param path the stroke, as smoothed through its points by the canvas.
+     * @param points x, y pairs of the points the stroke was drawn through.
+     */
+    public void commitStroke(Path path, Paint paintConfig, float[] points, int pointCount) {
+        drawOnActiveLayer(path, paintConfig);
+        recordStroke(paintConfig, points, pointCount);
+    }
+
+    /**
+     * Draws the given path on the active layer, without recording it in the stroke history.
+     */
+    public void drawOnActiveLayer(Path path, Paint paintConfig) {
+        drawOnLayer(mLayers.getActiveLayer(), path, paintConfig);
+    }
+
+    private void drawOnLayer(DrawingLayer layer, Path path, Paint paintConfig) {
+        mLayers.prepareToDraw(layer, paintConfig.getColor());
+
+        // only the bounds of the path (grown by the stroke width) change.
+        StrokeHistory.computeRegion(path, paintConfig, mCommitBounds, mCommitRegion);
+        mLayers.beforeDraw(layer, mCommitRegion);
+        layer.mCanvas.drawPath(path, paintConfig);
+        mLayers.markDirty(layer, mCommitRegion);
+    }
+
+    /**
+     * Records a stroke through the given points in the stroke history, as drawn on the active
+     * layer with the color and width of the given paint, without drawing it. Allocates nothing
+     * once the history has grown to the size of the drawing.
+     */
+    public void recordStroke(Paint paintConfig, float[] points, int pointCount) {
+        recordStroke(mLayers.getActiveLayer(), paintConfig, points, pointCount);
+    }
+
+    private void recordStroke(DrawingLayer layer, Paint paintConfig, float[] points,
+                              int pointCount) {
+        mHistory.append(paintConfig.getColor(), paintConfig.getStrokeWidth(), layer.getId(),
+                SystemClock.uptimeMillis(), points, pointCount);
+        mUserActionCount++;
+    }
+
+    /**
+     * Starts a stroke on the active layer that is drawn piece by piece, through
+     * {@link #extendPendingStroke(PendingStroke, Path)}, while it is still being received, and
+     * recorded as a whole once it ends, through
+     * {@link #endPendingStroke(PendingStroke, float[], int)}. It stays on this layer whichever
+     * layer is made active meanwhile.
+     */
+    public PendingStroke beginPendingStroke(Paint paintConfig) {
+        final PendingStroke stroke = new PendingStroke(mLayers.getActiveLayer(), paintConfig);
+        mPendingStrokes.add(stroke);
+        return stroke;
     }
 
-    public Bitmap getBitmap() {
-        return mBitmap;
+    /**
+     * Draws the next piece of a pending stroke on its layer. Does nothing if the layer is not
+     * one of the current drawing, e.g. it was removed.
+     */
+    public void extendPendingStroke(PendingStroke stroke, Path segment) {
+        stroke.mPath.addPath(segment);
+        if (mLayers.indexOf(stroke.mLayer) >= 0) {
+            drawOnLayer(stroke.mLayer, segment, stroke.mPaint);
+        }
     }
 
+    /**
+     * Records a pending stroke, through the given points, against the layer it was drawn on.
+     * It is dropped if that layer is not one of the current drawing any more.
+     */
+    public void endPendingStroke(PendingStroke stroke, float[] points, int pointCount) {
+        mPendingStrokes.remove(stroke);
+        if (mLayers.indexOf(stroke.mLayer) >= 0) {
+            recordStroke(stroke.mLayer, stroke.mPaint, points, pointCount);
+        }
+    }
 
     /**
-     * Resets the state of the
+     * Draws the given image on the active layer, at the top left corner. The image is not part
+     * of the stroke history, its pixels can not be selected with the lasso.
+     */
+    public void drawImageOnActiveLayer(Bitmap image) {
+        applySelection();
+        final DrawingLayer activeLayer = mLayers.getActiveLayer();
+        mLayers.prepareToDrawImage(activeLayer);
+
+        final Rect region = new Rect(0, 0, Math.min(image.getWidth(), mLayers.getWidth()),
+                Math.min(image.getHeight(), mLayers.getHeight()));
+        mLayers.beforeDraw(activeLayer, region);
+        activeLayer.mCanvas.drawBitmap(image, 0, 0, null);
+        mLayers.markDirty(activeLayer, region);
+        activeLayer.mHasUnrecordedPixels = true;
+        mUserActionCount++;
+    }
+
+    /**
+     * Draws the paper and every layer, composited, on to the given canvas.
+     */
+    public void drawLayers(Canvas canvas) {
+        mLayers.draw(canvas);
+    }
+
+    /**
+     * Draws the paper and every layer, composited, on to the given canvas, with the stroke that
+     * is still being drawn shown on the active layer. See
+     * {@link LayerStack#draw(Canvas, Path, Paint)}.
+     */
+    public void drawLayers(Canvas canvas, Path liveStroke, Paint livePaint) {
+        mLayers.draw(canvas, liveStroke, livePaint);
+    }
+
+    /**
+     * @return the layers of the current drawing, to add layers, switch the active layer or
+     * change layer properties.
+     */
+    public LayerStack getLayerStack() {
+        return mLayers;
+    }
+
+    /**
+     * Selects the strokes of the active layer lying entirely inside the given polygon and lifts
+     * them off the layer, to be transformed through the returned selection. The strokes are
+     * rasterized once, into a sprite the layer stack shows in their place, and the region they
+     * covered is re-rendered without them.
+     *
+     * A pending selection is applied first.
+     *
+     * @param polygon x, y pairs of the vertices of the lasso.
+     * @return the selection, or null if no stroke falls inside the lasso, or if the active layer
+     * holds pixels the stroke history does not describe.
+     */
+    public StrokeSelection selectStrokes(float[] polygon, int vertexCount) {
+        applySelection();
+        final DrawingLayer layer = mLayers.getActiveLayer();
+        if (vertexCount < 3 || layer.mHasUnrecordedPixels) {
+            return null;
+        }
+
+        final int strokeCount = mHistory.size();
+        final boolean[] isSelected = new boolean[strokeCount];
+        final RectF selectedBounds = new RectF();
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            if (mHistory.getLayerId(stroke) != layer.getId()
+                    || !isInside(stroke, polygon, vertexCount)) {
+                continue;
+            }
+            isSelected[stroke] = true;
+            mHistory.getBounds(stroke, mCommitBounds);
+            selectedBounds.union(mCommitBounds);
+        }
+        final Rect region = new Rect();
+        selectedBounds.roundOut(region);
+        if (region.isEmpty() || !region.intersect(0, 0, mLayers.getWidth(), mLayers.getHeight())) {
+            return null;
+        }
+
+        final StrokeSelection selection = new StrokeSelection(layer, isSelected, region);
+        final Bitmap sprite = Bitmap.createBitmap(region.width(), region.height(),
+                Bitmap.Config.ARGB_8888);
+        final Canvas spriteCanvas = new Canvas(sprite);
+        spriteCanvas.translate(-region.left, -region.top);
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            if (isSelected[stroke]) {
+                mHistory.buildPath(stroke, mRenderPath);
+                mHistory.applyPaint(stroke, mRenderPaint);
+                spriteCanvas.drawPath(mRenderPath, mRenderPaint);
+            }
+        }
+        selection.setSprite(sprite);
+
+        renderFromHistory(layer, region, isSelected);
+        mSelection = selection;
+        mLayers.setSelection(selection);
+        return selection;
+    }
+
+    /**
+     * @return the strokes lifted off by the last {@link #selectStrokes(float[], int)}, or null
+     * if they were put back.
+     */
+    public StrokeSelection getSelection() {
+        return mSelection;
+    }
+
+    /**
+     * Puts the selected strokes back on their layer: their points are moved by the transform of
+     * the selection, and only the region they land on is re-rendered. Does nothing if there is
+     * no selection.
+     */
+    public void applySelection() {
+        final StrokeSelection selection = mSelection;
+        if (selection == null) {
+            return;
+        }
+        mSelection = null;
+        mLayers.setSelection(null);
+        selection.recycle();
+        if (mLayers.indexOf(selection.mLayer) < 0) {
+            // the layer went away along with its strokes.
+            return;
+        }
+
+        final boolean[] isSelected = selection.mIsSelected;
+        for (int stroke = 0; stroke < isSelected.length; stroke++) {
+            if (isSelected[stroke]) {
+                mHistory.transform(stroke, selection.mTransform);
+            }
+        }
+        selection.getTransformedBounds(mCommitBounds);
+        mCommitBounds.inset(-1, -1);
+        final Rect region = new Rect();
+        mCommitBounds.roundOut(region);
+        if (region.intersect(0, 0, mLayers.getWidth(), mLayers.getHeight())) {
+            renderFromHistory(selection.mLayer, region, null);
+        }
+        mUserActionCount++;
+    }
+
+    private boolean isInside(int stroke, float[] polygon, int vertexCount) {
+        final int pointCount = mHistory.getPointCount(stroke);
+        for (int point = 0; point < pointCount; point++) {
+            if (!StrokeSelection.contains(polygon, vertexCount, mHistory.getX(stroke, point),
+                    mHistory.getY(stroke, point))) {
+                return false;
+            }
+        }
+        return pointCount > 0;
+    }
+
+    /**
+     * Erases the given region of the layer and draws back, in order, every stroke of the history
+     * that was drawn on that layer and touches the region, then the strokes still pending on it.
+     *
+     * @param isExcluded strokes to leave out, or null.
+     */
+    private void renderFromHistory(DrawingLayer layer, Rect region, boolean[] isExcluded) {
+        mLayers.beforeDraw(layer, region);
+        layer.clear(region);
+        final int strokeCount = mHistory.size();
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            if (mHistory.getLayerId(stroke) != layer.getId()
+                    || (isExcluded != null && stroke < isExcluded.length && isExcluded[stroke])) {
+                continue;
+            }
+            mHistory.getBounds(stroke, mCommitBounds);
+            if (!mCommitBounds.intersects(region.left, region.top, region.right,
+                    region.bottom)) {
+                continue;
+            }
+            mHistory.buildPath(stroke, mRenderPath);
+            mHistory.applyPaint(stroke, mRenderPaint);
+            mLayers.prepareToDraw(layer, mRenderPaint.getColor());
+            // the layer may have just been converted, it has a new canvas then.
+            final Canvas canvas = layer.mCanvas;
+            canvas.save();
+            canvas.clipRect(region);
+            canvas.drawPath(mRenderPath, mRenderPaint);
+            canvas.restore();
+        }
+        for (int i = 0; i < mPendingStrokes.size(); i++) {
+            final PendingStroke stroke = mPendingStrokes.get(i);
+            if (stroke.mLayer != layer) {
+                continue;
+            }
+            mLayers.prepareToDraw(layer, stroke.mPaint.getColor());
+            final Canvas canvas = layer.mCanvas;
+            canvas.save();
+            canvas.clipRect(region);
+            canvas.drawPath(stroke.mPath, stroke.mPaint);
+            canvas.restore();
+        }
+        mLayers.markDirty(layer, region);
+    }
+
+    /**
+     * Takes a copy-on-write snapshot of the drawing, for encoding it in the background without
+     * holding up drawing. Only the tiles drawn upon while the snapshot is open get copied.
+     * The caller must release the snapshot.
+     */
+    public DrawingSnapshot createSnapshot() {
+        // the lifted strokes are part of the drawing.
+        applySelection();
+        DrawingSnapshot snapshot = mLayers.createSnapshot();
+        snapshot.setStrokeCount(mUserActionCount);
+        return snapshot;
+    }
+
+    /**
+     * Creates a playback of the stroke history recorded so far. Strokes committed after this
+     * call are not part of the playback.
+     */
+    public HistoryPlayback createPlayback() {
+        applySelection();
+        return new HistoryPlayback(mHistory.copy(), mLayers);
+    }
+
+    /**
+     * @return the stroke history itself, for exporting it as it stands. Other threads may only
+     * read it through {@link StrokeHistory#read(int, StrokeHistory.StrokeCopy)}.
+     */
+    public StrokeHistory getStrokeHistory() {
+        applySelection();
+        return mHistory;
+    }
+
+    /**
+     * Saves the raw pixels of every layer, the position in the stroke history and the id of the
+     * drawing in the version history to the given file, or deletes the file if there is nothing
+     * drawn. Only the position is kept, the strokes themselves do not outlive the process.
+     *
+     * The other documents in memory are saved to their spill files, see
+     * {@link DrawingWorkspace}.
+     */
+    public void saveSnapshot(File file) {
+        mWorkspace.saveBackgroundDocuments();
+        if (mRestoringDocument != null) {
+            // the current document is still in its spill files, the next session lists it.
+            saveInBackground(null, file);
+            return;
+        }
+        if (!mIsSnapshotRestoreAttempted || isRestoring() || mLayers.isEmpty()) {
+            // the layers do not hold the drawing yet, keep the snapshot it will come from.
+            return;
+        }
+        applySelection();
+        if (mLayers.isBlank()) {
+            saveInBackground(null, file);
+            return;
+        }
+        final DrawingSnapshot snapshot = mLayers.createSnapshot();
+        snapshot.setStrokeCount(mUserActionCount);
+        snapshot.setVersionedDrawingId(mWorkspace.getCurrent().getVersionedDrawingId());
+        saveInBackground(snapshot, file);
+    }
+
+    /**
+     * Writes the snapshot to the file in the background, then releases it, or deletes the file
+     * if the snapshot is null. Saves are carried out one after the other, in the order they
+     * were asked for, and before any restore asked for later.
+     */
+    private static void saveInBackground(final DrawingSnapshot snapshot, final File file) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                if (snapshot == null) {
+                    file.delete();
+                    return null;
+                }
+                try {
+                    final long start = System.nanoTime();
+                    CanvasSnapshot.write(snapshot, file);
+                    if (BuildConfig.DEBUG) {
+                        Log.d(LOG_TAG, "Snapshot saved in "
+                                + (System.nanoTime() - start) / 1000 + "us");
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not save the canvas snapshot", e);
+                    file.delete();
+                } finally {
+                    snapshot.release();
+                }
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * Starts restoring the layers from a snapshot saved by {@link #saveSnapshot(File)}, in the
+     * background. Until it is done, {@link #isRestoring()} is true and the layers must not be
+     * drawn upon.
+     *
+     * Only the first call on a store restores anything, later ones would overwrite what was
+     * drawn since with an older drawing.
+     *
+     * Whether there is a snapshot is only known in the background, once the saves asked for
+     * before are written.
+     *
+     * @return false if this store restored its drawing already.
+     */
+    public boolean restoreSnapshot(final File file) {
+        if (mIsSnapshotRestoreAttempted || isRestoring()) {
+            return false;
+        }
+        mIsSnapshotRestoreAttempted = true;
+        startRestore(file, null);
+        return true;
+    }
+
+    /**
+     * Reads back, in the background, either the snapshot in the given file, or the current
+     * document from its spill files.
+     */
+    private void startRestore(final File file, final DrawingDocument spilledDocument) {
+        mRestoringDocument = spilledDocument;
+        mRestoreTask = new AsyncTask<Void, Void, DrawingWorkspace.SpilledContent>() {
+            @Override
+            protected DrawingWorkspace.SpilledContent doInBackground(Void... params) {
+                if (spilledDocument == null && !file.exists()) {
+                    // nothing was drawn in the previous session.
+                    return null;
+                }
+                try {
+                    final long start = System.nanoTime();
+                    final DrawingWorkspace.SpilledContent content = spilledDocument != null
+                            ? mWorkspace.readSpillFiles(spilledDocument)
+                            : new DrawingWorkspace.SpilledContent(CanvasSnapshot.read(file),
+                                    null);
+                    if (BuildConfig.DEBUG) {
+                        Log.d(LOG_TAG, "Snapshot read in "
+                                + (System.nanoTime() - start) / 1000 + "us");
+                    }
+                    return content;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not restore the canvas snapshot", e);
+                    if (spilledDocument != null) {
+                        mWorkspace.deleteSpillFiles(spilledDocument);
+                    } else {
+                        file.delete();
+                    }
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(DrawingWorkspace.SpilledContent content) {
+                mRestoreTask = null;
+                mRestoringDocument = null;
+                if (content != null && content.mSnapshot != null) {
+                    final CanvasSnapshot snapshot = content.mSnapshot;
+                    mLayers.setLayers(snapshot.mWidth, snapshot.mHeight, snapshot.mLayers,
+                            snapshot.mActiveIndex);
+                    mUserActionCount = Math.max(mUserActionCount, snapshot.mHistoryPosition);
+                    mWorkspace.getCurrent().setVersionedDrawingId(snapshot.mVersionedDrawingId);
+                    if (spilledDocument == null) {
+                        // a spilled document takes the storage mode of the one it replaces.
+                        mLayers.setStorageMode(snapshot.mStorageMode);
+                    }
+                }
+                if (content != null && content.mHistory != null) {
+                    mHistory = content.mHistory;
+                    mWorkspace.getCurrent().mHistory = mHistory;
+                }
+                if (spilledDocument != null) {
+                    // back in memory for good, until spilled again.
+                    mWorkspace.deleteSpillFilesInBackground(spilledDocument);
+                }
+                if (mCanvasWidth > 0) {
+                    // the snapshot may be of a smaller view, e.g. in the other orientation.
+                    mLayers.ensureSize(mCanvasWidth, mCanvasHeight);
+                }
+                if (mSnapshotRestoredListener != null) {
+                    mSnapshotRestoredListener.onSnapshotRestored(content != null);
+                }
+            }
+
+            @Override
+            protected void onCancelled(DrawingWorkspace.SpilledContent content) {
+                if (content != null && content.mSnapshot != null) {
+                    content.mSnapshot.recycle();
+                }
+            }
+        }.execute();
+    }
+
+    public boolean isRestoring() {
+        return mRestoreTask != null;
+    }
+
+    public void setOnSnapshotRestoredListener(OnSnapshotRestoredListener listener) {
+        mSnapshotRestoredListener = listener;
+    }
+
+    /**
+     * Resets the state of the cache, erasing all layers, the background image and the stroke
+     * history.
      */
     public void resetCache() {
-        final int height = mBitmap.getHeight();
-        final int width = mBitmap.getWidth();
+        if (mRestoreTask != null) {
+            // the snapshot being restored is what is being erased.
+            mRestoreTask.cancel(false);
+            mRestoreTask = null;
+            mRestoringDocument = null;
+            mWorkspace.deleteSpillFilesInBackground(mWorkspace.getCurrent());
+            if (mSnapshotRestoredListener != null) {
+                mSnapshotRestoredListener.onSnapshotRestored(false);
+            }
+        }
+        if (mSelection != null) {
+            // the lifted strokes are erased along with everything else.
+            mLayers.setSelection(null);
+            mSelection.recycle();
+            mSelection = null;
+        }
+        mLayers.setBackground(null);
+        mLayers.clear();
+        mHistory.clear();
+        for (int i = 0; i < mPendingStrokes.size(); i++) {
+            // what was drawn of them is erased too.
+            mPendingStrokes.get(i).mPath.rewind();
+        }
+        mUserActionCount = 0;
+    }
 
-        // free up the underlying buffer
-        mBitmap.recycle();
-        mBitmap = null;
-        mCanvas = null;
+    /**
+     * Starts spilling documents to the given directory once those in memory outgrow the given
+     * budget, and lists the documents a previous session left there. Call before restoring the
+     * current document. Does nothing once the workspace of this store is open.
+     */
+    public void openWorkspace(File spillDirectory, long memoryBudget) {
+        if (!mWorkspace.isOpen()) {
+            mWorkspace.open(spillDirectory, memoryBudget);
+        }
+    }
+
+    /**
+     * @return the drawings open, for listing them. Switch between them through
+     * {@link #switchToDocument(DrawingDocument)}.
+     */
+    public DrawingWorkspace getWorkspace() {
+        return mWorkspace;
+    }
 
-        // initialize a new buffer of the same size.
-        setCanvasSize(width, height);
+    /**
+     * Opens a new blank drawing and makes it the current one.
+     */
+    public DrawingDocument newDocument() {
+        final DrawingDocument document = mWorkspace.newDocument();
+        switchToDocument(document);
+        return document;
+    }
+
+    /**
+     * Makes the given document the current one, whose layers and history this store then
+     * holds. A spilled document is read back in the background, {@link #isRestoring()} is true
+     * until it is. Less recently used documents may get spilled to make room.
+     */
+    public void switchToDocument(DrawingDocument document) {
+        final DrawingDocument current = mWorkspace.getCurrent();
+        if (document == current) {
+            return;
+        }
+        if (mRestoreTask != null && mRestoringDocument == null) {
+            // the drawing of the previous session has nowhere to go until it is back.
+            return;
+        }
+        final int storageMode = mLayers.getStorageMode();
+        if (mRestoreTask != null) {
+            // the document being read back stays spilled.
+            mRestoreTask.cancel(false);
+            mRestoreTask = null;
+            mRestoringDocument = null;
+            current.mLayers.release();
+            current.mLayers = null;
+            current.mHistory = null;
+        } else {
+            applySelection();
+            current.mUserActionCount = mUserActionCount;
+        }
+
+        mWorkspace.makeCurrent(document);
+        final boolean isResident = document.isResident();
+        if (isResident) {
+            // a copy saved on pause would be stale by the next save.
+            mWorkspace.deleteSpillFilesInBackground(document);
+        } else {
+            document.mLayers = new LayerStack();
+            document.mHistory = new StrokeHistory();
+            document.mUserActionCount = 0;
+        }
+        mLayers = document.mLayers;
+        mHistory = document.mHistory;
+        mUserActionCount = document.mUserActionCount;
+        mLayers.setStorageMode(storageMode);
+        if (isResident) {
+            if (mCanvasWidth > 0) {
+                mLayers.ensureSize(mCanvasWidth, mCanvasHeight);
+            }
+        } else {
+            startRestore(null, document);
+        }
+        mWorkspace.trimToBudget();
     }
 
     /**
@@ -0,0 +1,362 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A copy-on-write, point in time view of a drawing, to encode it in the background while the user
+ * keeps drawing.
+ *
+ * Taking a snapshot copies nothing: it keeps references to the pixel buffers of the layers. The
+ * first time drawing is about to touch a tile of a layer the snapshot has not read yet, that tile
+ * alone is copied out for the snapshot, see {@link #beforeDraw(DrawingLayer, Rect)}. When a layer
+ * is erased or removed, its buffer is handed over to the snapshot instead of being reused.
+ *
+ * {@link #render()} composites the snapshot tile by tile, on any thread. Each tile is read under
+ * the same lock the UI thread takes to copy tiles out, so a tile is either read before it is
+ * drawn upon, or from its copy.
+ */
+public class DrawingSnapshot {
+
+    // Side, in pixels, of the tiles that are copied on write.
+    static final int TILE_SIZE = 256;
+
+    private final LayerStack mOwner;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final int mRows;
+
+    // the layers, their buffers and how they were composited, when the snapshot was taken.
+    private final DrawingLayer[] mLayers;
+    private Bitmap[] mSources;
+    private final Paint[] mPaints;
+    private final boolean[] mIsVisible;
+    // the rest of the properties of the layers, for saving them along with their pixels.
+    private final int[] mLayerIds;
+    private final int[] mOpacities;
+    private final PorterDuff.Mode[] mBlendModes;
+    private final Rect[] mContentBounds;
+    private final int[] mTints;
+    private final int mActiveIndex;
+    private final int mStorageMode;
+    private BackgroundImageLayer mBackground;
+    private int mStrokeCount;
+    private long mVersionedDrawingId;
+
+    // [layer][tile], tiles copied out before being drawn upon.
+    private Bitmap[][] mCopiedTiles;
+    // [tile], tiles already composited by render(), which no longer need copying.
+    private final boolean[] mIsRendered;
+    private boolean mIsReleased = false;
+
+    private final Rect mTileRegion = new Rect();
+
+    DrawingSnapshot(LayerStack owner) {
+        mOwner = owner;
+        mWidth = owner.getWidth();
+        mHeight = owner.getHeight();
+        mColumns = (mWidth + TILE_SIZE - 1) / TILE_SIZE;
+        mRows = (mHeight + TILE_SIZE - 1) / TILE_SIZE;
+
+        final int layerCount = owner.getLayerCount();
+        mLayers = new DrawingLayer[layerCount];
+        mSources = new Bitmap[layerCount];
+        mPaints = new Paint[layerCount];
+        mIsVisible = new boolean[layerCount];
+        mLayerIds = new int[layerCount];
+        mOpacities = new int[layerCount];
+        mBlendModes = new PorterDuff.Mode[layerCount];
+        mContentBounds = new Rect[layerCount];
+        mTints = new int[layerCount];
+        mCopiedTiles = new Bitmap[layerCount][];
+        for (int i = 0; i < layerCount; i++) {
+            final DrawingLayer layer = owner.getLayer(i);
+            mLayers[i] = layer;
+            mSources[i] = layer.mBitmap;
+            mPaints[i] = new Paint(layer.mCompositePaint);
+            mIsVisible[i] = layer.isVisible();
+            mLayerIds[i] = layer.getId();
+            mOpacities[i] = layer.getOpacity();
+            mBlendModes[i] = layer.getBlendMode();
+            mContentBounds[i] = new Rect(layer.mContentBounds);
+            mTints[i] = layer.getTint();
+            mCopiedTiles[i] = new Bitmap[mColumns * mRows];
+        }
+        mActiveIndex = owner.getActiveLayerIndex();
+        mStorageMode = owner.getStorageMode();
+        mIsRendered = new boolean[mColumns * mRows];
+
+        mBackground = owner.getBackground();
+        if (mBackground != null) {
+            mBackground.retain();
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return how many strokes the drawing was made of when the snapshot was taken.
+     */
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    void setStrokeCount(int strokeCount) {
+        mStrokeCount = strokeCount;
+    }
+
+    /**
+     * @return the id of the drawing in the version history, 0 if it was never versioned.
+     */
+    long getVersionedDrawingId() {
+        return mVersionedDrawingId;
+    }
+
+    void setVersionedDrawingId(long versionedDrawingId) {
+        mVersionedDrawingId = versionedDrawingId;
+    }
+
+    int getLayerCount() {
+        return mLayers.length;
+    }
+
+    int getActiveLayerIndex() {
+        return mActiveIndex;
+    }
+
+    int getStorageMode() {
+        return mStorageMode;
+    }
+
+    int getLayerId(int index) {
+        return mLayerIds[index];
+    }
+
+    int getOpacity(int index) {
+        return mOpacities[index];
+    }
+
+    boolean isVisible(int index) {
+        return mIsVisible[index];
+    }
+
+    PorterDuff.Mode getBlendMode(int index) {
+        return mBlendModes[index];
+    }
+
+    Rect getContentBounds(int index) {
+        return mContentBounds[index];
+    }
+
+    int getTint(int index) {
+        return mTints[index];
+    }
+
+    Bitmap.Config getStorageConfig(int index) {
+        return mSources[index].getConfig();
+    }
+
+    /**
+     * @return how many bytes {@link #copyPixelsToBuffer(int, ByteBuffer)} copies for a layer.
+     */
+    int getByteCount(int index) {
+        return mSources[index].getByteCount();
+    }
+
+    /**
+     * Copies the pixels of a layer, as they were when the snapshot was taken, to the given
+     * buffer, laid out as by Bitmap#copyPixelsToBuffer. May be called on any thread.
+     */
+    synchronized void copyPixelsToBuffer(int index, ByteBuffer buffer) {
+        if (mIsReleased) {
+            throw new IllegalStateException("Snapshot already released");
+        }
+        final Bitmap source = mSources[index];
+        final int start = buffer.position();
+        // tiles not copied out yet wait for the lock before being drawn upon. Those that were
+        // may be drawn upon meanwhile, they are overwritten with their copies below.
+        source.copyPixelsToBuffer(buffer);
+        final int end = buffer.position();
+
+        final int rowBytes = source.getRowBytes();
+        final int pixelBytes = source.getConfig() == Bitmap.Config.ARGB_8888 ? 4
+                : source.getConfig() == Bitmap.Config.RGB_565 ? 2
+                : 1;
+        final Bitmap[] copiedTiles = mCopiedTiles[index];
+        byte[] tileBytes = null;
+        for (int tile = 0; tile < copiedTiles.length; tile++) {
+            final Bitmap copiedTile = copiedTiles[tile];
+            if (copiedTile == null) {
+                continue;
+            }
+            if (tileBytes == null) {
+                tileBytes = new byte[TILE_SIZE * TILE_SIZE * pixelBytes];
+            }
+            computeTileRegion(tile % mColumns, tile / mColumns, mTileRegion);
+            final int tileRowBytes = copiedTile.getRowBytes();
+            copiedTile.copyPixelsToBuffer(ByteBuffer.wrap(tileBytes));
+            for (int y = 0; y < mTileRegion.height(); y++) {
+                buffer.position(start + (mTileRegion.top + y) * rowBytes
+                        + mTileRegion.left * pixelBytes);
+                buffer.put(tileBytes, y * tileRowBytes, mTileRegion.width() * pixelBytes);
+            }
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Called on the UI thread before drawing on the given region of a layer, to copy out the
+     * tiles of that region the snapshot still needs.
+     */
+    synchronized void beforeDraw(DrawingLayer layer, Rect region) {
+        final int index = indexOfSource(layer, layer.mBitmap);
+        if (index < 0) {
+            return;
+        }
+        final int firstColumn = Math.max(0, region.left / TILE_SIZE);
+        final int lastColumn = Math.min(mColumns - 1, (region.right - 1) / TILE_SIZE);
+        final int firstRow = Math.max(0, region.top / TILE_SIZE);
+        final int lastRow = Math.min(mRows - 1, (region.bottom - 1) / TILE_SIZE);
+        final Bitmap[] copiedTiles = mCopiedTiles[index];
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int tile = row * mColumns + column;
+                if (mIsRendered[tile] || copiedTiles[tile] != null) {
+                    continue;
+                }
+                computeTileRegion(column, row, mTileRegion);
+                copiedTiles[tile] = Bitmap.createBitmap(mSources[index], mTileRegion.left,
+                        mTileRegion.top, mTileRegion.width(), mTileRegion.height());
+            }
+        }
+    }
+
+    /**
+     * @return true if the snapshot still reads the current pixel buffer of the given layer, in
+     * which case the buffer must be handed over rather than erased or recycled.
+     */
+    synchronized boolean holdsPixelsOf(DrawingLayer layer) {
+        return indexOfSource(layer, layer.mBitmap) >= 0;
+    }
+
+    /**
+     * @return true if the given tile of the layer was copied out of its buffer, as opposed to
+     * still being read from it.
+     */
+    synchronized boolean isTileCopied(DrawingLayer layer, int column, int row) {
+        final int index = indexOfSource(layer, layer.mBitmap);
+        return index >= 0 && mCopiedTiles[index][row * mColumns + column] != null;
+    }
+
+    /**
+     * @return true if the snapshot still reads the given buffer, which the layer no longer uses,
+     * in which case it must not be recycled.
+     */
+    synchronized boolean holdsPixels(DrawingLayer layer, Bitmap pixels) {
+        return indexOfSource(layer, pixels) >= 0;
+    }
+
+    private int indexOfSource(DrawingLayer layer, Bitmap pixels) {
+        if (mIsReleased) {
+            return -1;
+        }
+        for (int i = 0; i < mLayers.length; i++) {
+            if (mLayers[i] == layer && mSources[i] == pixels) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Composites the snapshot, paper and background image included, into a new bitmap. May be
+     * called on any thread, typically a background one, while the user keeps drawing.
+     */
+    public Bitmap render() {
+        final Bitmap image = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(image);
+        final Rect tileRegion = new Rect();
+        for (int row = 0; row < mRows; row++) {
+            for (int column = 0; column < mColumns; column++) {
+                final int tile = row * mColumns + column;
+                computeTileRegion(column, row, tileRegion);
+                canvas.save();
+                canvas.clipRect(tileRegion);
+                canvas.drawColor(LayerStack.PAPER_COLOR);
+                if (mBackground != null) {
+                    // the background image never changes, no need to hold the lock.
+                    mBackground.drawDecoded(canvas, tileRegion);
+                }
+                renderLayers(canvas, tile, tileRegion);
+                canvas.restore();
+            }
+        }
+        return image;
+    }
+
+    private synchronized void renderLayers(Canvas canvas, int tile, Rect tileRegion) {
+        if (mIsReleased) {
+            throw new IllegalStateException("Snapshot already released");
+        }
+        for (int i = 0; i < mLayers.length; i++) {
+            if (!mIsVisible[i]) {
+                continue;
+            }
+            final Bitmap copiedTile = mCopiedTiles[i][tile];
+            if (copiedTile != null) {
+                canvas.drawBitmap(copiedTile, tileRegion.left, tileRegion.top, mPaints[i]);
+                copiedTile.recycle();
+                mCopiedTiles[i][tile] = null;
+            } else {
+                canvas.drawBitmap(mSources[i], tileRegion, tileRegion, mPaints[i]);
+            }
+        }
+        mIsRendered[tile] = true;
+    }
+
+    private void computeTileRegion(int column, int row, Rect outRegion) {
+        outRegion.set(column * TILE_SIZE, row * TILE_SIZE,
+                Math.min((column + 1) * TILE_SIZE, mWidth),
+                Math.min((row + 1) * TILE_SIZE, mHeight));
+    }
+
+    /**
+     * Frees whatever the snapshot copied or was handed over. May be called on any thread.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mIsReleased) {
+                return;
+            }
+            mIsReleased = true;
+            for (Bitmap[] copiedTiles : mCopiedTiles) {
+                for (Bitmap copiedTile : copiedTiles) {
+                    if (copiedTile != null) {
+                        copiedTile.recycle();
+                    }
+                }
+            }
+            // buffers handed over by erased or removed layers are left to the garbage collector,
+            // they may be shared with other snapshots.
+            mCopiedTiles = null;
+            mSources = null;
+        }
+        if (mBackground != null) {
+            mBackground.release();
+            mBackground = null;
+        }
+        mOwner.onSnapshotReleased(this);
+    }
+}
@@ -0,0 +1,480 @@
+package com.example.project.drawingboard.models;
+
+import com.example.project.drawingboard.BuildConfig;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * The drawings open at once, of which one, the current document, is shown on the canvas.
+ *
+ * Documents are kept in most recently used order. The most recently used ones stay in memory,
+ * as long as together they fit in a memory budget. Less recently used ones are spilled: their
+ * layers and stroke history are written to files in a cache directory and dropped from memory,
+ * to be read back when they are switched to. The current document is never spilled, whatever
+ * its size.
+ *
+ * Each spilled document has two files named after its id: a {@link CanvasSnapshot} of its
+ * layers, and its stroke history, laid out, big endian:
+ * <pre>
+ *   i32 magic "DBST", i32 version
+ *   i32 count, count x i32 id of a layer with pixels the history does not describe
+ *   the history, as written by {@link StrokeHistory#writeTo(DataOutputStream)}
+ * </pre>
+ * Spill files are written in the background, from copy-on-write snapshots of the layers, and
+ * deleted in the background too, all on the serial executor of {@link AsyncTask}: a read or a
+ * delete asked for after a write always sees it done.
+ *
+ * Spilled documents left over from a previous session are listed again when the workspace is
+ * opened. Files of theirs whose writing was cut short are deleted then.
+ */
+public class DrawingWorkspace {
+
+    private static final String LOG_TAG = DrawingWorkspace.class.getSimpleName();
+
+    public static final String SPILL_DIRECTORY_NAME = "documents";
+
+    static final int HISTORY_MAGIC = 0x44425354;
+    static final int HISTORY_VERSION = 1;
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String HISTORY_SUFFIX = ".strokes";
+    private static final int HISTORY_BUFFER_SIZE = 64 * 1024;
+
+    // resident documents may take up to this share of the heap of the app.
+    private static final int MEMORY_BUDGET_DIVISOR = 3;
+
+    // most recently used first, so the current document first of all.
+    private final ArrayList<DrawingDocument> mDocuments = new ArrayList<DrawingDocument>();
+    private int mNextId = 0;
+
+    // null until opened, nothing is spilled until then.
+    private File mSpillDirectory;
+    private long mMemoryBudget = Long.MAX_VALUE;
+
+    /**
+     * The content of a spilled document, as read back from its files.
+     */
+    static class SpilledContent {
+        // null if the document had no layers yet.
+        final CanvasSnapshot mSnapshot;
+        final StrokeHistory mHistory;
+
+        SpilledContent(CanvasSnapshot snapshot, StrokeHistory history) {
+            mSnapshot = snapshot;
+            mHistory = history;
+        }
+    }
+
+    /**
+     * Creates a workspace with a single document, made of the given layers and history.
+     */
+    DrawingWorkspace(LayerStack layers, StrokeHistory history) {
+        mDocuments.add(new DrawingDocument(mNextId++, layers, history));
+    }
+
+    /**
+     * @return where documents are spilled to.
+     */
+    public static File getSpillDirectory(Context context) {
+        return new File(context.getCacheDir(), SPILL_DIRECTORY_NAME);
+    }
+
+    /**
+     * @return how many bytes the resident documents may take up on this device.
+     */
+    public static long getMemoryBudget(Context context) {
+        final ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024L * 1024L / MEMORY_BUDGET_DIVISOR;
+    }
+
+    /**
+     * @return true once {@link #open(File, long)} was called.
+     */
+    boolean isOpen() {
+        return mSpillDirectory != null;
+    }
+
+    /**
+     * Starts spilling documents to the given directory once the resident ones outgrow the
+     * budget, and lists the documents spilled there by a previous session, after the current
+     * one.
+     */
+    void open(File spillDirectory, long memoryBudget) {
+        mSpillDirectory = spillDirectory;
+        mMemoryBudget = memoryBudget;
+        if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create folder " + spillDirectory);
+        }
+
+        final File[] files = spillDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // most recently spilled first.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified > rhsModified ? -1 : lhsModified == rhsModified ? 0 : 1;
+            }
+        });
+        final HashSet<String> snapshotNames = new HashSet<String>();
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(SNAPSHOT_SUFFIX)) {
+                snapshotNames.add(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length()));
+            }
+        }
+        final ArrayList<DrawingDocument> spilled = new ArrayList<DrawingDocument>();
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(HISTORY_SUFFIX)) {
+                if (!snapshotNames.contains(
+                        name.substring(0, name.length() - HISTORY_SUFFIX.length()))) {
+                    // its snapshot was never written, or deleted, there is nothing to list.
+                    file.delete();
+                }
+                continue;
+            }
+            if (!name.endsWith(SNAPSHOT_SUFFIX)) {
+                // the partial file of a write the previous session did not get to finish.
+                file.delete();
+                continue;
+            }
+            try {
+                final int id = Integer.parseInt(
+                        name.substring(0, name.length() - SNAPSHOT_SUFFIX.length()));
+                spilled.add(new DrawingDocument(id, null, null));
+                mNextId = Math.max(mNextId, id + 1);
+            } catch (NumberFormatException e) {
+                file.delete();
+            }
+        }
+        // the current document was not spilled, it must not take the id of one that was.
+        getCurrent().mId = mNextId++;
+        mDocuments.addAll(spilled);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Opened with " + spilled.size() + " spilled documents");
+        }
+    }
+
+    public int getDocumentCount() {
+        return mDocuments.size();
+    }
+
+    /**
+     * @param index position of the document, most recently used first.
+     */
+    public DrawingDocument getDocument(int index) {
+        return mDocuments.get(index);
+    }
+
+    public DrawingDocument getCurrent() {
+        return mDocuments.get(0);
+    }
+
+    /**
+     * Adds a new document, with no layers yet, as the least recently used one.
+     */
+    DrawingDocument newDocument() {
+        final DrawingDocument document = new DrawingDocument(mNextId++, new LayerStack(),
+                new StrokeHistory());
+        mDocuments.add(document);
+        return document;
+    }
+
+    /**
+     * Makes the given document the current, and most recently used, one.
+     */
+    void makeCurrent(DrawingDocument document) {
+        // if it is being spilled, it stays in memory all the same.
+        document.mSpillTask = null;
+        // it changes from now on, its spill files are deleted.
+        document.mSaveTask = null;
+        document.mIsSaved = false;
+        mDocuments.remove(document);
+        mDocuments.add(0, document);
+    }
+
+    /**
+     * Spills the least recently used documents, until the resident ones fit in the budget or
+     * only the current one is left. Documents being spilled already do not count.
+     */
+    void trimToBudget() {
+        if (mSpillDirectory == null) {
+            return;
+        }
+        long residentBytes = 0;
+        for (int i = 0; i < mDocuments.size(); i++) {
+            final DrawingDocument document = mDocuments.get(i);
+            if (!document.isSpilling()) {
+                residentBytes += document.getResidentByteCount();
+            }
+        }
+        for (int i = mDocuments.size() - 1; i > 0 && residentBytes > mMemoryBudget; i--) {
+            final DrawingDocument document = mDocuments.get(i);
+            if (!document.isResident() || document.isSpilling()) {
+                continue;
+            }
+            residentBytes -= document.getResidentByteCount();
+            spill(document);
+        }
+    }
+
+    /**
+     * Starts writing the document to its spill files in the background. It is dropped from
+     * memory once written, unless it was made current again meanwhile. If it could not be
+     * written, it stays resident.
+     */
+    void spill(DrawingDocument document) {
+        if (document.mLayers.isEmpty()) {
+            // never shown, so never sized, there is nothing to write.
+            deleteSpillFilesInBackground(document);
+            drop(document);
+            return;
+        }
+        if (document.mIsSaved) {
+            // its spill files are up to date already.
+            drop(document);
+            return;
+        }
+        document.mSpillTask = writeInBackground(document, true);
+    }
+
+    /**
+     * Writes every resident document but the current one to its spill files in the background,
+     * keeping it in memory, so that it outlives the process. Documents saved already, which can
+     * not have changed since they are not current, are skipped. The current document is saved
+     * on its own, see {@link DrawingPathCacheStore#saveSnapshot(File)}.
+     */
+    void saveBackgroundDocuments() {
+        if (mSpillDirectory == null) {
+            return;
+        }
+        for (int i = 1; i < mDocuments.size(); i++) {
+            final DrawingDocument document = mDocuments.get(i);
+            if (!document.isResident() || document.isSpilling() || document.mIsSaved
+                    || document.mSaveTask != null) {
+                continue;
+            }
+            if (document.mLayers.isEmpty()) {
+                deleteSpillFilesInBackground(document);
+                document.mIsSaved = true;
+            } else {
+                document.mSaveTask = writeInBackground(document, false);
+            }
+        }
+    }
+
+    /**
+     * Writes the document as it is now to its spill files, in the background. Drawing on it may
+     * go on meanwhile, the layers are written from a copy-on-write snapshot.
+     *
+     * @param isSpill whether to drop the document from memory once written.
+     */
+    private AsyncTask<Void, Void, Boolean> writeInBackground(final DrawingDocument document,
+                                                           final boolean isSpill) {
+        final LayerStack layers = document.mLayers;
+        final DrawingSnapshot snapshot = layers.createSnapshot();
+        snapshot.setStrokeCount(document.mUserActionCount);
+        snapshot.setVersionedDrawingId(document.getVersionedDrawingId());
+        final StrokeHistory history = document.mHistory;
+        int unrecordedCount = 0;
+        for (int i = 0; i < layers.getLayerCount(); i++) {
+            if (layers.getLayer(i).mHasUnrecordedPixels) {
+                unrecordedCount++;
+            }
+        }
+        final int[] unrecordedLayerIds = new int[unrecordedCount];
+        for (int i = 0, unrecorded = 0; i < layers.getLayerCount(); i++) {
+            if (layers.getLayer(i).mHasUnrecordedPixels) {
+                unrecordedLayerIds[unrecorded++] = layers.getLayer(i).getId();
+            }
+        }
+        final File snapshotFile = getSnapshotFile(document);
+        final File historyFile = getHistoryFile(document);
+        final int id = document.mId;
+
+        final AsyncTask<Void, Void, Boolean> task = new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                try {
+                    final long start = System.nanoTime();
+                    CanvasSnapshot.write(snapshot, snapshotFile);
+                    writeHistory(history, unrecordedLayerIds, historyFile);
+                    if (BuildConfig.DEBUG) {
+                        Log.d(LOG_TAG, "Wrote document " + id + " in "
+                                + (System.nanoTime() - start) / 1000 + "us");
+                    }
+                    return true;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not write document " + id, e);
+                    snapshotFile.delete();
+                    historyFile.delete();
+                    return false;
+                } finally {
+                    snapshot.release();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean isWritten) {
+                if (document.mSaveTask == this) {
+                    document.mSaveTask = null;
+                    document.mIsSaved = isWritten;
+                    return;
+                }
+                if (!isSpill || document.mSpillTask != this) {
+                    // kept in memory, or made current again and its files deleted after these.
+                    return;
+                }
+                document.mSpillTask = null;
+                if (isWritten) {
+                    drop(document);
+                }
+            }
+        };
+        task.execute();
+        return task;
+    }
+
+    private void drop(DrawingDocument document) {
+        document.mLayers.release();
+        document.mLayers = null;
+        document.mHistory = null;
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Spilled document " + document.mId);
+        }
+    }
+
+    /**
+     * Reads back what {@link #spill(DrawingDocument)} wrote. Must not be called on the UI thread.
+     */
+    SpilledContent readSpillFiles(DrawingDocument document) throws IOException {
+        final File snapshotFile = getSnapshotFile(document);
+        final File historyFile = getHistoryFile(document);
+        final CanvasSnapshot snapshot = snapshotFile.exists()
+                ? CanvasSnapshot.read(snapshotFile) : null;
+        if (!historyFile.exists()) {
+            // a blank document, or one whose history was lost.
+            return new SpilledContent(snapshot, new StrokeHistory());
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(historyFile), HISTORY_BUFFER_SIZE));
+            try {
+                if (in.readInt() != HISTORY_MAGIC || in.readInt() != HISTORY_VERSION) {
+                    throw new IOException("Not a stroke history " + historyFile);
+                }
+                final int[] unrecordedLayerIds = new int[in.readInt()];
+                for (int i = 0; i < unrecordedLayerIds.length; i++) {
+                    unrecordedLayerIds[i] = in.readInt();
+                }
+                final StrokeHistory history = StrokeHistory.readFrom(in);
+                if (snapshot != null) {
+                    // the history describes the layers, apart from those noted.
+                    for (int i = 0; i < snapshot.mLayers.size(); i++) {
+                        final DrawingLayer layer = snapshot.mLayers.get(i);
+                        layer.mHasUnrecordedPixels =
+                                contains(unrecordedLayerIds, layer.getId());
+                    }
+                }
+                return new SpilledContent(snapshot, history);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (snapshot != null) {
+                snapshot.recycle();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the spill files of the document, once it is back in memory for good, after any
+     * write of them asked for before.
+     */
+    void deleteSpillFilesInBackground(DrawingDocument document) {
+        if (mSpillDirectory == null) {
+            return;
+        }
+        final File snapshotFile = getSnapshotFile(document);
+        final File historyFile = getHistoryFile(document);
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                snapshotFile.delete();
+                historyFile.delete();
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * Deletes the spill files of the document right away. Must be called on the serial executor
+     * of {@link AsyncTask}, e.g. once reading them failed.
+     */
+    void deleteSpillFiles(DrawingDocument document) {
+        if (mSpillDirectory != null) {
+            getSnapshotFile(document).delete();
+            getHistoryFile(document).delete();
+        }
+    }
+
+    private static void writeHistory(StrokeHistory history, int[] unrecordedLayerIds,
+                                     File historyFile) throws IOException {
+        final File partial = new File(historyFile.getPath() + ".partial");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(partial), HISTORY_BUFFER_SIZE));
+        try {
+            out.writeInt(HISTORY_MAGIC);
+            out.writeInt(HISTORY_VERSION);
+            out.writeInt(unrecordedLayerIds.length);
+            for (int i = 0; i < unrecordedLayerIds.length; i++) {
+                out.writeInt(unrecordedLayerIds[i]);
+            }
+            history.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!partial.renameTo(historyFile)) {
+            throw new IOException("Could not replace " + historyFile);
+        }
+    }
+
+    private File getSnapshotFile(DrawingDocument document) {
+        return new File(mSpillDirectory, document.mId + SNAPSHOT_SUFFIX);
+    }
+
+    private File getHistoryFile(DrawingDocument document) {
+        return new File(mSpillDirectory, document.mId + HISTORY_SUFFIX);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
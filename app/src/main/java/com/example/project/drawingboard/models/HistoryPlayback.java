@@ -0,0 +1,182 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+
+/**
+ * Replays a recorded stroke history, in the order and at the pace it was drawn, on to a private
+ * set of layers mirroring the ones of the drawing.
+ *
+ * Playback is incremental: advancing the playback clock only renders the strokes drawn since the
+ * previous position, so the cost of a frame does not grow with the length of the history.
+ *
+ * A playback instance is not thread safe, but it does not touch the live drawing either, so it
+ * can be driven from a background thread. Its layers are only allocated by {@link #prepare()},
+ * which is best called off the UI thread.
+ */
+public class HistoryPlayback {
+
+    // Pauses between two strokes longer than this are shortened to it in the playback, so that
+    // the time-lapse does not idle while the user was thinking.
+    private static final long MAX_IDLE_MILLIS = 500;
+
+    private final StrokeHistory mStrokes;
+    // index of the layer, in mStage, each stroke goes to. -1 if that layer no longer exists.
+    private final int[] mStrokeLayers;
+    // time, on the playback clock, at which each stroke appears.
+    private final long[] mPlaybackTimes;
+
+    // the layers of the drawing, as of the creation of the playback, until they are allocated.
+    private final int mWidth, mHeight;
+    private final int mActiveIndex;
+    private final int[] mLayerIds;
+    private final int[] mOpacities;
+    private final boolean[] mIsVisible;
+    private final PorterDuff.Mode[] mBlendModes;
+
+    // null until prepared.
+    private LayerStack mStage;
+    private int mNextStroke = 0;
+
+    private final Path mStrokePath = new Path();
+    private final Paint mStrokePaint = new Paint();
+    private final RectF mStrokeBounds = new RectF();
+    private final Rect mStrokeRegion = new Rect();
+
+    HistoryPlayback(StrokeHistory strokes, LayerStack sourceLayers) {
+        mStrokes = strokes;
+        final int strokeCount = strokes.size();
+        mStrokeLayers = new int[strokeCount];
+        mPlaybackTimes = new long[strokeCount];
+
+        long playbackTime = 0;
+        for (int i = 0; i < strokeCount; i++) {
+            mStrokeLayers[i] = indexOfLayer(sourceLayers, strokes.getLayerId(i));
+            if (i > 0) {
+                playbackTime += Math.min(MAX_IDLE_MILLIS,
+                        strokes.getTimestamp(i) - strokes.getTimestamp(i - 1));
+            }
+            mPlaybackTimes[i] = playbackTime;
+        }
+
+        mWidth = sourceLayers.getWidth();
+        mHeight = sourceLayers.getHeight();
+        mActiveIndex = sourceLayers.getActiveLayerIndex();
+        final int layerCount = sourceLayers.getLayerCount();
+        mLayerIds = new int[layerCount];
+        mOpacities = new int[layerCount];
+        mIsVisible = new boolean[layerCount];
+        mBlendModes = new PorterDuff.Mode[layerCount];
+        for (int i = 0; i < layerCount; i++) {
+            final DrawingLayer layer = sourceLayers.getLayer(i);
+            mLayerIds[i] = layer.getId();
+            mOpacities[i] = layer.getOpacity();
+            mIsVisible[i] = layer.isVisible();
+            mBlendModes[i] = layer.getBlendMode();
+        }
+        StrokeHistory.applyStrokeStyle(mStrokePaint);
+    }
+
+    /**
+     * Allocates the empty layers the strokes are replayed on, one per layer of the drawing, if
+     * not done yet. May be called on any thread, {@link #advanceTo(long)} and
+     * {@link #draw(Canvas)} call it otherwise.
+     */
+    public void prepare() {
+        if (mStage != null) {
+            return;
+        }
+        final ArrayList<DrawingLayer> layers = new ArrayList<DrawingLayer>();
+        for (int i = 0; i < mLayerIds.length; i++) {
+            final DrawingLayer layer = new DrawingLayer(mLayerIds[i], mWidth, mHeight);
+            layer.setOpacity(mOpacities[i]);
+            layer.setVisible(mIsVisible[i]);
+            layer.setBlendMode(mBlendModes[i]);
+            layers.add(layer);
+        }
+        mStage = new LayerStack();
+        mStage.setLayers(mWidth, mHeight, layers, mActiveIndex);
+    }
+
+    private static int indexOfLayer(LayerStack layers, int layerId) {
+        for (int i = 0; i < layers.getLayerCount(); i++) {
+            if (layers.getLayer(i).getId() == layerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the time, on the playback clock, at which the last stroke appears.
+     */
+    public long getDuration() {
+        return mPlaybackTimes.length == 0 ? 0 : mPlaybackTimes[mPlaybackTimes.length - 1];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return true once every stroke of the history has been rendered.
+     */
+    public boolean isFinished() {
+        return mNextStroke >= mPlaybackTimes.length;
+    }
+
+    /**
+     * Renders every stroke that appears up to the given time on the playback clock, which
+     * starts at zero with the first stroke. Strokes rendered by earlier calls are not rendered
+     * again.
+     *
+     * @return the number of strokes rendered by this call.
+     */
+    public int advanceTo(long playbackMillis) {
+        prepare();
+        int rendered = 0;
+        while (mNextStroke < mPlaybackTimes.length
+                && mPlaybackTimes[mNextStroke] <= playbackMillis) {
+            final int layerIndex = mStrokeLayers[mNextStroke];
+            if (layerIndex >= 0) {
+                final DrawingLayer layer = mStage.getLayer(layerIndex);
+                mStrokes.buildPath(mNextStroke, mStrokePath);
+                mStrokes.applyPaint(mNextStroke, mStrokePaint);
+                layer.mCanvas.drawPath(mStrokePath, mStrokePaint);
+                StrokeHistory.computeRegion(mStrokePath, mStrokePaint, mStrokeBounds,
+                        mStrokeRegion);
+                mStage.markDirty(layer, mStrokeRegion);
+                rendered++;
+            }
+            mNextStroke++;
+        }
+        return rendered;
+    }
+
+    /**
+     * Draws the playback, as of its current position, on to the given canvas.
+     */
+    public void draw(Canvas canvas) {
+        prepare();
+        mStage.draw(canvas);
+    }
+
+    /**
+     * Frees the buffers held by this playback, it can not be used afterwards.
+     */
+    public void release() {
+        if (mStage != null) {
+            mStage.release();
+        }
+    }
+}
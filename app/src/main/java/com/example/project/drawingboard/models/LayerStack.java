@@ -0,0 +1,725 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An ordered stack of {@link DrawingLayer}s, bottom first.
+ *
+ * Rendering the stack every frame would cost one blit per layer. Instead, the stack keeps two
+ * cached composites: one of the paper and every layer below the active layer, and one of every
+ * layer above it. A frame then costs the two cached composites plus a single blit of the active
+ * layer, which is the only one that changes while the user is drawing.
+ *
+ * Each composite carries its own dirty region. Drawing on, or changing the properties of, a
+ * non-active layer only invalidates the bounds it touched in the composite that layer belongs to,
+ * and only that region is recomposited the next time the stack is drawn.
+ *
+ * How many bytes each layer takes per pixel depends on the storage mode of the stack, see
+ * {@link #setStorageMode(int)}.
+ */
+public class LayerStack {
+
+    // Color of the paper all layers are drawn upon.
+    public static final int PAPER_COLOR = Color.WHITE;
+
+    /**
+     * Storage mode keeping each layer in {@link Bitmap.Config#ALPHA_8} for as long as it holds
+     * a single color, then the bottom layer in dithered {@link Bitmap.Config#RGB_565} when
+     * there is no background image, and any other layer in {@link Bitmap.Config#ARGB_8888}. A
+     * layer an image is drawn on is always kept in {@link Bitmap.Config#ARGB_8888}.
+     */
+    public static final int STORAGE_AUTO = 0;
+    /**
+     * Storage mode keeping every layer in {@link Bitmap.Config#ARGB_8888}.
+     */
+    public static final int STORAGE_FULL_COLOR = 1;
+    /**
+     * Storage mode keeping the bottom layer in dithered {@link Bitmap.Config#RGB_565} when there
+     * is no background image, and any other layer in {@link Bitmap.Config#ARGB_8888}.
+     */
+    public static final int STORAGE_REDUCED_COLOR = 2;
+    /**
+     * Storage mode keeping each layer in {@link Bitmap.Config#ALPHA_8} for as long as it holds
+     * a single color, then in {@link Bitmap.Config#ARGB_8888}.
+     */
+    public static final int STORAGE_SINGLE_COLOR = 3;
+
+    private final ArrayList<DrawingLayer> mLayers = new ArrayList<DrawingLayer>();
+    private int mActiveIndex = 0;
+    private int mNextLayerId = 0;
+    private int mStorageMode = STORAGE_AUTO;
+
+    private int mWidth;
+    private int mHeight;
+
+    // optional image between the paper and the layers.
+    private BackgroundImageLayer mBackground;
+
+    // strokes lifted off the active layer, shown over it until they are put back.
+    private StrokeSelection mSelection;
+
+    // paper + background + layers [0, mActiveIndex)
+    private Bitmap mBelowComposite;
+    private Canvas mBelowCanvas;
+    private final Rect mBelowDirty = new Rect();
+
+    // layers (mActiveIndex, size), on transparency.
+    private Bitmap mAboveComposite;
+    private Canvas mAboveCanvas;
+    private final Rect mAboveDirty = new Rect();
+
+    // snapshots not released yet, released from any thread.
+    private final CopyOnWriteArrayList<DrawingSnapshot> mSnapshots =
+            new CopyOnWriteArrayList<DrawingSnapshot>();
+
+    // converts layers from one storage to another.
+    private final Paint mConvertPaint = new Paint(Paint.DITHER_FLAG);
+    private int[] mConvertRow;
+
+    /**
+     * Allocates the buffers for the stack, with a single empty layer, if this has not been done
+     * already. Buffers allocated already, e.g. restored from a snapshot of a view in the other
+     * orientation, are grown to cover the given size if they do not, and never cropped, so
+     * nothing drawn is lost.
+     *
+     * @return true if the buffers were allocated by this call.
+     */
+    public boolean ensureSize(int width, int height) {
+        if (!mLayers.isEmpty()) {
+            if (width > mWidth || height > mHeight) {
+                grow(Math.max(width, mWidth), Math.max(height, mHeight));
+            }
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        mLayers.add(new DrawingLayer(mNextLayerId++, width, height, chooseStorage(0, true)));
+        mActiveIndex = 0;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return mLayers.isEmpty();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getLayerCount() {
+        return mLayers.size();
+    }
+
+    public DrawingLayer getLayer(int index) {
+        return mLayers.get(index);
+    }
+
+    public int indexOf(DrawingLayer layer) {
+        return mLayers.indexOf(layer);
+    }
+
+    public int getActiveLayerIndex() {
+        return mActiveIndex;
+    }
+
+    public DrawingLayer getActiveLayer() {
+        return mLayers.get(mActiveIndex);
+    }
+
+    public BackgroundImageLayer getBackground() {
+        return mBackground;
+    }
+
+    /**
+     * Shows the given image between the paper and the layers, replacing and releasing the
+     * current one, if any.
+     *
+     * @param background the image, null to remove the current one.
+     */
+    public void setBackground(BackgroundImageLayer background) {
+        if (mBackground != null) {
+            mBackground.mOwner = null;
+            mBackground.release();
+        }
+        mBackground = background;
+        if (background != null) {
+            background.mOwner = this;
+        }
+        // an opaque bottom layer would hide the background.
+        applyStorageMode();
+        mBelowDirty.set(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Called by the background image when a region of it changed, e.g. a tile finished decoding.
+     */
+    void invalidateBackground(Rect region) {
+        // when the first layer is active, the background is drawn directly and not cached.
+        mBelowDirty.union(region);
+    }
+
+    /**
+     * Creates a new empty layer right above the active one and makes it the active layer.
+     */
+    public DrawingLayer addLayer() {
+        DrawingLayer layer = new DrawingLayer(mNextLayerId++, mWidth, mHeight,
+                chooseStorage(mActiveIndex + 1, true));
+        mLayers.add(mActiveIndex + 1, layer);
+        setActiveLayer(mActiveIndex + 1);
+        return layer;
+    }
+
+    /**
+     * Removes the layer at the given index, along with its pixels. The last remaining layer
+     * can not be removed.
+     *
+     * @return true if the layer was removed.
+     */
+    public boolean removeLayer(int index) {
+        if (mLayers.size() <= 1) {
+            return false;
+        }
+        DrawingLayer removed = mLayers.remove(index);
+        if (index < mActiveIndex) {
+            mActiveIndex--;
+            mBelowDirty.union(removed.mContentBounds);
+        } else if (index > mActiveIndex) {
+            mAboveDirty.union(removed.mContentBounds);
+        } else {
+            mActiveIndex = Math.max(0, index - 1);
+            invalidateAll();
+        }
+        discardLayer(removed);
+        if (index == 0) {
+            // another layer is now at the bottom.
+            applyStorageMode();
+        }
+        return true;
+    }
+
+    /**
+     * Switches the layer that subsequent drawing goes to. This changes which layers fall in the
+     * below and above composites, so both are rebuilt on the next draw.
+     */
+    public void setActiveLayer(int index) {
+        if (index < 0 || index >= mLayers.size()) {
+            throw new IndexOutOfBoundsException("No layer at " + index);
+        }
+        if (index != mActiveIndex) {
+            mActiveIndex = index;
+            invalidateAll();
+        }
+    }
+
+    public void setLayerOpacity(int index, int opacity) {
+        DrawingLayer layer = mLayers.get(index);
+        if (layer.getOpacity() != opacity) {
+            layer.setOpacity(opacity);
+            invalidateLayerContent(index);
+        }
+    }
+
+    public void setLayerVisible(int index, boolean isVisible) {
+        DrawingLayer layer = mLayers.get(index);
+        if (layer.isVisible() != isVisible) {
+            layer.setVisible(isVisible);
+            invalidateLayerContent(index);
+        }
+    }
+
+    public void setLayerBlendMode(int index, PorterDuff.Mode blendMode) {
+        DrawingLayer layer = mLayers.get(index);
+        if (layer.getBlendMode() != blendMode) {
+            layer.setBlendMode(blendMode);
+            invalidateLayerContent(index);
+        }
+    }
+
+    /**
+     * @return the storage mode of the layers, one of the STORAGE_ constants.
+     */
+    public int getStorageMode() {
+        return mStorageMode;
+    }
+
+    /**
+     * Switches how the layers store their pixels, converting the layers that need it. Automatic
+     * by default.
+     *
+     * @param storageMode one of {@link #STORAGE_AUTO}, {@link #STORAGE_FULL_COLOR},
+     * {@link #STORAGE_REDUCED_COLOR} or {@link #STORAGE_SINGLE_COLOR}.
+     */
+    public void setStorageMode(int storageMode) {
+        if (storageMode < STORAGE_AUTO || storageMode > STORAGE_SINGLE_COLOR) {
+            throw new IllegalArgumentException("Unknown storage mode " + storageMode);
+        }
+        mStorageMode = storageMode;
+        applyStorageMode();
+    }
+
+    /**
+     * Must be called before drawing with the given color on a layer, and before
+     * {@link #beforeDraw(DrawingLayer, Rect)}, so that a single color layer can be converted to
+     * one that holds more colors.
+     */
+    public void prepareToDraw(DrawingLayer layer, int color) {
+        if (!layer.acceptColor(color)) {
+            convertLayer(layer, chooseStorage(mLayers.indexOf(layer), false));
+        }
+    }
+
+    /**
+     * Must be called before drawing an image on a layer, and before
+     * {@link #beforeDraw(DrawingLayer, Rect)}, so that a single color layer can be converted to
+     * one that holds any color.
+     */
+    public void prepareToDrawImage(DrawingLayer layer) {
+        final Bitmap.Config storage = chooseImageStorage(mLayers.indexOf(layer));
+        if (layer.getStorageConfig() != storage) {
+            convertLayer(layer, storage);
+        }
+    }
+
+    /**
+     * Shows the sprite of the given selection over the active layer, in place of the strokes it
+     * lifted off that layer.
+     *
+     * @param selection the selection, null to stop showing one.
+     */
+    void setSelection(StrokeSelection selection) {
+        mSelection = selection;
+    }
+
+    /**
+     * Must be called before drawing on a layer, so that open snapshots get to keep a copy of the
+     * region about to change.
+     */
+    public void beforeDraw(DrawingLayer layer, Rect region) {
+        if (mSnapshots.isEmpty()) {
+            return;
+        }
+        for (DrawingSnapshot snapshot : mSnapshots) {
+            snapshot.beforeDraw(layer, region);
+        }
+    }
+
+    /**
+     * Takes a copy-on-write snapshot of the layers and background as they are now. The caller
+     * must release it.
+     */
+    public DrawingSnapshot createSnapshot() {
+        DrawingSnapshot snapshot = new DrawingSnapshot(this);
+        mSnapshots.add(snapshot);
+        return snapshot;
+    }
+
+    void onSnapshotReleased(DrawingSnapshot snapshot) {
+        mSnapshots.remove(snapshot);
+    }
+
+    /**
+     * Must be called after drawing on a layer, so that the composite it belongs to is refreshed
+     * for the touched region.
+     */
+    public void markDirty(DrawingLayer layer, Rect region) {
+        layer.includeInContent(region);
+        final int index = mLayers.indexOf(layer);
+        if (index < 0 || index == mActiveIndex) {
+            // the active layer is always blitted directly.
+            return;
+        }
+        if (index < mActiveIndex) {
+            mBelowDirty.union(region);
+        } else {
+            mAboveDirty.union(region);
+        }
+    }
+
+    /**
+     * Draws the whole stack, including the paper, on to the given canvas.
+     */
+    public void draw(Canvas canvas) {
+        draw(canvas, null, null);
+    }
+
+    /**
+     * Draws the whole stack, including the paper, on to the given canvas, with a stroke that is
+     * still being drawn shown on top of the active layer, below the layers above it.
+     *
+     * @param liveStroke the stroke, or null if there is none.
+     * @param livePaint the paint of the stroke, with the opacity of the active layer applied.
+     */
+    public void draw(Canvas canvas, Path liveStroke, Paint livePaint) {
+        if (mLayers.isEmpty()) {
+            return;
+        }
+
+        if (mActiveIndex > 0) {
+            refreshBelowComposite();
+            canvas.drawBitmap(mBelowComposite, 0, 0, null);
+        } else {
+            canvas.drawColor(PAPER_COLOR);
+            if (mBackground != null) {
+                mBackground.draw(canvas);
+            }
+        }
+
+        DrawingLayer active = mLayers.get(mActiveIndex);
+        if (active.isVisible()) {
+            canvas.drawBitmap(active.mBitmap, 0, 0, active.mCompositePaint);
+            if (mSelection != null) {
+                mSelection.draw(canvas);
+            }
+            if (liveStroke != null) {
+                canvas.drawPath(liveStroke, livePaint);
+            }
+        }
+
+        if (mActiveIndex < mLayers.size() - 1) {
+            if (isAboveCompositeUsable()) {
+                refreshAboveComposite();
+                canvas.drawBitmap(mAboveComposite, 0, 0, null);
+            } else {
+                // A non-normal blend mode depends on the pixels underneath, which the above
+                // composite does not have, so these layers have to be blitted one by one.
+                drawLayers(canvas, mActiveIndex + 1, mLayers.size());
+            }
+        }
+    }
+
+    /**
+     * Erases every layer, keeping the layers and their properties.
+     */
+    public void clear() {
+        for (int i = 0; i < mLayers.size(); i++) {
+            final DrawingLayer layer = mLayers.get(i);
+            final Bitmap.Config storage = chooseStorage(i, true);
+            if (storage != layer.getStorageConfig() || isHeldBySnapshot(layer)) {
+                // cheaper than copying out every tile the snapshot has not read yet.
+                final Bitmap pixels = layer.mBitmap;
+                layer.replacePixels(storage);
+                releasePixels(layer, pixels);
+            } else {
+                layer.clear();
+            }
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Frees every buffer held by this stack. The stack is empty afterwards.
+     */
+    public void release() {
+        setBackground(null);
+        releaseLayers();
+    }
+
+    /**
+     * Replaces the layers of this stack, e.g. with layers restored from a snapshot, keeping the
+     * background image. The current layers are freed.
+     */
+    void setLayers(int width, int height, ArrayList<DrawingLayer> layers, int activeIndex) {
+        releaseLayers();
+        mWidth = width;
+        mHeight = height;
+        mLayers.addAll(layers);
+        mActiveIndex = activeIndex;
+        for (int i = 0; i < layers.size(); i++) {
+            mNextLayerId = Math.max(mNextLayerId, layers.get(i).getId() + 1);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * @return how many bytes the pixels of the layers and of the cached composites take up.
+     */
+    public long getByteCount() {
+        long byteCount = 0;
+        for (int i = 0; i < mLayers.size(); i++) {
+            byteCount += mLayers.get(i).mBitmap.getByteCount();
+        }
+        if (mBelowComposite != null) {
+            byteCount += mBelowComposite.getByteCount();
+        }
+        if (mAboveComposite != null) {
+            byteCount += mAboveComposite.getByteCount();
+        }
+        return byteCount;
+    }
+
+    /**
+     * @return true if nothing was ever drawn on any layer.
+     */
+    public boolean isBlank() {
+        for (int i = 0; i < mLayers.size(); i++) {
+            if (!mLayers.get(i).mContentBounds.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void releaseLayers() {
+        for (int i = 0; i < mLayers.size(); i++) {
+            discardLayer(mLayers.get(i));
+        }
+        mLayers.clear();
+        mActiveIndex = 0;
+        if (mBelowComposite != null) {
+            mBelowComposite.recycle();
+            mBelowComposite = null;
+            mBelowCanvas = null;
+        }
+        if (mAboveComposite != null) {
+            mAboveComposite.recycle();
+            mAboveComposite = null;
+            mAboveCanvas = null;
+        }
+    }
+
+    /**
+     * Moves every layer to a larger buffer, keeping its pixels at the top left corner.
+     */
+    private void grow(int width, int height) {
+        for (int i = 0; i < mLayers.size(); i++) {
+            final DrawingLayer layer = mLayers.get(i);
+            final Bitmap source = layer.mBitmap;
+            final Bitmap grown = DrawingLayer.createPixels(width, height, source.getConfig());
+            new Canvas(grown).drawBitmap(source, 0, 0, null);
+            layer.setPixels(grown);
+            releasePixels(layer, source);
+        }
+        // the composites are allocated again, at the new size, when next drawn.
+        if (mBelowComposite != null) {
+            mBelowComposite.recycle();
+            mBelowComposite = null;
+            mBelowCanvas = null;
+        }
+        if (mAboveComposite != null) {
+            mAboveComposite.recycle();
+            mAboveComposite = null;
+            mAboveCanvas = null;
+        }
+        mWidth = width;
+        mHeight = height;
+        invalidateAll();
+    }
+
+    /**
+     * @param isSingleColor whether everything drawn on the layer is of a single color.
+     * @return how the layer at the given index should store its pixels.
+     */
+    private Bitmap.Config chooseStorage(int index, boolean isSingleColor) {
+        // the bottom layer can bake the paper in, unless there is an image in between.
+        final boolean canBeOpaque = index == 0 && mBackground == null;
+        switch (mStorageMode) {
+            case STORAGE_FULL_COLOR:
+                return Bitmap.Config.ARGB_8888;
+            case STORAGE_REDUCED_COLOR:
+                return canBeOpaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            default:
+                if (isSingleColor) {
+                    return Bitmap.Config.ALPHA_8;
+                }
+                return mStorageMode == STORAGE_AUTO && canBeOpaque
+                        ? Bitmap.Config.RGB_565
+                        : Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    /**
+     * @return how the layer at the given index should store its pixels once an image is drawn
+     * on it.
+     */
+    private Bitmap.Config chooseImageStorage(int index) {
+        // dithering would alter the pixels of the image, so that a saved version opened again
+        // no longer matches the tiles it was read from.
+        return mStorageMode == STORAGE_AUTO
+                ? Bitmap.Config.ARGB_8888
+                : chooseStorage(index, false);
+    }
+
+    /**
+     * Converts every layer not stored the way the storage mode wants it to be.
+     */
+    private void applyStorageMode() {
+        for (int i = 0; i < mLayers.size(); i++) {
+            final DrawingLayer layer = mLayers.get(i);
+            // only an empty layer is known to hold a single color, unless already stored so.
+            final boolean isSingleColor = layer.isEmpty()
+                    || layer.getStorageConfig() == Bitmap.Config.ALPHA_8;
+            // a layer an image was drawn on stays in full color, a restored one is left as is.
+            final boolean holdsImage = layer.mHasUnrecordedPixels
+                    && layer.getStorageConfig() == Bitmap.Config.ARGB_8888;
+            final Bitmap.Config storage = holdsImage
+                    ? chooseImageStorage(i)
+                    : chooseStorage(i, isSingleColor);
+            if (storage != layer.getStorageConfig()) {
+                convertLayer(layer, storage);
+            }
+        }
+    }
+
+    /**
+     * Redraws the pixels of the layer into a new buffer of the given configuration.
+     */
+    private void convertLayer(DrawingLayer layer, Bitmap.Config storage) {
+        final Bitmap source = layer.mBitmap;
+        final Bitmap.Config sourceStorage = source.getConfig();
+        final Bitmap converted = DrawingLayer.createPixels(mWidth, mHeight, storage);
+        if (layer.isEmpty()) {
+            // nothing to carry over.
+        } else if (sourceStorage == Bitmap.Config.RGB_565) {
+            unblendPaper(source, converted);
+        } else if (storage != Bitmap.Config.ALPHA_8) {
+            // coverage is drawn in the tint, color is dithered down to RGB_565 if need be.
+            mConvertPaint.setColor(sourceStorage == Bitmap.Config.ALPHA_8
+                    ? layer.getTint()
+                    : Color.BLACK);
+            new Canvas(converted).drawBitmap(source, 0, 0, mConvertPaint);
+        } else {
+            throw new IllegalStateException("Can not convert a drawn upon layer to ALPHA_8");
+        }
+        layer.setPixels(converted);
+        releasePixels(layer, source);
+        invalidateLayerContent(mLayers.indexOf(layer));
+    }
+
+    /**
+     * Takes the paper back out of opaque pixels: each pixel becomes the most transparent color
+     * that, drawn on the paper, gives the same color. Assumes white paper.
+     */
+    private void unblendPaper(Bitmap source, Bitmap target) {
+        if (mConvertRow == null || mConvertRow.length < mWidth) {
+            mConvertRow = new int[mWidth];
+        }
+        final int[] row = mConvertRow;
+        for (int y = 0; y < mHeight; y++) {
+            source.getPixels(row, 0, mWidth, 0, y, mWidth, 1);
+            for (int x = 0; x < mWidth; x++) {
+                final int red = Color.red(row[x]);
+                final int green = Color.green(row[x]);
+                final int blue = Color.blue(row[x]);
+                final int alpha = 255 - Math.min(red, Math.min(green, blue));
+                row[x] = alpha == 0
+                        ? Color.TRANSPARENT
+                        : Color.argb(alpha,
+                                255 - (255 - red) * 255 / alpha,
+                                255 - (255 - green) * 255 / alpha,
+                                255 - (255 - blue) * 255 / alpha);
+            }
+            target.setPixels(row, 0, mWidth, 0, y, mWidth, 1);
+        }
+    }
+
+    /**
+     * Frees a buffer the layer no longer uses, unless a snapshot still reads it.
+     */
+    private void releasePixels(DrawingLayer layer, Bitmap pixels) {
+        for (DrawingSnapshot snapshot : mSnapshots) {
+            if (snapshot.holdsPixels(layer, pixels)) {
+                return;
+            }
+        }
+        pixels.recycle();
+    }
+
+    private boolean isHeldBySnapshot(DrawingLayer layer) {
+        for (DrawingSnapshot snapshot : mSnapshots) {
+            if (snapshot.holdsPixelsOf(layer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void discardLayer(DrawingLayer layer) {
+        if (isHeldBySnapshot(layer)) {
+            layer.detachPixels();
+        } else {
+            layer.recycle();
+        }
+    }
+
+    private boolean isAboveCompositeUsable() {
+        for (int i = mActiveIndex + 1; i < mLayers.size(); i++) {
+            if (!mLayers.get(i).isNormalBlend()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void refreshBelowComposite() {
+        if (mBelowComposite == null) {
+            mBelowComposite = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mBelowCanvas = new Canvas(mBelowComposite);
+            mBelowDirty.set(0, 0, mWidth, mHeight);
+        }
+        if (mBelowDirty.isEmpty()) {
+            return;
+        }
+        mBelowCanvas.save();
+        mBelowCanvas.clipRect(mBelowDirty);
+        mBelowCanvas.drawColor(PAPER_COLOR);
+        if (mBackground != null) {
+            mBackground.draw(mBelowCanvas);
+        }
+        drawLayers(mBelowCanvas, 0, mActiveIndex);
+        mBelowCanvas.restore();
+        mBelowDirty.setEmpty();
+    }
+
+    private void refreshAboveComposite() {
+        if (mAboveComposite == null) {
+            mAboveComposite = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mAboveCanvas = new Canvas(mAboveComposite);
+            mAboveDirty.set(0, 0, mWidth, mHeight);
+        }
+        if (mAboveDirty.isEmpty()) {
+            return;
+        }
+        mAboveCanvas.save();
+        mAboveCanvas.clipRect(mAboveDirty);
+        mAboveCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        drawLayers(mAboveCanvas, mActiveIndex + 1, mLayers.size());
+        mAboveCanvas.restore();
+        mAboveDirty.setEmpty();
+    }
+
+    private void drawLayers(Canvas target, int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            DrawingLayer layer = mLayers.get(i);
+            if (layer.isVisible()) {
+                target.drawBitmap(layer.mBitmap, 0, 0, layer.mCompositePaint);
+            }
+        }
+    }
+
+    private void invalidateLayerContent(int index) {
+        final Rect content = mLayers.get(index).mContentBounds;
+        if (index < mActiveIndex) {
+            mBelowDirty.union(content);
+        } else if (index > mActiveIndex) {
+            mAboveDirty.union(content);
+        }
+    }
+
+    private void invalidateAll() {
+        mBelowDirty.set(0, 0, mWidth, mHeight);
+        mAboveDirty.set(0, 0, mWidth, mHeight);
+    }
+}
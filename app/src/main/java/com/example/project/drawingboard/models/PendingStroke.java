@@ -0,0 +1,27 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * A stroke drawn on a layer piece by piece while it is still being received, e.g. from a shared
+ * board, and only recorded in the stroke history once it ends.
+ *
+ * The stroke keeps the layer it was started on, which it is drawn on and recorded against even
+ * if another layer is made active meanwhile. It also keeps the path drawn so far, so that
+ * re-rendering a region of its layer from the history, e.g. for a lasso, draws it back.
+ *
+ * See {@link DrawingPathCacheStore#beginPendingStroke(Paint)}.
+ */
+public class PendingStroke {
+
+    final DrawingLayer mLayer;
+    final Paint mPaint;
+    // everything drawn so far.
+    final Path mPath = new Path();
+
+    PendingStroke(DrawingLayer layer, Paint paint) {
+        mLayer = layer;
+        mPaint = paint;
+    }
+}
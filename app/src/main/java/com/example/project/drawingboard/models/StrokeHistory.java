@@ -0,0 +1,353 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The strokes of a drawing, in the order they were drawn.
+ *
+ * Strokes are kept as the touch points they were drawn through, rather than as one {@link Path}
+ * and {@link Paint} object pair each, in a handful of parallel arrays that grow by doubling.
+ * Appending a stroke copies its points into those arrays, so once they have grown to the size of
+ * the drawing, recording a stroke allocates nothing.
+ *
+ * Paths are rebuilt from the points with the same smoothing the canvas applies while the stroke
+ * is drawn, see {@link #buildPath(int, Path)}.
+ *
+ * The history is changed and read on the UI thread. Other threads may only read it stroke by
+ * stroke through {@link #read(int, StrokeCopy)}, which does not copy the whole history.
+ */
+public class StrokeHistory {
+
+    // size of the blocks points are written and read in.
+    private static final int POINTS_BLOCK_BYTES = 8192;
+
+    /**
+     * One stroke copied out of the history, reused from stroke to stroke.
+     */
+    public static class StrokeCopy {
+        public int color;
+        public float strokeWidth;
+        public int layerId;
+        // x, y pairs, grown as needed.
+        public float[] points = new float[256];
+        public int pointCount;
+    }
+
+    // x, y of every point of every stroke, back to back.
+    private float[] mPoints = new float[2048];
+    private int mPointCount = 0;
+
+    // per stroke.
+    private int[] mFirstPoints = new int[64];
+    private int[] mPointCounts = new int[64];
+    private int[] mColors = new int[64];
+    private float[] mStrokeWidths = new float[64];
+    private int[] mLayerIds = new int[64];
+    private long[] mTimestamps = new long[64];
+    private int mStrokeCount = 0;
+
+    /**
+     * Applies the style all strokes are drawn with, apart from their color and width, to the
+     * given paint.
+     */
+    public static void applyStrokeStyle(Paint paint) {
+        paint.setStyle(Paint.Style.STROKE);
+
+        // smoothen out the edges and path joins.
+        paint.setAntiAlias(true);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        // ordered dithering, for layers stored in RGB_565.
+        paint.setDither(true);
+    }
+
+    /**
+     * Computes the region of the raster that drawing the given path with the given paint
+     * touches, that is the bounds of the path grown by the stroke width.
+     *
+     * @param scratch a rect to compute the bounds in, passed in to avoid allocations.
+     * @param outRegion receives the touched region.
+     */
+    public static void computeRegion(Path path, Paint paint, RectF scratch, Rect outRegion) {
+        path.computeBounds(scratch, true);
+        final float halfStroke = paint.getStrokeWidth() / 2 + 1;
+        scratch.inset(-halfStroke, -halfStroke);
+        scratch.roundOut(outRegion);
+    }
+
+    /**
+     * Appends a stroke.
+     *
+     * @param points x, y pairs of the points the stroke goes through.
+     * @param timestamp when the stroke was drawn, in {@link android.os.SystemClock#uptimeMillis()}.
+     */
+    public synchronized void append(int color, float strokeWidth, int layerId, long timestamp,
+                                    float[] points, int pointCount) {
+        if (mStrokeCount == mColors.length) {
+            final int capacity = 2 * mStrokeCount;
+            mFirstPoints = Arrays.copyOf(mFirstPoints, capacity);
+            mPointCounts = Arrays.copyOf(mPointCounts, capacity);
+            mColors = Arrays.copyOf(mColors, capacity);
+            mStrokeWidths = Arrays.copyOf(mStrokeWidths, capacity);
+            mLayerIds = Arrays.copyOf(mLayerIds, capacity);
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+        }
+        if (2 * (mPointCount + pointCount) > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints,
+                    Math.max(2 * mPoints.length, 2 * (mPointCount + pointCount)));
+        }
+        System.arraycopy(points, 0, mPoints, 2 * mPointCount, 2 * pointCount);
+
+        mFirstPoints[mStrokeCount] = mPointCount;
+        mPointCounts[mStrokeCount] = pointCount;
+        mColors[mStrokeCount] = color;
+        mStrokeWidths[mStrokeCount] = strokeWidth;
+        mLayerIds[mStrokeCount] = layerId;
+        mTimestamps[mStrokeCount] = timestamp;
+        mPointCount += pointCount;
+        mStrokeCount++;
+    }
+
+    public synchronized int size() {
+        return mStrokeCount;
+    }
+
+    public int getColor(int stroke) {
+        return mColors[stroke];
+    }
+
+    public float getStrokeWidth(int stroke) {
+        return mStrokeWidths[stroke];
+    }
+
+    /**
+     * @return the id of the {@link DrawingLayer} the stroke was drawn on.
+     */
+    public int getLayerId(int stroke) {
+        return mLayerIds[stroke];
+    }
+
+    public long getTimestamp(int stroke) {
+        return mTimestamps[stroke];
+    }
+
+    public int getPointCount(int stroke) {
+        return mPointCounts[stroke];
+    }
+
+    public float getX(int stroke, int point) {
+        return mPoints[2 * (mFirstPoints[stroke] + point)];
+    }
+
+    public float getY(int stroke, int point) {
+        return mPoints[2 * (mFirstPoints[stroke] + point) + 1];
+    }
+
+    /**
+     * Copies a stroke out of the history. May be called from any thread while the UI thread keeps
+     * changing the history.
+     *
+     * @return false if there is no such stroke, e.g. because the history was cleared.
+     */
+    public synchronized boolean read(int stroke, StrokeCopy out) {
+        if (stroke >= mStrokeCount) {
+            return false;
+        }
+        final int pointCount = mPointCounts[stroke];
+        if (out.points.length < 2 * pointCount) {
+            out.points = new float[Math.max(2 * out.points.length, 2 * pointCount)];
+        }
+        System.arraycopy(mPoints, 2 * mFirstPoints[stroke], out.points, 0, 2 * pointCount);
+        out.pointCount = pointCount;
+        out.color = mColors[stroke];
+        out.strokeWidth = mStrokeWidths[stroke];
+        out.layerId = mLayerIds[stroke];
+        return true;
+    }
+
+    /**
+     * Computes the bounds of the stroke, grown by its stroke width, that is the region of the
+     * raster drawing it touches.
+     */
+    public void getBounds(int stroke, RectF outBounds) {
+        final int count = mPointCounts[stroke];
+        if (count == 0) {
+            outBounds.setEmpty();
+            return;
+        }
+        int offset = 2 * mFirstPoints[stroke];
+        float left = mPoints[offset];
+        float top = mPoints[offset + 1];
+        float right = left;
+        float bottom = top;
+        for (int i = 1; i < count; i++) {
+            offset += 2;
+            left = Math.min(left, mPoints[offset]);
+            right = Math.max(right, mPoints[offset]);
+            top = Math.min(top, mPoints[offset + 1]);
+            bottom = Math.max(bottom, mPoints[offset + 1]);
+        }
+        final float halfStroke = mStrokeWidths[stroke] / 2 + 1;
+        outBounds.set(left - halfStroke, top - halfStroke, right + halfStroke,
+                bottom + halfStroke);
+    }
+
+    /**
+     * Moves the points of the stroke by the given transform, in place, and scales its width
+     * along.
+     */
+    public synchronized void transform(int stroke, Matrix matrix) {
+        final int first = 2 * mFirstPoints[stroke];
+        matrix.mapPoints(mPoints, first, mPoints, first, mPointCounts[stroke]);
+        mStrokeWidths[stroke] = 2 * matrix.mapRadius(mStrokeWidths[stroke] / 2);
+    }
+
+    /**
+     * Sets the given paint to the color and width of the stroke. The style is expected to have
+     * been set with {@link #applyStrokeStyle(Paint)}.
+     */
+    public void applyPaint(int stroke, Paint outPaint) {
+        outPaint.setColor(mColors[stroke]);
+        outPaint.setStrokeWidth(mStrokeWidths[stroke]);
+    }
+
+    /**
+     * Rebuilds the path of the stroke: a quadratic curve through the midpoints between its
+     * points, ending with a line to its last point.
+     */
+    public void buildPath(int stroke, Path outPath) {
+        outPath.rewind();
+        final int count = mPointCounts[stroke];
+        if (count == 0) {
+            return;
+        }
+        int offset = 2 * mFirstPoints[stroke];
+        float lastX = mPoints[offset];
+        float lastY = mPoints[offset + 1];
+        outPath.moveTo(lastX, lastY);
+        for (int i = 1; i < count; i++) {
+            offset += 2;
+            final float x = mPoints[offset];
+            final float y = mPoints[offset + 1];
+            outPath.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
+            lastX = x;
+            lastY = y;
+        }
+        outPath.lineTo(lastX, lastY);
+    }
+
+    /**
+     * @return a copy of this history, unaffected by strokes appended to this one afterwards.
+     */
+    public StrokeHistory copy() {
+        StrokeHistory copy = new StrokeHistory();
+        copy.mPoints = Arrays.copyOf(mPoints, Math.max(2, 2 * mPointCount));
+        copy.mPointCount = mPointCount;
+        final int capacity = Math.max(1, mStrokeCount);
+        copy.mFirstPoints = Arrays.copyOf(mFirstPoints, capacity);
+        copy.mPointCounts = Arrays.copyOf(mPointCounts, capacity);
+        copy.mColors = Arrays.copyOf(mColors, capacity);
+        copy.mStrokeWidths = Arrays.copyOf(mStrokeWidths, capacity);
+        copy.mLayerIds = Arrays.copyOf(mLayerIds, capacity);
+        copy.mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+        copy.mStrokeCount = mStrokeCount;
+        return copy;
+    }
+
+    /**
+     * @return how many bytes the arrays of this history take up.
+     */
+    public synchronized long getByteCount() {
+        // first point, point count, color, width and layer id, then the timestamp.
+        return 4L * mPoints.length + (5 * 4 + 8) * (long) mColors.length;
+    }
+
+    /**
+     * Writes every stroke to the given stream, to be read back by
+     * {@link #readFrom(DataInputStream)}.
+     */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mStrokeCount);
+        out.writeInt(mPointCount);
+        for (int stroke = 0; stroke < mStrokeCount; stroke++) {
+            out.writeInt(mPointCounts[stroke]);
+            out.writeInt(mColors[stroke]);
+            out.writeFloat(mStrokeWidths[stroke]);
+            out.writeInt(mLayerIds[stroke]);
+            out.writeLong(mTimestamps[stroke]);
+        }
+        // points go through a block at a time rather than a float at a time.
+        final byte[] block = new byte[POINTS_BLOCK_BYTES];
+        final ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+        final int floatCount = 2 * mPointCount;
+        for (int offset = 0; offset < floatCount; offset += POINTS_BLOCK_BYTES / 4) {
+            final int count = Math.min(POINTS_BLOCK_BYTES / 4, floatCount - offset);
+            blockBuffer.clear();
+            blockBuffer.asFloatBuffer().put(mPoints, offset, count);
+            out.write(block, 0, 4 * count);
+        }
+    }
+
+    /**
+     * Reads back a history written by {@link #writeTo(DataOutputStream)}.
+     */
+    public static StrokeHistory readFrom(DataInputStream in) throws IOException {
+        final int strokeCount = in.readInt();
+        final int pointCount = in.readInt();
+        if (strokeCount < 0 || pointCount < 0 || pointCount > Integer.MAX_VALUE / 2) {
+            throw new IOException("Corrupt stroke history");
+        }
+        final StrokeHistory history = new StrokeHistory();
+        final int capacity = Math.max(1, strokeCount);
+        history.mFirstPoints = new int[capacity];
+        history.mPointCounts = new int[capacity];
+        history.mColors = new int[capacity];
+        history.mStrokeWidths = new float[capacity];
+        history.mLayerIds = new int[capacity];
+        history.mTimestamps = new long[capacity];
+        history.mPoints = new float[Math.max(2, 2 * pointCount)];
+        int firstPoint = 0;
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            history.mFirstPoints[stroke] = firstPoint;
+            history.mPointCounts[stroke] = in.readInt();
+            history.mColors[stroke] = in.readInt();
+            history.mStrokeWidths[stroke] = in.readFloat();
+            history.mLayerIds[stroke] = in.readInt();
+            history.mTimestamps[stroke] = in.readLong();
+            firstPoint += history.mPointCounts[stroke];
+            if (history.mPointCounts[stroke] < 0 || firstPoint > pointCount) {
+                throw new IOException("Corrupt stroke history");
+            }
+        }
+        final byte[] block = new byte[POINTS_BLOCK_BYTES];
+        final ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+        final int floatCount = 2 * pointCount;
+        for (int offset = 0; offset < floatCount; offset += POINTS_BLOCK_BYTES / 4) {
+            final int count = Math.min(POINTS_BLOCK_BYTES / 4, floatCount - offset);
+            in.readFully(block, 0, 4 * count);
+            blockBuffer.clear();
+            blockBuffer.asFloatBuffer().get(history.mPoints, offset, count);
+        }
+        history.mPointCount = pointCount;
+        history.mStrokeCount = strokeCount;
+        return history;
+    }
+
+    /**
+     * Forgets every stroke, keeping the arrays for the strokes to come.
+     */
+    public synchronized void clear() {
+        mPointCount = 0;
+        mStrokeCount = 0;
+    }
+}
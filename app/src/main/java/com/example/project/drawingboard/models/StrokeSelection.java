@@ -0,0 +1,110 @@
+package com.example.project.drawingboard.models;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Strokes of a layer lifted off it by a lasso, to be moved, scaled and rotated as a whole.
+ *
+ * The strokes are rasterized once, into a sprite, when they are selected. While the selection
+ * is being transformed, each frame only composites that sprite through the current transform.
+ * The strokes themselves are only moved, and rasterized again, once the selection is applied,
+ * see {@link DrawingPathCacheStore#applySelection()}.
+ */
+public class StrokeSelection {
+
+    final DrawingLayer mLayer;
+    // indexed by stroke in the history, as of when the selection was made.
+    final boolean[] mIsSelected;
+    // region of the layer the sprite was rasterized from.
+    final Rect mRegion = new Rect();
+    final Matrix mTransform = new Matrix();
+
+    private Bitmap mSprite;
+    private final Matrix mInverse = new Matrix();
+    private final float[] mPoint = new float[2];
+
+    StrokeSelection(DrawingLayer layer, boolean[] isSelected, Rect region) {
+        mLayer = layer;
+        mIsSelected = isSelected;
+        mRegion.set(region);
+    }
+
+    /**
+     * Checks whether a point falls inside a polygon, by counting how many of its edges a ray
+     * going right from the point crosses.
+     *
+     * @param polygon x, y pairs of the vertices of the polygon, which is closed implicitly.
+     */
+    public static boolean contains(float[] polygon, int vertexCount, float x, float y) {
+        boolean isInside = false;
+        for (int i = 0, j = vertexCount - 1; i < vertexCount; j = i++) {
+            final float xi = polygon[2 * i];
+            final float yi = polygon[2 * i + 1];
+            final float xj = polygon[2 * j];
+            final float yj = polygon[2 * j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                isInside = !isInside;
+            }
+        }
+        return isInside;
+    }
+
+    /**
+     * @return whether the given point, in canvas coordinates, falls on the selection as it is
+     * currently transformed.
+     */
+    public boolean contains(float x, float y) {
+        if (!mTransform.invert(mInverse)) {
+            return false;
+        }
+        mPoint[0] = x;
+        mPoint[1] = y;
+        mInverse.mapPoints(mPoint);
+        return mRegion.contains((int) mPoint[0], (int) mPoint[1]);
+    }
+
+    /**
+     * @return the transform applied to the selection since it was made, which callers may
+     * change. The owner of the selection must be redrawn afterwards.
+     */
+    public Matrix getTransform() {
+        return mTransform;
+    }
+
+    /**
+     * Computes the bounds of the selection as it is currently transformed.
+     */
+    public void getTransformedBounds(RectF outBounds) {
+        outBounds.set(mRegion);
+        mTransform.mapRect(outBounds);
+    }
+
+    void setSprite(Bitmap sprite) {
+        mSprite = sprite;
+    }
+
+    /**
+     * Composites the sprite of the selection, as currently transformed, with the properties
+     * of the layer it was lifted off.
+     */
+    void draw(Canvas canvas) {
+        if (mSprite == null || !mLayer.isVisible()) {
+            return;
+        }
+        canvas.save();
+        canvas.concat(mTransform);
+        canvas.drawBitmap(mSprite, mRegion.left, mRegion.top, mLayer.mCompositePaint);
+        canvas.restore();
+    }
+
+    void recycle() {
+        if (mSprite != null) {
+            mSprite.recycle();
+            mSprite = null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.project.drawingboard.sync;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A tiny relay that lets several boards share one drawing. Every frame received from a board is
+ * forwarded, as is, to every other connected board.
+ *
+ * The relay only understands the framing of {@link StrokeDeltaEncoder}, not the deltas
+ * themselves, so frames are never decoded nor re-encoded. Each board gets its own writer thread
+ * and outbox, so a slow board does not hold back the others. A board that falls so far behind
+ * that its outbox fills up is disconnected: dropping some of its frames would leave it with
+ * strokes that never end.
+ */
+public class RelayServer {
+
+    private static final String LOG_TAG = RelayServer.class.getSimpleName();
+
+    public static final int DEFAULT_PORT = 7070;
+
+    // signals a peer writer thread to stop.
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    // frames a peer may have waiting to be written, several seconds of every board drawing.
+    private static final int OUTBOX_CAPACITY = 4096;
+
+    private final int mPort;
+    private final CopyOnWriteArrayList<Peer> mPeers = new CopyOnWriteArrayList<Peer>();
+    private ServerSocket mServerSocket;
+    private volatile boolean mIsStopped = false;
+
+    /**
+     * @param port port to listen on, 0 to pick any free port.
+     */
+    public RelayServer(int port) {
+        mPort = port;
+    }
+
+    /**
+     * Binds the server socket and starts accepting boards in the background.
+     *
+     * @return the port the relay listens on.
+     */
+    public int start() throws IOException {
+        mServerSocket = new ServerSocket();
+        mServerSocket.setReuseAddress(true);
+        mServerSocket.bind(new InetSocketAddress(mPort));
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, LOG_TAG + "-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * @return number of boards currently connected.
+     */
+    public int getPeerCount() {
+        return mPeers.size();
+    }
+
+    /**
+     * Stops accepting boards and disconnects all of them.
+     */
+    public void stop() {
+        mIsStopped = true;
+        try {
+            if (mServerSocket != null) {
+                mServerSocket.close();
+            }
+        } catch (IOException ignored) {
+            // nothing more to do.
+        }
+        for (Peer peer : mPeers) {
+            peer.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mIsStopped) {
+            try {
+                Socket socket = mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+                Peer peer = new Peer(socket);
+                mPeers.add(peer);
+                peer.start();
+            } catch (IOException ioe) {
+                if (!mIsStopped) {
+                    Log.e(LOG_TAG, "Could not accept board", ioe);
+                }
+            }
+        }
+    }
+
+    private void broadcast(Peer from, byte[] frame) {
+        for (Peer peer : mPeers) {
+            if (peer != from && !peer.mOutbox.offer(frame)) {
+                Log.w(LOG_TAG, "Disconnecting a board that stopped reading");
+                peer.close();
+            }
+        }
+    }
+
+    /**
+     * One connected board.
+     */
+    private class Peer {
+        private final Socket mSocket;
+        private final BlockingQueue<byte[]> mOutbox = new LinkedBlockingQueue<byte[]>(
+                OUTBOX_CAPACITY);
+
+        Peer(Socket socket) {
+            mSocket = socket;
+        }
+
+        void start() {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop();
+                }
+            }, LOG_TAG + "-peer-reader");
+            reader.setDaemon(true);
+            reader.start();
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, LOG_TAG + "-peer-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void readLoop() {
+            try {
+                final BufferedInputStream inputStream =
+                        new BufferedInputStream(mSocket.getInputStream());
+                final StrokeDeltaDecoder decoder = new StrokeDeltaDecoder();
+                while (decoder.readFrame(inputStream)) {
+                    broadcast(this, Arrays.copyOf(decoder.getFrame(), decoder.getFrameLength()));
+                }
+            } catch (IOException ioe) {
+                // the board went away, or sent garbage.
+            } finally {
+                close();
+            }
+        }
+
+        private void writeLoop() {
+            final ArrayList<byte[]> batch = new ArrayList<byte[]>();
+            try {
+                final OutputStream outputStream =
+                        new BufferedOutputStream(mSocket.getOutputStream());
+                while (true) {
+                    batch.add(mOutbox.take());
+                    mOutbox.drainTo(batch);
+                    for (int i = 0; i < batch.size(); i++) {
+                        final byte[] frame = batch.get(i);
+                        if (frame == END_OF_STREAM) {
+                            return;
+                        }
+                        outputStream.write(frame);
+                    }
+                    batch.clear();
+                    outputStream.flush();
+                }
+            } catch (IOException ioe) {
+                close();
+            } catch (InterruptedException interrupted) {
+                close();
+            }
+        }
+
+        void close() {
+            if (mPeers.remove(this)) {
+                // make room for the end, the frames still queued are not going anywhere.
+                mOutbox.clear();
+                mOutbox.offer(END_OF_STREAM);
+            }
+            try {
+                mSocket.close();
+            } catch (IOException ignored) {
+                // nothing more to do.
+            }
+        }
+    }
+}
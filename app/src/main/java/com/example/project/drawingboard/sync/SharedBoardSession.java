@@ -0,0 +1,339 @@
+package com.example.project.drawingboard.sync;
+
+import com.example.project.drawingboard.BuildConfig;
+import com.example.project.drawingboard.models.DrawingPathCacheStore;
+import com.example.project.drawingboard.models.PendingStroke;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.Log;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Connects the drawing of this device to a shared board, through a {@link RelayServer}.
+ *
+ * Local strokes are streamed as deltas: the points of the stroke being drawn are coalesced and
+ * sent as one batch per display frame, when {@link #flush()} is called, rather than one packet
+ * per touch event.
+ *
+ * Remote deltas are decoded on the connection thread and only queued there. They are applied to
+ * the drawing on the UI thread, once per frame, by {@link #applyRemoteDeltas}, so receiving
+ * strokes never holds the UI thread waiting on the network, nor locks the drawing while the user
+ * draws.
+ */
+public class SharedBoardSession implements StrokeDeltaListener {
+
+    private static final String LOG_TAG = SharedBoardSession.class.getSimpleName();
+
+    private final int mSourceId = new Random().nextInt(Integer.MAX_VALUE);
+    private final SyncConnection mConnection;
+    // replaced when the activity is re-created, null in between.
+    private volatile View mBoardView;
+
+    // non null if this device hosts the relay.
+    private RelayServer mRelay;
+
+    // Local stroke being streamed, only accessed from the UI thread.
+    private final StrokeDeltaEncoder mEncoder = new StrokeDeltaEncoder();
+    private int mNextStrokeId = 0;
+    private int mLocalStrokeId = -1;
+    private float[] mPendingPoints = new float[64];
+    private int mPendingPointCount = 0;
+
+    // Remote deltas, queued by the connection thread, and swapped out by the UI thread.
+    private final Object mIncomingLock = new Object();
+    private ArrayList<RemoteDelta> mIncoming = new ArrayList<RemoteDelta>();
+    private ArrayList<RemoteDelta> mApplying = new ArrayList<RemoteDelta>();
+
+    // Remote strokes in progress, keyed by source and stroke id. UI thread only.
+    private final HashMap<Long, RemoteStroke> mRemoteStrokes = new HashMap<Long, RemoteStroke>();
+    private final Path mSegment = new Path();
+
+    private SharedBoardSession(String host, int port, View boardView) {
+        mConnection = new SyncConnection(host, port, this);
+        mBoardView = boardView;
+    }
+
+    /**
+     * Joins the shared board relayed by the given host.
+     *
+     * @param boardView view to redraw when remote strokes arrive.
+     */
+    public static SharedBoardSession join(String host, int port, View boardView) {
+        SharedBoardSession session = new SharedBoardSession(host, port, boardView);
+        session.mConnection.connect();
+        return session;
+    }
+
+    /**
+     * Starts a relay on this device, for others to join, and joins it.
+     *
+     * @param boardView view to redraw when remote strokes arrive.
+     */
+    public static SharedBoardSession host(int port, View boardView) {
+        final SharedBoardSession session = new SharedBoardSession("127.0.0.1", port, boardView);
+        session.mRelay = new RelayServer(port);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.mRelay.start();
+                    session.mConnection.connect();
+                } catch (IOException ioe) {
+                    Log.e(LOG_TAG, "Could not start the relay", ioe);
+                }
+            }
+        }, LOG_TAG + "-host").start();
+        return session;
+    }
+
+    /**
+     * Sets the view to redraw when remote strokes arrive, for keeping the session connected while
+     * the activity is re-created on a configuration change.
+     *
+     * @param boardView view to redraw, or null while there is none.
+     */
+    public void setBoardView(View boardView) {
+        mBoardView = boardView;
+        if (boardView != null) {
+            // deltas may have arrived while there was no view to redraw.
+            boardView.postInvalidate();
+        }
+    }
+
+    /**
+     * Disconnects from the board, and stops the relay if this device hosts it.
+     */
+    public void close() {
+        mConnection.close();
+        if (mRelay != null) {
+            mRelay.stop();
+        }
+    }
+
+    /**
+     * Starts streaming a new local stroke. Must be called on the UI thread.
+     */
+    public void beginLocalStroke(float x, float y, int color, float strokeWidth) {
+        if (mLocalStrokeId >= 0) {
+            endLocalStroke();
+        }
+        mLocalStrokeId = mNextStrokeId++;
+        mEncoder.encodeStrokeBegin(mSourceId, mLocalStrokeId, color, strokeWidth);
+        addLocalPoint(x, y);
+    }
+
+    /**
+     * Appends a point to the local stroke. The point is only sent with the next
+     * {@link #flush()}. Must be called on the UI thread.
+     */
+    public void addLocalPoint(float x, float y) {
+        if (mLocalStrokeId < 0) {
+            return;
+        }
+        if (2 * mPendingPointCount + 2 > mPendingPoints.length) {
+            mPendingPoints = Arrays.copyOf(mPendingPoints, 2 * mPendingPoints.length);
+        }
+        mPendingPoints[2 * mPendingPointCount] = x;
+        mPendingPoints[2 * mPendingPointCount + 1] = y;
+        mPendingPointCount++;
+    }
+
+    /**
+     * Ends the local stroke. Must be called on the UI thread.
+     */
+    public void endLocalStroke() {
+        if (mLocalStrokeId < 0) {
+            return;
+        }
+        encodePendingPoints();
+        mEncoder.encodeStrokeEnd(mSourceId, mLocalStrokeId);
+        mLocalStrokeId = -1;
+    }
+
+    /**
+     * Sends everything streamed since the last flush in one go. Meant to be called once per
+     * frame, on the UI thread.
+     */
+    public void flush() {
+        encodePendingPoints();
+        if (mEncoder.length() > 0) {
+            mConnection.send(mEncoder.toByteArray());
+            mEncoder.reset();
+        }
+    }
+
+    private void encodePendingPoints() {
+        if (mPendingPointCount > 0) {
+            mEncoder.encodePoints(mSourceId, mLocalStrokeId, mPendingPoints, mPendingPointCount);
+            mPendingPointCount = 0;
+        }
+    }
+
+    /**
+     * Draws every remote delta received since the last call on to the store, each stroke on the
+     * layer that was active when it began, and records the remote strokes that were completed
+     * in its history. Must be called on the UI thread.
+     *
+     * @param paintTemplate paint the remote strokes are drawn with, apart from their color and
+     *                      width.
+     */
+    public void applyRemoteDeltas(DrawingPathCacheStore store, Paint paintTemplate) {
+        synchronized (mIncomingLock) {
+            if (mIncoming.isEmpty()) {
+                return;
+            }
+            ArrayList<RemoteDelta> swap = mApplying;
+            mApplying = mIncoming;
+            mIncoming = swap;
+        }
+
+        for (int i = 0; i < mApplying.size(); i++) {
+            final RemoteDelta delta = mApplying.get(i);
+            final Long key = ((long) delta.mSourceId << 32) | (delta.mStrokeId & 0xFFFFFFFFL);
+            switch (delta.mType) {
+                case StrokeDeltaEncoder.TYPE_STROKE_BEGIN: {
+                    Paint paint = new Paint(paintTemplate);
+                    paint.setColor(delta.mColor);
+                    paint.setStrokeWidth(delta.mStrokeWidth);
+                    mRemoteStrokes.put(key, new RemoteStroke(store.beginPendingStroke(paint)));
+                    break;
+                }
+                case StrokeDeltaEncoder.TYPE_POINTS: {
+                    final RemoteStroke stroke = mRemoteStrokes.get(key);
+                    if (stroke != null) {
+                        mSegment.rewind();
+                        stroke.extend(delta.mPoints, mSegment);
+                        store.extendPendingStroke(stroke.mPending, mSegment);
+                    }
+                    break;
+                }
+                case StrokeDeltaEncoder.TYPE_STROKE_END: {
+                    final RemoteStroke stroke = mRemoteStrokes.remove(key);
+                    if (stroke != null) {
+                        store.endPendingStroke(stroke.mPending, stroke.mPoints,
+                                stroke.mPointCount);
+                    }
+                    break;
+                }
+            }
+        }
+        mApplying.clear();
+    }
+
+    @Override
+    public void onStrokeBegin(int sourceId, int strokeId, int color, float strokeWidth) {
+        RemoteDelta delta = new RemoteDelta(StrokeDeltaEncoder.TYPE_STROKE_BEGIN, sourceId,
+                strokeId);
+        delta.mColor = color;
+        delta.mStrokeWidth = strokeWidth;
+        enqueue(delta);
+    }
+
+    @Override
+    public void onStrokePoints(int sourceId, int strokeId, float[] points, int pointCount) {
+        RemoteDelta delta = new RemoteDelta(StrokeDeltaEncoder.TYPE_POINTS, sourceId, strokeId);
+        // the decoder reuses its buffer.
+        delta.mPoints = Arrays.copyOf(points, 2 * pointCount);
+        enqueue(delta);
+    }
+
+    @Override
+    public void onStrokeEnd(int sourceId, int strokeId) {
+        enqueue(new RemoteDelta(StrokeDeltaEncoder.TYPE_STROKE_END, sourceId, strokeId));
+    }
+
+    @Override
+    public void onDisconnected() {
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Left the shared board");
+        }
+    }
+
+    private void enqueue(RemoteDelta delta) {
+        final boolean wasEmpty;
+        synchronized (mIncomingLock) {
+            wasEmpty = mIncoming.isEmpty();
+            mIncoming.add(delta);
+        }
+        final View boardView = mBoardView;
+        if (wasEmpty && boardView != null) {
+            // one redraw picks up everything queued until it runs.
+            boardView.postInvalidate();
+        }
+    }
+
+    /**
+     * A delta received from the board, waiting to be applied on the UI thread.
+     */
+    private static class RemoteDelta {
+        final int mType;
+        final int mSourceId;
+        final int mStrokeId;
+        int mColor;
+        float mStrokeWidth;
+        float[] mPoints;
+
+        RemoteDelta(int type, int sourceId, int strokeId) {
+            mType = type;
+            mSourceId = sourceId;
+            mStrokeId = strokeId;
+        }
+    }
+
+    /**
+     * A remote stroke being received. Points are smoothed the same way {@code PaintCanvas}
+     * smooths local strokes, so that both look alike.
+     */
+    private static class RemoteStroke {
+        // x, y pairs received so far, for recording the stroke once it ends.
+        float[] mPoints = new float[64];
+        int mPointCount = 0;
+        // the stroke as drawn on the board, on the layer it began on.
+        final PendingStroke mPending;
+        boolean mHasPoints = false;
+        float mLastX, mLastY;
+        float mMidX, mMidY;
+
+        RemoteStroke(PendingStroke pending) {
+            mPending = pending;
+        }
+
+        /**
+         * Appends the points to the stroke, and sets segment to the part of the stroke they add.
+         */
+        void extend(float[] points, Path segment) {
+            final int pointCount = points.length / 2;
+            if (2 * (mPointCount + pointCount) > mPoints.length) {
+                mPoints = Arrays.copyOf(mPoints,
+                        Math.max(2 * mPoints.length, 2 * (mPointCount + pointCount)));
+            }
+            System.arraycopy(points, 0, mPoints, 2 * mPointCount, 2 * pointCount);
+            mPointCount += pointCount;
+
+            int i = 0;
+            if (!mHasPoints && points.length >= 2) {
+                mLastX = mMidX = points[0];
+                mLastY = mMidY = points[1];
+                mHasPoints = true;
+                i = 2;
+            }
+            segment.moveTo(mMidX, mMidY);
+            for (; i + 1 < points.length; i += 2) {
+                final float x = points[i];
+                final float y = points[i + 1];
+                mMidX = (x + mLastX) / 2;
+                mMidY = (y + mLastY) / 2;
+                segment.quadTo(mLastX, mLastY, mMidX, mMidY);
+                mLastX = x;
+                mLastY = y;
+            }
+        }
+    }
+}
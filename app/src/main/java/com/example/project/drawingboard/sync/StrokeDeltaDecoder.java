@@ -0,0 +1,173 @@
+package com.example.project.drawingboard.sync;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads frames written by {@link StrokeDeltaEncoder} and dispatches them to a
+ * {@link StrokeDeltaListener}.
+ *
+ * Not thread safe. Once warmed up, decoding does not allocate.
+ */
+public class StrokeDeltaDecoder {
+
+    // Frames larger than this are considered corrupt, rather than allocating for them.
+    static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+
+    private byte[] mFrame = new byte[256];
+    private int mFrameLength = 0;
+    private int mPosition = 0;
+
+    private float[] mPoints = new float[128];
+
+    /**
+     * Reads the next frame from the stream, type and length header included, into an internal
+     * buffer. The frame can then be decoded with {@link #dispatch(StrokeDeltaListener)}, or its
+     * raw bytes accessed with {@link #getFrame()}.
+     *
+     * @return false if the stream ended cleanly before the frame.
+     * @throws IOException if reading failed, or the stream ended in the middle of a frame.
+     */
+    public boolean readFrame(InputStream inputStream) throws IOException {
+        final int type = inputStream.read();
+        if (type < 0) {
+            return false;
+        }
+        mFrameLength = 0;
+        ensureFrameCapacity(6);
+        mFrame[mFrameLength++] = (byte) type;
+
+        int payloadLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = inputStream.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended inside a frame header");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed frame length");
+            }
+            mFrame[mFrameLength++] = (byte) b;
+            payloadLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Frame of " + payloadLength + " bytes is too large");
+        }
+
+        ensureFrameCapacity(payloadLength);
+        int read = 0;
+        while (read < payloadLength) {
+            final int count = inputStream.read(mFrame, mFrameLength + read, payloadLength - read);
+            if (count < 0) {
+                throw new EOFException("Stream ended inside a frame");
+            }
+            read += count;
+        }
+        mFrameLength += payloadLength;
+        return true;
+    }
+
+    /**
+     * @return the raw bytes of the last frame read, valid up to {@link #getFrameLength()}, and
+     * until the next read.
+     */
+    public byte[] getFrame() {
+        return mFrame;
+    }
+
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    /**
+     * Decodes the last frame read, and passes it on to the listener. Frames of unknown types are
+     * skipped, so that newer peers can add types.
+     */
+    public void dispatch(StrokeDeltaListener listener) throws IOException {
+        mPosition = 0;
+        final int type = mFrame[mPosition++] & 0xFF;
+        // the header has been validated by readFrame already.
+        readVarint();
+
+        switch (type) {
+            case StrokeDeltaEncoder.TYPE_STROKE_BEGIN: {
+                final int sourceId = readVarint();
+                final int strokeId = readVarint();
+                requireBytes(4);
+                final int color = ((mFrame[mPosition] & 0xFF) << 24)
+                        | ((mFrame[mPosition + 1] & 0xFF) << 16)
+                        | ((mFrame[mPosition + 2] & 0xFF) << 8)
+                        | (mFrame[mPosition + 3] & 0xFF);
+                mPosition += 4;
+                final float strokeWidth = readVarint() / StrokeDeltaEncoder.COORDINATE_SCALE;
+                listener.onStrokeBegin(sourceId, strokeId, color, strokeWidth);
+                break;
+            }
+            case StrokeDeltaEncoder.TYPE_POINTS: {
+                final int sourceId = readVarint();
+                final int strokeId = readVarint();
+                final int pointCount = readVarint();
+                // each point takes at least two bytes, which bounds bogus counts.
+                if (pointCount < 0 || pointCount > (mFrameLength - mPosition) / 2) {
+                    throw new IOException("Malformed point count " + pointCount);
+                }
+                if (mPoints.length < 2 * pointCount) {
+                    mPoints = Arrays.copyOf(mPoints, Math.max(2 * pointCount,
+                            2 * mPoints.length));
+                }
+                int x = 0;
+                int y = 0;
+                for (int i = 0; i < pointCount; i++) {
+                    x += unzigzag(readVarint());
+                    y += unzigzag(readVarint());
+                    mPoints[2 * i] = x / StrokeDeltaEncoder.COORDINATE_SCALE;
+                    mPoints[2 * i + 1] = y / StrokeDeltaEncoder.COORDINATE_SCALE;
+                }
+                listener.onStrokePoints(sourceId, strokeId, mPoints, pointCount);
+                break;
+            }
+            case StrokeDeltaEncoder.TYPE_STROKE_END: {
+                final int sourceId = readVarint();
+                final int strokeId = readVarint();
+                listener.onStrokeEnd(sourceId, strokeId);
+                break;
+            }
+            default:
+                // unknown frame, skip it.
+                break;
+        }
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            requireBytes(1);
+            final int b = mFrame[mPosition++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void requireBytes(int count) throws IOException {
+        if (mPosition + count > mFrameLength) {
+            throw new IOException("Truncated frame");
+        }
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void ensureFrameCapacity(int extra) {
+        if (mFrameLength + extra > mFrame.length) {
+            mFrame = Arrays.copyOf(mFrame, Math.max(mFrame.length * 2, mFrameLength + extra));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.project.drawingboard.sync;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes stroke deltas into the binary framing used by shared boards, accumulating frames
+ * in memory until they are taken out with {@link #writeTo(OutputStream)} or
+ * {@link #toByteArray()}.
+ *
+ * Every frame is laid out as:
+ * <pre>
+ *   u8     type
+ *   varint payload length
+ *   bytes  payload
+ * </pre>
+ * and the payloads are:
+ * <pre>
+ *   STROKE_BEGIN : varint source, varint stroke, i32 color, varint width (fixed point)
+ *   POINTS       : varint source, varint stroke, varint count,
+ *                  count x (zigzag varint dx, zigzag varint dy) (fixed point)
+ *   STROKE_END   : varint source, varint stroke
+ * </pre>
+ * Coordinates are quantized to 1/{@link #COORDINATE_SCALE} of a pixel. The first point of a
+ * POINTS frame is relative to the origin and every following point is relative to the previous
+ * one, so a typical move costs two or three bytes, and each frame can be decoded on its own.
+ *
+ * Not thread safe. Once warmed up, encoding does not allocate.
+ */
+public class StrokeDeltaEncoder {
+
+    public static final int TYPE_STROKE_BEGIN = 1;
+    public static final int TYPE_POINTS = 2;
+    public static final int TYPE_STROKE_END = 3;
+
+    public static final float COORDINATE_SCALE = 8f;
+
+    private byte[] mFrames = new byte[1024];
+    private int mFramesLength = 0;
+
+    // payload of the frame being encoded, its length is only known once it is complete.
+    private byte[] mPayload = new byte[256];
+    private int mPayloadLength = 0;
+
+    public void encodeStrokeBegin(int sourceId, int strokeId, int color, float strokeWidth) {
+        mPayloadLength = 0;
+        putVarint(sourceId);
+        putVarint(strokeId);
+        ensurePayloadCapacity(4);
+        mPayload[mPayloadLength++] = (byte) (color >>> 24);
+        mPayload[mPayloadLength++] = (byte) (color >>> 16);
+        mPayload[mPayloadLength++] = (byte) (color >>> 8);
+        mPayload[mPayloadLength++] = (byte) color;
+        putVarint(Math.round(strokeWidth * COORDINATE_SCALE));
+        endFrame(TYPE_STROKE_BEGIN);
+    }
+
+    /**
+     * @param points x and y coordinates, interleaved.
+     * @param pointCount number of points to encode, from the start of points.
+     */
+    public void encodePoints(int sourceId, int strokeId, float[] points, int pointCount) {
+        mPayloadLength = 0;
+        putVarint(sourceId);
+        putVarint(strokeId);
+        putVarint(pointCount);
+        int lastX = 0;
+        int lastY = 0;
+        for (int i = 0; i < pointCount; i++) {
+            final int x = Math.round(points[2 * i] * COORDINATE_SCALE);
+            final int y = Math.round(points[2 * i + 1] * COORDINATE_SCALE);
+            putVarint(zigzag(x - lastX));
+            putVarint(zigzag(y - lastY));
+            lastX = x;
+            lastY = y;
+        }
+        endFrame(TYPE_POINTS);
+    }
+
+    public void encodeStrokeEnd(int sourceId, int strokeId) {
+        mPayloadLength = 0;
+        putVarint(sourceId);
+        putVarint(strokeId);
+        endFrame(TYPE_STROKE_END);
+    }
+
+    /**
+     * @return number of encoded bytes waiting to be sent.
+     */
+    public int length() {
+        return mFramesLength;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(mFrames, 0, mFramesLength);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mFrames, mFramesLength);
+    }
+
+    /**
+     * Drops all the encoded frames, keeping the buffers for reuse.
+     */
+    public void reset() {
+        mFramesLength = 0;
+    }
+
+    private void endFrame(int type) {
+        ensureFramesCapacity(1 + 5 + mPayloadLength);
+        mFrames[mFramesLength++] = (byte) type;
+        int length = mPayloadLength;
+        while ((length & ~0x7F) != 0) {
+            mFrames[mFramesLength++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        mFrames[mFramesLength++] = (byte) length;
+        System.arraycopy(mPayload, 0, mFrames, mFramesLength, mPayloadLength);
+        mFramesLength += mPayloadLength;
+    }
+
+    private void putVarint(int value) {
+        ensurePayloadCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            mPayload[mPayloadLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mPayload[mPayloadLength++] = (byte) value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private void ensurePayloadCapacity(int extra) {
+        if (mPayloadLength + extra > mPayload.length) {
+            mPayload = Arrays.copyOf(mPayload, Math.max(mPayload.length * 2,
+                    mPayloadLength + extra));
+        }
+    }
+
+    private void ensureFramesCapacity(int extra) {
+        if (mFramesLength + extra > mFrames.length) {
+            mFrames = Arrays.copyOf(mFrames, Math.max(mFrames.length * 2, mFramesLength + extra));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.project.drawingboard.sync;
+
+/**
+ * Receives the stroke deltas decoded from a shared board connection.
+ *
+ * Strokes are identified by the pair of the id of the board that drew them and a stroke id
+ * unique within that board.
+ */
+public interface StrokeDeltaListener {
+
+    /**
+     * A new stroke was started.
+     *
+     * @param color ARGB color of the stroke.
+     * @param strokeWidth width of the stroke, in pixels.
+     */
+    void onStrokeBegin(int sourceId, int strokeId, int color, float strokeWidth);
+
+    /**
+     * Points were appended to a stroke.
+     *
+     * @param points x and y coordinates, interleaved. Only valid for the duration of the call.
+     * @param pointCount number of points, i.e. half the number of coordinates, in points.
+     */
+    void onStrokePoints(int sourceId, int strokeId, float[] points, int pointCount);
+
+    /**
+     * A stroke was finished, no more points will be appended to it.
+     */
+    void onStrokeEnd(int sourceId, int strokeId);
+
+    /**
+     * The connection the deltas were read from was closed or failed. No more deltas will be
+     * delivered.
+     */
+    void onDisconnected();
+}
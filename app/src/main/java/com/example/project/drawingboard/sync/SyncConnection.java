@@ -0,0 +1,166 @@
+package com.example.project.drawingboard.sync;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A client connection to a {@link RelayServer}.
+ *
+ * Connecting, reading and writing all happen on threads owned by this connection, so that none
+ * of the methods block the caller. Decoded deltas are delivered to the listener on the reading
+ * thread.
+ *
+ * The socket is opened with TCP_NODELAY, since batching is already done by the callers handing
+ * over whole frame batches to {@link #send(byte[])}, typically once per display frame.
+ */
+public class SyncConnection {
+
+    private static final String LOG_TAG = SyncConnection.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    // signals the writer thread to stop.
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    // batches that may wait to be sent, over ten seconds of drawing at one batch per frame.
+    private static final int OUTBOX_CAPACITY = 1024;
+
+    private final String mHost;
+    private final int mPort;
+    private final StrokeDeltaListener mListener;
+
+    private final BlockingQueue<byte[]> mOutbox = new LinkedBlockingQueue<byte[]>(
+            OUTBOX_CAPACITY);
+    private volatile Socket mSocket;
+    private volatile boolean mIsClosed = false;
+
+    public SyncConnection(String host, int port, StrokeDeltaListener listener) {
+        mHost = host;
+        mPort = port;
+        mListener = listener;
+    }
+
+    /**
+     * Starts connecting in the background. Frames sent before the connection is established
+     * are queued, and sent once it is.
+     */
+    public void connect() {
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, LOG_TAG + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Queues encoded frames to be sent. Never blocks: if the relay cannot keep up and the outbox
+     * is full, the connection is closed rather than frames dropped.
+     */
+    public void send(byte[] frames) {
+        if (!mIsClosed && frames.length > 0 && !mOutbox.offer(frames)) {
+            Log.e(LOG_TAG, "Too far behind " + mHost + ":" + mPort + ", disconnecting");
+            close();
+        }
+    }
+
+    /**
+     * Closes the connection, dropping any frames not sent yet.
+     */
+    public void close() {
+        mIsClosed = true;
+        endStream();
+        closeSocket();
+    }
+
+    private void readLoop() {
+        try {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(mHost, mPort), CONNECT_TIMEOUT_MILLIS);
+            mSocket = socket;
+            if (mIsClosed) {
+                closeSocket();
+                return;
+            }
+
+            final OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop(outputStream);
+                }
+            }, LOG_TAG + "-writer");
+            writer.setDaemon(true);
+            writer.start();
+
+            final BufferedInputStream inputStream =
+                    new BufferedInputStream(socket.getInputStream());
+            final StrokeDeltaDecoder decoder = new StrokeDeltaDecoder();
+            while (!mIsClosed && decoder.readFrame(inputStream)) {
+                decoder.dispatch(mListener);
+            }
+        } catch (IOException ioe) {
+            if (!mIsClosed) {
+                Log.e(LOG_TAG, "Connection to " + mHost + ":" + mPort + " lost", ioe);
+            }
+        } finally {
+            mIsClosed = true;
+            endStream();
+            closeSocket();
+            mListener.onDisconnected();
+        }
+    }
+
+    private void endStream() {
+        // make room for the end, the frames still queued are dropped anyway.
+        mOutbox.clear();
+        mOutbox.offer(END_OF_STREAM);
+    }
+
+    private void writeLoop(OutputStream outputStream) {
+        final ArrayList<byte[]> batch = new ArrayList<byte[]>();
+        try {
+            while (true) {
+                batch.add(mOutbox.take());
+                mOutbox.drainTo(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    final byte[] frames = batch.get(i);
+                    if (frames == END_OF_STREAM) {
+                        return;
+                    }
+                    outputStream.write(frames);
+                }
+                batch.clear();
+                // one flush, hence usually one packet, for everything that was queued.
+                outputStream.flush();
+            }
+        } catch (IOException ioe) {
+            closeSocket();
+        } catch (InterruptedException interrupted) {
+            closeSocket();
+        }
+    }
+
+    private void closeSocket() {
+        final Socket socket = mSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing more to do.
+            }
+        }
+    }
+}
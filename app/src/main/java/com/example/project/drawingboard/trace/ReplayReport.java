@@ -0,0 +1,81 @@
+package com.example.project.drawingboard.trace;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Outcome of a touch trace replay: how many events were replayed, the frame times seen while
+ * replaying them, and a hash of the resulting image.
+ */
+public class ReplayReport {
+
+    // Frames taking longer than this, i.e. missing a 60Hz vsync by half a frame, count as janky.
+    public static final long JANK_THRESHOLD_NANOS = 25000000L;
+
+    private final int mEventCount;
+    private final long mReplayMillis;
+    private final long[] mSortedFrameIntervals;
+    private final String mImageHash;
+
+    ReplayReport(int eventCount, long replayMillis, long[] frameIntervals, String imageHash) {
+        mEventCount = eventCount;
+        mReplayMillis = replayMillis;
+        mSortedFrameIntervals = frameIntervals.clone();
+        Arrays.sort(mSortedFrameIntervals);
+        mImageHash = imageHash;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public long getReplayMillis() {
+        return mReplayMillis;
+    }
+
+    public int getFrameCount() {
+        return mSortedFrameIntervals.length;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the frame interval, in nanoseconds, at the given percentile, 0 if no frame was
+     * recorded.
+     */
+    public long getFrameIntervalPercentile(int percentile) {
+        if (mSortedFrameIntervals.length == 0) {
+            return 0;
+        }
+        final int index = Math.min(mSortedFrameIntervals.length - 1,
+                mSortedFrameIntervals.length * percentile / 100);
+        return mSortedFrameIntervals[index];
+    }
+
+    public int getJankyFrameCount() {
+        int janky = 0;
+        for (int i = mSortedFrameIntervals.length - 1; i >= 0; i--) {
+            if (mSortedFrameIntervals[i] <= JANK_THRESHOLD_NANOS) {
+                break;
+            }
+            janky++;
+        }
+        return janky;
+    }
+
+    /**
+     * @return hex SHA-1 of the pixels of the view once the replay was done.
+     */
+    public String getImageHash() {
+        return mImageHash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d events in %dms, %d frames: p50 %.1fms, p90 %.1fms, "
+                        + "p99 %.1fms, max %.1fms, %d janky; image %s",
+                mEventCount, mReplayMillis, getFrameCount(),
+                getFrameIntervalPercentile(50) / 1e6, getFrameIntervalPercentile(90) / 1e6,
+                getFrameIntervalPercentile(99) / 1e6, getFrameIntervalPercentile(100) / 1e6,
+                getJankyFrameCount(), mImageHash);
+    }
+}
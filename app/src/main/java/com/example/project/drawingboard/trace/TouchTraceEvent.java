@@ -0,0 +1,109 @@
+package com.example.project.drawingboard.trace;
+
+import java.util.Arrays;
+
+/**
+ * One recorded touch event: its action, its pointers, and every sample of their positions,
+ * batched history first and current position last, as {@link android.view.MotionEvent} holds
+ * them.
+ *
+ * Instances are meant to be reused across reads, arrays grow as needed and are never shrunk.
+ */
+public class TouchTraceEvent {
+
+    // MotionEvent#getAction(), pointer index included.
+    private int mAction;
+    private int mPointerCount;
+    private int mSampleCount;
+
+    private int[] mPointerIds = new int[2];
+
+    // indexed by sample.
+    private long[] mSampleTimes = new long[4];
+
+    // indexed by sample * pointerCount + pointer.
+    private float[] mX = new float[8];
+    private float[] mY = new float[8];
+    private float[] mPressure = new float[8];
+
+    /**
+     * @return the action of the event, as {@link android.view.MotionEvent#getAction()}.
+     */
+    public int getAction() {
+        return mAction;
+    }
+
+    public int getPointerCount() {
+        return mPointerCount;
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getPointerId(int pointer) {
+        return mPointerIds[pointer];
+    }
+
+    public long getSampleTime(int sample) {
+        return mSampleTimes[sample];
+    }
+
+    public float getX(int sample, int pointer) {
+        return mX[sample * mPointerCount + pointer];
+    }
+
+    public float getY(int sample, int pointer) {
+        return mY[sample * mPointerCount + pointer];
+    }
+
+    public float getPressure(int sample, int pointer) {
+        return mPressure[sample * mPointerCount + pointer];
+    }
+
+    /**
+     * @return time of the current, i.e. last, sample of the event.
+     */
+    public long getEventTime() {
+        return mSampleTimes[mSampleCount - 1];
+    }
+
+    void setAction(int action) {
+        mAction = action;
+    }
+
+    /**
+     * Sets the counts of the event, growing the arrays to fit them.
+     */
+    void setCounts(int pointerCount, int sampleCount) {
+        mPointerCount = pointerCount;
+        mSampleCount = sampleCount;
+        if (mPointerIds.length < pointerCount) {
+            mPointerIds = Arrays.copyOf(mPointerIds, pointerCount);
+        }
+        if (mSampleTimes.length < sampleCount) {
+            mSampleTimes = Arrays.copyOf(mSampleTimes, sampleCount);
+        }
+        final int values = pointerCount * sampleCount;
+        if (mX.length < values) {
+            mX = Arrays.copyOf(mX, values);
+            mY = Arrays.copyOf(mY, values);
+            mPressure = Arrays.copyOf(mPressure, values);
+        }
+    }
+
+    void setPointerId(int pointer, int id) {
+        mPointerIds[pointer] = id;
+    }
+
+    void setSampleTime(int sample, long time) {
+        mSampleTimes[sample] = time;
+    }
+
+    void setPointer(int sample, int pointer, float x, float y, float pressure) {
+        final int index = sample * mPointerCount + pointer;
+        mX[index] = x;
+        mY[index] = y;
+        mPressure[index] = pressure;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.project.drawingboard.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads back, event by event, a trace written by {@link TouchTraceWriter}.
+ */
+public class TouchTraceReader implements Closeable {
+
+    private final InputStream mInputStream;
+    private final int mViewWidth;
+    private final int mViewHeight;
+    private final boolean mIsDeltaCoded;
+    private long mLastSampleTime = 0;
+    private int[] mLastX = new int[2];
+    private int[] mLastY = new int[2];
+
+    public TouchTraceReader(InputStream inputStream) throws IOException {
+        mInputStream = new BufferedInputStream(inputStream);
+        final int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        if (magic != TouchTraceWriter.MAGIC) {
+            throw new IOException("Not a touch trace");
+        }
+        final int version = readByte();
+        if (version != TouchTraceWriter.VERSION && version != TouchTraceWriter.VERSION_1) {
+            throw new IOException("Unsupported touch trace version " + version);
+        }
+        mIsDeltaCoded = version != TouchTraceWriter.VERSION_1;
+        mViewWidth = readVarint();
+        mViewHeight = readVarint();
+    }
+
+    /**
+     * @return width of the view the trace was recorded on.
+     */
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    /**
+     * @return height of the view the trace was recorded on.
+     */
+    public int getViewHeight() {
+        return mViewHeight;
+    }
+
+    /**
+     * Reads the next event into the given one. Sample times are relative to the first sample of
+     * the trace.
+     *
+     * @return false once the end of the trace is reached.
+     */
+    public boolean read(TouchTraceEvent event) throws IOException {
+        final int action = mInputStream.read();
+        if (action < 0) {
+            return false;
+        }
+        event.setAction(continueVarint(action));
+        final int pointerCount = readVarint();
+        final int sampleCount = readVarint();
+        event.setCounts(pointerCount, sampleCount);
+        for (int p = 0; p < pointerCount; p++) {
+            event.setPointerId(p, readVarint());
+        }
+        if (mLastX.length < pointerCount) {
+            mLastX = Arrays.copyOf(mLastX, pointerCount);
+            mLastY = Arrays.copyOf(mLastY, pointerCount);
+        }
+        for (int s = 0; s < sampleCount; s++) {
+            mLastSampleTime += readVarint();
+            event.setSampleTime(s, mLastSampleTime);
+            for (int p = 0; p < pointerCount; p++) {
+                int x = unzigzag(readVarint());
+                int y = unzigzag(readVarint());
+                if (mIsDeltaCoded) {
+                    x += mLastX[p];
+                    y += mLastY[p];
+                    mLastX[p] = x;
+                    mLastY[p] = y;
+                }
+                event.setPointer(s, p, x / TouchTraceWriter.COORDINATE_SCALE,
+                        y / TouchTraceWriter.COORDINATE_SCALE,
+                        readByte() / TouchTraceWriter.PRESSURE_SCALE);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInputStream.close();
+    }
+
+    private int readByte() throws IOException {
+        final int b = mInputStream.read();
+        if (b < 0) {
+            throw new EOFException("Touch trace ended inside an event");
+        }
+        return b;
+    }
+
+    private int readVarint() throws IOException {
+        return continueVarint(readByte());
+    }
+
+    private int continueVarint(int firstByte) throws IOException {
+        int value = firstByte & 0x7F;
+        int b = firstByte;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Malformed touch trace");
+            }
+            b = readByte();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
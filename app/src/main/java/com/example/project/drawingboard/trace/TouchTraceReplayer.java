@@ -0,0 +1,231 @@
+package com.example.project.drawingboard.trace;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Feeds a recorded touch trace into a view, either at the pace it was recorded at or as fast as
+ * the view takes it, and reports how the view kept up: frame-time statistics over the replay and
+ * a hash of the image the view ends up showing.
+ *
+ * Replaying blocks the calling thread, which must not be the UI thread, e.g. an instrumentation
+ * test thread. Events are dispatched on the UI thread.
+ */
+public class TouchTraceReplayer {
+
+    private final View mTarget;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // reused across events.
+    private MotionEvent.PointerProperties[] mPointerProperties =
+            new MotionEvent.PointerProperties[0];
+    private MotionEvent.PointerCoords[] mPointerCoords = new MotionEvent.PointerCoords[0];
+
+    public TouchTraceReplayer(View target) {
+        mTarget = target;
+    }
+
+    /**
+     * Replays the trace into the target view.
+     *
+     * @param realTime true to dispatch events at their recorded times, false to dispatch them
+     *                 back to back.
+     */
+    public ReplayReport replay(InputStream trace, boolean realTime)
+            throws IOException, InterruptedException {
+        final TouchTraceReader reader = new TouchTraceReader(trace);
+        final TouchTraceEvent event = new TouchTraceEvent();
+        final FrameTimeRecorder frames = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new FrameTimeRecorder()
+                : null;
+        if (frames != null) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    frames.start();
+                }
+            });
+        }
+
+        final long replayStart = SystemClock.uptimeMillis();
+        long downTime = replayStart;
+        int eventCount = 0;
+        while (reader.read(event)) {
+            final long timeOffset;
+            if (realTime) {
+                timeOffset = replayStart;
+                final long wait = timeOffset + event.getEventTime() - SystemClock.uptimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            } else {
+                timeOffset = SystemClock.uptimeMillis() - event.getEventTime();
+            }
+            if ((event.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+                downTime = timeOffset + event.getEventTime();
+            }
+
+            final MotionEvent motionEvent = toMotionEvent(event, downTime, timeOffset);
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    mTarget.dispatchTouchEvent(motionEvent);
+                    motionEvent.recycle();
+                }
+            });
+            eventCount++;
+        }
+        reader.close();
+
+        final long replayMillis = SystemClock.uptimeMillis() - replayStart;
+        final String[] imageHash = new String[1];
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (frames != null) {
+                    frames.stop();
+                }
+                imageHash[0] = hashViewImage(mTarget);
+            }
+        });
+
+        return new ReplayReport(eventCount, replayMillis,
+                frames != null ? frames.getFrameIntervals() : new long[0], imageHash[0]);
+    }
+
+    private MotionEvent toMotionEvent(TouchTraceEvent event, long downTime, long timeOffset) {
+        final int pointerCount = event.getPointerCount();
+        if (mPointerCoords.length < pointerCount) {
+            mPointerProperties = Arrays.copyOf(mPointerProperties, pointerCount);
+            mPointerCoords = Arrays.copyOf(mPointerCoords, pointerCount);
+            for (int p = 0; p < pointerCount; p++) {
+                if (mPointerCoords[p] == null) {
+                    mPointerProperties[p] = new MotionEvent.PointerProperties();
+                    mPointerCoords[p] = new MotionEvent.PointerCoords();
+                }
+            }
+        }
+        for (int p = 0; p < pointerCount; p++) {
+            mPointerProperties[p].clear();
+            mPointerProperties[p].id = event.getPointerId(p);
+            mPointerProperties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+        }
+
+        setCoords(event, 0);
+        MotionEvent motionEvent = MotionEvent.obtain(downTime,
+                timeOffset + event.getSampleTime(0), event.getAction(), pointerCount,
+                mPointerProperties, mPointerCoords, 0, 0, 1f, 1f, 0, 0,
+                InputDevice.SOURCE_TOUCHSCREEN, 0);
+        for (int s = 1; s < event.getSampleCount(); s++) {
+            setCoords(event, s);
+            motionEvent.addBatch(timeOffset + event.getSampleTime(s), mPointerCoords, 0);
+        }
+        return motionEvent;
+    }
+
+    private void setCoords(TouchTraceEvent event, int sample) {
+        for (int p = 0; p < event.getPointerCount(); p++) {
+            mPointerCoords[p].clear();
+            mPointerCoords[p].x = event.getX(sample, p);
+            mPointerCoords[p].y = event.getY(sample, p);
+            mPointerCoords[p].pressure = event.getPressure(sample, p);
+            mPointerCoords[p].size = 1f;
+        }
+    }
+
+    private void runOnMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        done.await();
+    }
+
+    /**
+     * @return hex SHA-1 of the pixels the view draws.
+     */
+    public static String hashViewImage(View view) {
+        Bitmap image = Bitmap.createBitmap(view.getWidth(), view.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(image));
+        ByteBuffer pixels = ByteBuffer.allocate(image.getRowBytes() * image.getHeight());
+        image.copyPixelsToBuffer(pixels);
+        image.recycle();
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(pixels.array());
+            StringBuilder hex = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException noSha1) {
+            throw new IllegalStateException(noSha1);
+        }
+    }
+
+    /**
+     * Records the interval between consecutive frames, while started.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameTimeRecorder implements Choreographer.FrameCallback {
+        private long[] mIntervals = new long[256];
+        private int mIntervalCount = 0;
+        private long mLastFrameTime = -1;
+        private boolean mIsRunning = false;
+
+        void start() {
+            mIsRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mIsRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mIsRunning) {
+                return;
+            }
+            if (mLastFrameTime >= 0) {
+                if (mIntervalCount == mIntervals.length) {
+                    mIntervals = Arrays.copyOf(mIntervals, 2 * mIntervals.length);
+                }
+                mIntervals[mIntervalCount++] = frameTimeNanos - mLastFrameTime;
+            }
+            mLastFrameTime = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        long[] getFrameIntervals() {
+            return Arrays.copyOf(mIntervals, mIntervalCount);
+        }
+    }
+}
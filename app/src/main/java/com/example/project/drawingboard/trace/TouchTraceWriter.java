@@ -0,0 +1,219 @@
+package com.example.project.drawingboard.trace;
+
+import android.view.MotionEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records a stream of {@link MotionEvent}s, including their batched history, into a compact
+ * trace that {@link TouchTraceReader} reads back.
+ *
+ * A trace starts with a header:
+ * <pre>
+ *   i32    magic "DBTR"
+ *   u8     version
+ *   varint width, varint height of the recorded view
+ * </pre>
+ * followed by events:
+ * <pre>
+ *   varint action, varint pointer count, varint sample count
+ *   pointer count x varint pointer id
+ *   sample count x (varint time since the previous sample, in ms,
+ *                   pointer count x (zigzag varint dx, zigzag varint dy, u8 pressure))
+ * </pre>
+ * Coordinates are stored in 1/{@link #COORDINATE_SCALE} of a pixel, as deltas from the pointer
+ * at the same index in the previous sample of the trace, or from 0 for the first one. Version 1
+ * traces store them as is. Pressure is stored in 1/{@link #PRESSURE_SCALE}, capped to a byte.
+ *
+ * Recording only copies the event, on the calling thread. Events are encoded and written out by
+ * a thread owned by the writer.
+ */
+public class TouchTraceWriter implements Closeable {
+
+    private static final String LOG_TAG = TouchTraceWriter.class.getSimpleName();
+
+    static final int MAGIC = 0x44425452;
+    static final int VERSION = 2;
+    // coordinates not delta coded.
+    static final int VERSION_1 = 1;
+
+    static final float COORDINATE_SCALE = 16f;
+    static final float PRESSURE_SCALE = 128f;
+
+    // events recorded but not written yet, past which recording fails rather than blocks.
+    private static final int MAX_EVENTS_IN_FLIGHT = 256;
+
+    // signals the writer thread to stop.
+    private static final TouchTraceEvent END_OF_TRACE = new TouchTraceEvent();
+
+    private final OutputStream mOutputStream;
+    private final BlockingQueue<TouchTraceEvent> mFreeEvents =
+            new ArrayBlockingQueue<TouchTraceEvent>(MAX_EVENTS_IN_FLIGHT);
+    private final BlockingQueue<TouchTraceEvent> mPendingEvents =
+            new ArrayBlockingQueue<TouchTraceEvent>(MAX_EVENTS_IN_FLIGHT + 1);
+    private final Thread mWriter;
+    private volatile IOException mWriteError;
+
+    // Encoding state, only accessed from the writer thread.
+    private long mLastSampleTime = -1;
+    private int[] mLastX = new int[2];
+    private int[] mLastY = new int[2];
+
+    public TouchTraceWriter(OutputStream outputStream, int viewWidth, int viewHeight)
+            throws IOException {
+        mOutputStream = new BufferedOutputStream(outputStream);
+        writeInt(MAGIC);
+        mOutputStream.write(VERSION);
+        writeVarint(viewWidth);
+        writeVarint(viewHeight);
+
+        for (int i = 0; i < MAX_EVENTS_IN_FLIGHT; i++) {
+            mFreeEvents.add(new TouchTraceEvent());
+        }
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, LOG_TAG + "-writer");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Appends the event to the trace. The event is copied, not retained. Never blocks.
+     *
+     * @throws IOException if writing an earlier event failed, or if the writer fell too far
+     * behind.
+     */
+    public void record(MotionEvent event) throws IOException {
+        if (mWriteError != null) {
+            throw mWriteError;
+        }
+        final TouchTraceEvent copy = mFreeEvents.poll();
+        if (copy == null) {
+            throw new IOException("Touch trace writer fell behind");
+        }
+        final int pointerCount = event.getPointerCount();
+        final int historySize = event.getHistorySize();
+        copy.setAction(event.getAction());
+        copy.setCounts(pointerCount, historySize + 1);
+        for (int p = 0; p < pointerCount; p++) {
+            copy.setPointerId(p, event.getPointerId(p));
+        }
+        for (int h = 0; h < historySize; h++) {
+            copy.setSampleTime(h, event.getHistoricalEventTime(h));
+            for (int p = 0; p < pointerCount; p++) {
+                copy.setPointer(h, p, event.getHistoricalX(p, h), event.getHistoricalY(p, h),
+                        event.getHistoricalPressure(p, h));
+            }
+        }
+        copy.setSampleTime(historySize, event.getEventTime());
+        for (int p = 0; p < pointerCount; p++) {
+            copy.setPointer(historySize, p, event.getX(p), event.getY(p), event.getPressure(p));
+        }
+        mPendingEvents.add(copy);
+    }
+
+    /**
+     * Writes out the events recorded so far, and closes the trace.
+     */
+    @Override
+    public void close() throws IOException {
+        mPendingEvents.add(END_OF_TRACE);
+        try {
+            mWriter.join();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing the touch trace");
+        } finally {
+            mOutputStream.close();
+        }
+        if (mWriteError != null) {
+            throw mWriteError;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final TouchTraceEvent event = mPendingEvents.take();
+                if (event == END_OF_TRACE) {
+                    break;
+                }
+                write(event);
+                mFreeEvents.add(event);
+            }
+            mOutputStream.flush();
+        } catch (IOException ioe) {
+            mWriteError = ioe;
+        } catch (InterruptedException interrupted) {
+            mWriteError = new InterruptedIOException("Touch trace writer interrupted");
+        }
+    }
+
+    private void write(TouchTraceEvent event) throws IOException {
+        final int pointerCount = event.getPointerCount();
+        writeVarint(event.getAction());
+        writeVarint(pointerCount);
+        writeVarint(event.getSampleCount());
+        for (int p = 0; p < pointerCount; p++) {
+            writeVarint(event.getPointerId(p));
+        }
+        if (mLastX.length < pointerCount) {
+            mLastX = Arrays.copyOf(mLastX, pointerCount);
+            mLastY = Arrays.copyOf(mLastY, pointerCount);
+        }
+        for (int s = 0; s < event.getSampleCount(); s++) {
+            writeSampleTime(event.getSampleTime(s));
+            for (int p = 0; p < pointerCount; p++) {
+                writePointer(p, event.getX(s, p), event.getY(s, p), event.getPressure(s, p));
+            }
+        }
+    }
+
+    private void writeSampleTime(long sampleTime) throws IOException {
+        if (mLastSampleTime < 0) {
+            mLastSampleTime = sampleTime;
+        }
+        writeVarint((int) Math.max(0, sampleTime - mLastSampleTime));
+        mLastSampleTime = sampleTime;
+    }
+
+    private void writePointer(int pointer, float x, float y, float pressure)
+            throws IOException {
+        final int scaledX = Math.round(x * COORDINATE_SCALE);
+        final int scaledY = Math.round(y * COORDINATE_SCALE);
+        writeVarint(zigzag(scaledX - mLastX[pointer]));
+        writeVarint(zigzag(scaledY - mLastY[pointer]));
+        mLastX[pointer] = scaledX;
+        mLastY[pointer] = scaledY;
+        mOutputStream.write(Math.max(0, Math.min(255, Math.round(pressure * PRESSURE_SCALE))));
+    }
+
+    private void writeInt(int value) throws IOException {
+        mOutputStream.write(value >>> 24);
+        mOutputStream.write(value >>> 16);
+        mOutputStream.write(value >>> 8);
+        mOutputStream.write(value);
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            mOutputStream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mOutputStream.write(value);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
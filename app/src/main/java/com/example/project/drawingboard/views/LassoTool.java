@@ -0,0 +1,182 @@
+package com.example.project.drawingboard.views;
+
+import com.example.project.drawingboard.models.DrawingPathCacheStore;
+import com.example.project.drawingboard.models.StrokeSelection;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.DashPathEffect;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.view.MotionEvent;
+
+import java.util.Arrays;
+
+/**
+ * Turns the touches a {@link PaintCanvas} receives while in lasso mode into a selection of
+ * strokes, and the selection into a transform.
+ *
+ * Drawing a loop selects the strokes inside it. Dragging the selection with one finger moves
+ * it, two fingers also scale and rotate it about their midpoint. Touching outside the selection
+ * puts it back and starts a new loop.
+ */
+class LassoTool {
+
+    private static final float TOUCH_TOLERANCE = 4;
+
+    private final DrawingPathCacheStore mStore;
+
+    // the loop being drawn, as a path to show and as x, y pairs to hit test against.
+    private final Path mLassoPath = new Path();
+    private final Paint mLassoPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private float[] mLassoPoints = new float[256];
+    private int mLassoPointCount = 0;
+
+    // true while the touches move the selection rather than draw a loop.
+    private boolean mIsTransforming = false;
+    // focus, span and angle of the pointers, as of the last touch event.
+    private float mFocusX, mFocusY, mSpan, mAngle;
+    private int mPointerCount;
+
+    LassoTool(DrawingPathCacheStore store) {
+        mStore = store;
+        mLassoPaint.setStyle(Paint.Style.STROKE);
+        mLassoPaint.setStrokeWidth(2f);
+        mLassoPaint.setColor(Color.GRAY);
+        mLassoPaint.setPathEffect(new DashPathEffect(new float[]{12f, 8f}, 0));
+    }
+
+    void onTouchEvent(MotionEvent event) {
+        final float x = event.getX();
+        final float y = event.getY();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                final StrokeSelection selection = mStore.getSelection();
+                mIsTransforming = selection != null && selection.contains(x, y);
+                if (mIsTransforming) {
+                    measurePointers(event, -1);
+                } else {
+                    mStore.applySelection();
+                    mLassoPath.reset();
+                    mLassoPath.moveTo(x, y);
+                    mLassoPointCount = 0;
+                    addLassoPoint(x, y);
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (mIsTransforming) {
+                    measurePointers(event, -1);
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                if (mIsTransforming) {
+                    // carry on with the pointers left.
+                    measurePointers(event, event.getActionIndex());
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mIsTransforming) {
+                    transformSelection(event);
+                } else if (Math.abs(x - mLassoPoints[2 * mLassoPointCount - 2]) >= TOUCH_TOLERANCE
+                        || Math.abs(y - mLassoPoints[2 * mLassoPointCount - 1])
+                        >= TOUCH_TOLERANCE) {
+                    mLassoPath.lineTo(x, y);
+                    addLassoPoint(x, y);
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (!mIsTransforming) {
+                    mStore.selectStrokes(mLassoPoints, mLassoPointCount);
+                }
+                mLassoPath.reset();
+                mIsTransforming = false;
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mLassoPath.reset();
+                mIsTransforming = false;
+                break;
+        }
+    }
+
+    /**
+     * Draws the loop being drawn, if any. The selection itself is drawn with the layers.
+     */
+    void draw(Canvas canvas) {
+        if (!mLassoPath.isEmpty()) {
+            canvas.drawPath(mLassoPath, mLassoPaint);
+        }
+    }
+
+    /**
+     * Puts back any selection, before leaving lasso mode.
+     */
+    void finish() {
+        mLassoPath.reset();
+        mStore.applySelection();
+    }
+
+    private void addLassoPoint(float x, float y) {
+        if (2 * mLassoPointCount == mLassoPoints.length) {
+            mLassoPoints = Arrays.copyOf(mLassoPoints, 2 * mLassoPoints.length);
+        }
+        mLassoPoints[2 * mLassoPointCount] = x;
+        mLassoPoints[2 * mLassoPointCount + 1] = y;
+        mLassoPointCount++;
+    }
+
+    private void transformSelection(MotionEvent event) {
+        final StrokeSelection selection = mStore.getSelection();
+        final float lastFocusX = mFocusX;
+        final float lastFocusY = mFocusY;
+        final float lastSpan = mSpan;
+        final float lastAngle = mAngle;
+        final int lastPointerCount = mPointerCount;
+        measurePointers(event, -1);
+        if (selection == null || mPointerCount != lastPointerCount) {
+            return;
+        }
+        final Matrix transform = selection.getTransform();
+        transform.postTranslate(mFocusX - lastFocusX, mFocusY - lastFocusY);
+        if (mPointerCount >= 2 && lastSpan > 0) {
+            final float scale = mSpan / lastSpan;
+            transform.postScale(scale, scale, mFocusX, mFocusY);
+            transform.postRotate((float) Math.toDegrees(mAngle - lastAngle), mFocusX, mFocusY);
+        }
+    }
+
+    /**
+     * Measures the midpoint, distance and angle of the first two pointers down.
+     *
+     * @param skipIndex index of a pointer going up, to leave out, or -1.
+     */
+    private void measurePointers(MotionEvent event, int skipIndex) {
+        float x0 = 0, y0 = 0, x1 = 0, y1 = 0;
+        int count = 0;
+        for (int i = 0; i < event.getPointerCount() && count < 2; i++) {
+            if (i == skipIndex) {
+                continue;
+            }
+            if (count == 0) {
+                x0 = event.getX(i);
+                y0 = event.getY(i);
+            } else {
+                x1 = event.getX(i);
+                y1 = event.getY(i);
+            }
+            count++;
+        }
+        mPointerCount = count;
+        if (count < 2) {
+            mFocusX = x0;
+            mFocusY = y0;
+            mSpan = 0;
+            mAngle = 0;
+        } else {
+            mFocusX = (x0 + x1) / 2;
+            mFocusY = (y0 + y1) / 2;
+            mSpan = (float) Math.hypot(x1 - x0, y1 - y0);
+            mAngle = (float) Math.atan2(y1 - y0, x1 - x0);
+        }
+    }
+}
@@ -1,7 +1,17 @@
 package com.example.project.drawingboard.views;
 
 import com.example.project.drawingboard.BuildConfig;
+import com.example.project.drawingboard.models.BackgroundImageLayer;
+import com.example.project.drawingboard.models.CanvasSnapshot;
+import com.example.project.drawingboard.models.DrawingDocument;
 import com.example.project.drawingboard.models.DrawingPathCacheStore;
+import com.example.project.drawingboard.models.DrawingSnapshot;
+import com.example.project.drawingboard.models.DrawingWorkspace;
+import com.example.project.drawingboard.models.HistoryPlayback;
+import com.example.project.drawingboard.models.LayerStack;
+import com.example.project.drawingboard.models.StrokeHistory;
+import com.example.project.drawingboard.sync.SharedBoardSession;
+import com.example.project.drawingboard.trace.TouchTraceWriter;
 
 import android.app.Activity;
 import android.content.Context;
@@ -10,12 +20,18 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * Created by ritwaj.ratan on 1/10/2016.
  */
@@ -38,6 +54,15 @@ public class PaintCanvas extends View {
     // Holds the paint style and color information.
     private Paint mPaintConfig = new Paint();
 
+    // the stroke in progress is shown with this paint, the active layer opacity applied, until
+    // it is committed to that layer on touch up.
+    private final Paint mLivePaint = new Paint();
+
+    // x, y of the points the stroke in progress goes through, recorded in the stroke history
+    // on touch up. Grows by doubling so that long strokes stop allocating once warmed up.
+    private float[] mStrokePoints = new float[256];
+    private int mStrokePointCount = 0;
+
     // Default assumptions for paint configuration.
     private int mCurrentPaintColor = Color.WHITE;
     private final float STROKE_WIDTH = 5f;
@@ -47,6 +72,31 @@ public class PaintCanvas extends View {
     private boolean mIsDirty = false;
     private float mX, mY;
 
+    // non null while the stroke history is being played back instead of the live drawing.
+    private HistoryPlayback mPlayback;
+    // non null while the layers of the playback to start are being allocated.
+    private AsyncTask<Void, Void, HistoryPlayback> mPlaybackTask;
+    private long mPlaybackStartTime;
+    private float mPlaybackSpeed;
+
+    // non null while this canvas is connected to a shared board.
+    private SharedBoardSession mSharedBoard;
+
+    // non null while the touch events this canvas receives are being recorded.
+    private TouchTraceWriter mTouchTrace;
+
+    // non null while touches select and transform strokes instead of drawing.
+    private LassoTool mLasso;
+
+    // redraws the canvas once the drawing of a previous session is back.
+    private final DrawingPathCacheStore.OnSnapshotRestoredListener mSnapshotRestoredListener =
+            new DrawingPathCacheStore.OnSnapshotRestoredListener() {
+                @Override
+                public void onSnapshotRestored(boolean isRestored) {
+                    invalidate();
+                }
+            };
+
     // Threshold (in number of pixels) under which we do not consider translating user events to
     // the canvas.
     private static final float TOUCH_TOLERANCE = 4;
@@ -81,7 +131,28 @@ public class PaintCanvas extends View {
             mCacheManager = DrawingPathCacheStore.newInstance();
             fragmentManager.beginTransaction().add(mCacheManager, DrawingPathCacheStore.LOG_TAG)
                     .commit();
+        } else if (mCacheManager.getLayerStack().getBackground() != null) {
+            // the retained background image outlived the previous view.
+            mCacheManager.getLayerStack().getBackground().setTargetView(this);
         }
+        // pick up the drawings where the previous session left them. Both do nothing once the
+        // store has done it, but a store re-created empty from saved state after the process
+        // was killed has not, although it is found.
+        mCacheManager.openWorkspace(DrawingWorkspace.getSpillDirectory(context),
+                DrawingWorkspace.getMemoryBudget(context));
+        mCacheManager.restoreSnapshot(CanvasSnapshot.getFile(context));
+        mCacheManager.setOnSnapshotRestoredListener(mSnapshotRestoredListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // do not let the retained background image hold on to this view.
+        BackgroundImageLayer background = mCacheManager.getLayerStack().getBackground();
+        if (background != null) {
+            background.setTargetView(null);
+        }
+        mCacheManager.setOnSnapshotRestoredListener(null);
     }
 
     /**
@@ -105,13 +176,7 @@ public class PaintCanvas extends View {
         mPaintConfig.setColor(Color.BLACK);
 
         mPaintConfig.setStrokeWidth(STROKE_WIDTH);
-        mPaintConfig.setStyle(Paint.Style.STROKE);
-
-        // smoothen out the edges and path joins.
-        mPaintConfig.setAntiAlias(true);
-        mPaintConfig.setStrokeCap(Paint.Cap.ROUND);
-        mPaintConfig.setStrokeJoin(Paint.Join.ROUND);
-
+        StrokeHistory.applyStrokeStyle(mPaintConfig);
     }
 
 
@@ -131,21 +196,135 @@ public class PaintCanvas extends View {
         // All the drawing on the view should take place from here as this is the actual canvas
         // which backs up the view.
         // Ref: http://developer.android.com/guide/topics/graphics/2d-graphics.html#draw-with-canvas
-        canvas.drawColor(Color.WHITE);
-        canvas.drawBitmap(mCacheManager.getBitmap(), 0, 0, mPaintConfig);
-        canvas.drawPath(mDisconnectedPath, mPaintConfig);
+        if (mPlayback != null) {
+            if (mSharedBoard != null && !mCacheManager.isRestoring()) {
+                // remote strokes keep landing on the drawing, which shows once playback ends.
+                mSharedBoard.applyRemoteDeltas(mCacheManager, mPaintConfig);
+            }
+            drawPlayback(canvas);
+            return;
+        }
+        if (mCacheManager.isRestoring()) {
+            // blank paper until the previous drawing is back.
+            canvas.drawColor(LayerStack.PAPER_COLOR);
+            return;
+        }
+
+        if (mSharedBoard != null) {
+            mSharedBoard.applyRemoteDeltas(mCacheManager, mPaintConfig);
+        }
+
+        // the stroke in progress is only drawn over the layers here, it goes into the active
+        // layer once on touch up, so a frame costs the same whatever the stroke length.
+        if (mDisconnectedPath.isEmpty()) {
+            mCacheManager.drawLayers(canvas);
+        } else {
+            mCacheManager.drawLayers(canvas, mDisconnectedPath, mLivePaint);
+        }
+        if (mLasso != null) {
+            mLasso.draw(canvas);
+        }
+
+        if (mSharedBoard != null) {
+            // everything the user drew during this frame goes out as one batch.
+            mSharedBoard.flush();
+        }
+
+    }
+
+    private void drawPlayback(Canvas canvas) {
+        final long elapsed = SystemClock.uptimeMillis() - mPlaybackStartTime;
+        mPlayback.advanceTo((long) (elapsed * mPlaybackSpeed));
+        mPlayback.draw(canvas);
+
+        if (mPlayback.isFinished()) {
+            // the live drawing is what the playback ends on, so hand over to it.
+            stopPlayback();
+        } else {
+            invalidate();
+        }
+    }
+
+    /**
+     * Replays the strokes drawn so far, from a blank canvas, at the pace they were drawn. Touching
+     * the canvas stops the playback. It starts once its layers are allocated, in the background.
+     *
+     * @param speed how many times faster than it was drawn the drawing is replayed.
+     */
+    public void startPlayback(final float speed) {
+        stopPlayback();
+        final HistoryPlayback playback = mCacheManager.createPlayback();
+        mPlaybackTask = new AsyncTask<Void, Void, HistoryPlayback>() {
+            @Override
+            protected HistoryPlayback doInBackground(Void... params) {
+                playback.prepare();
+                return playback;
+            }
+
+            @Override
+            protected void onPostExecute(HistoryPlayback prepared) {
+                mPlaybackTask = null;
+                mPlayback = prepared;
+                mPlaybackSpeed = speed;
+                mPlaybackStartTime = SystemClock.uptimeMillis();
+                invalidate();
+            }
 
-        // save off whatever we draw on screen, to the cache.
-        mCacheManager.commitToCache(mDisconnectedPath, mPaintConfig);
+            @Override
+            protected void onCancelled(HistoryPlayback prepared) {
+                playback.release();
+            }
+        }.execute();
+    }
 
+    /**
+     * Stops any ongoing playback and shows the live drawing again.
+     */
+    public void stopPlayback() {
+        if (mPlaybackTask != null) {
+            mPlaybackTask.cancel(false);
+            mPlaybackTask = null;
+        }
+        if (mPlayback != null) {
+            mPlayback.release();
+            mPlayback = null;
+            invalidate();
+        }
+    }
 
+    /**
+     * @return a playback of the strokes drawn so far, for exporting. The caller owns the
+     * playback and must release it.
+     */
+    public HistoryPlayback createPlayback() {
+        return mCacheManager.createPlayback();
+    }
+
+    /**
+     * @return the live stroke history, for exporting the strokes drawn so far.
+     */
+    public StrokeHistory getStrokeHistory() {
+        return mCacheManager.getStrokeHistory();
     }
 
     private void touchStart(float x, float y) {
+        // a selection left over from lasso mode goes back before drawing on.
+        mCacheManager.applySelection();
         mDisconnectedPath.reset();
         mDisconnectedPath.moveTo(x, y);
         mX = x;
         mY = y;
+        mStrokePointCount = 0;
+        addStrokePoint(x, y);
+
+        // the stroke is shown over the active layer until touch up, with its opacity.
+        mLivePaint.set(mPaintConfig);
+        final int layerOpacity = mCacheManager.getLayerStack().getActiveLayer().getOpacity();
+        mLivePaint.setAlpha(mPaintConfig.getAlpha() * layerOpacity / 255);
+        if (mSharedBoard != null) {
+            mSharedBoard.beginLocalStroke(x, y, mPaintConfig.getColor(),
+                    mPaintConfig.getStrokeWidth());
+        }
     }
 
     // Keeps extending the path with normalized curve to the path since last TOUCH_DOWN
@@ -156,17 +335,66 @@ public class PaintCanvas extends View {
             mDisconnectedPath.quadTo(mX, mY, (x + mX) / 2, (y + mY) / 2);
             mX = x;
             mY = y;
+            addStrokePoint(x, y);
+            if (mSharedBoard != null) {
+                mSharedBoard.addLocalPoint(x, y);
+            }
         }
     }
 
     private void touchUp() {
         mDisconnectedPath.lineTo(mX, mY);
-        // clear the path, to pickup only the delta.
+        // the whole stroke goes into the active layer, and the history, at once.
+        mCacheManager.commitStroke(mDisconnectedPath, mPaintConfig, mStrokePoints,
+                mStrokePointCount);
         mDisconnectedPath.reset();
+        mStrokePointCount = 0;
+        if (mSharedBoard != null) {
+            mSharedBoard.endLocalStroke();
+        }
+    }
+
+    // the stroke was taken over, e.g. by a parent scrolling, it is dropped rather than committed.
+    private void touchCancel() {
+        mDisconnectedPath.reset();
+        mStrokePointCount = 0;
+        if (mSharedBoard != null) {
+            mSharedBoard.endLocalStroke();
+        }
+    }
+
+    private void addStrokePoint(float x, float y) {
+        if (2 * mStrokePointCount == mStrokePoints.length) {
+            mStrokePoints = Arrays.copyOf(mStrokePoints, 2 * mStrokePoints.length);
+        }
+        mStrokePoints[2 * mStrokePointCount] = x;
+        mStrokePoints[2 * mStrokePointCount + 1] = y;
+        mStrokePointCount++;
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        if (mTouchTrace != null) {
+            try {
+                mTouchTrace.record(event);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Touch trace recording failed, stopping it", e);
+                mTouchTrace = null;
+            }
+        }
+        if (mCacheManager.isRestoring()) {
+            // nothing can be drawn until the layers are back.
+            return true;
+        }
+        if (mPlayback != null || mPlaybackTask != null) {
+            stopPlayback();
+        }
+        if (mLasso != null) {
+            mLasso.onTouchEvent(event);
+            invalidate();
+            return true;
+        }
+
         final float x = event.getX();
         final float y = event.getY();
 
@@ -183,6 +411,10 @@ public class PaintCanvas extends View {
                 touchUp();
                 invalidate();
                 break;
+            case MotionEvent.ACTION_CANCEL:
+                touchCancel();
+                invalidate();
+                break;
         }
 
         if (!mIsDirty) {
@@ -199,11 +431,18 @@ public class PaintCanvas extends View {
     }
 
     /**
-     * @return an immutable copy of the current draw buffer being used internally by PaintCanvas.
+     * @return a copy-on-write snapshot of the drawing, which stays as it is now while the user
+     * keeps drawing. The caller must release it.
+     */
+    public DrawingSnapshot createSnapshot() {
+        return mCacheManager.createSnapshot();
+    }
+
+    /**
+     * Saves the drawing so that it is restored on the next cold start.
      */
-    public Bitmap getBitmap() {
-        setDrawingCacheEnabled(true);
-        return Bitmap.createBitmap(getDrawingCache());
+    public void saveSnapshot() {
+        mCacheManager.saveSnapshot(CanvasSnapshot.getFile(getContext()));
     }
 
     @Override
@@ -219,10 +458,161 @@ public class PaintCanvas extends View {
         super.onRestoreInstanceState(restoreStatesFrom);
     }
 
+    /**
+     * Connects this canvas to a shared board: strokes drawn here are streamed to it, and strokes
+     * received from it are drawn here. Pass null to stop sharing, closing the session is left
+     * to the caller.
+     */
+    public void setSharedBoardSession(SharedBoardSession session) {
+        mSharedBoard = session;
+    }
+
+    /**
+     * Records every touch event this canvas receives into the given trace, or stops recording
+     * if null. The caller owns the trace and closes it.
+     */
+    public void setTouchTraceWriter(TouchTraceWriter touchTrace) {
+        mTouchTrace = touchTrace;
+    }
+
+    /**
+     * Shows the given image under the drawing, fit to this view, to trace over. The image is
+     * opened in the background, and shows up once it is ready.
+     */
+    public void setBackgroundImage(Uri imageUri) {
+        BackgroundImageLayer.open(getContext().getContentResolver(), imageUri, getWidth(),
+                getHeight(), new BackgroundImageLayer.OnOpenedListener() {
+                    @Override
+                    public void onBackgroundImageOpened(BackgroundImageLayer image) {
+                        if (image == null) {
+                            return;
+                        }
+                        image.setTargetView(PaintCanvas.this);
+                        mCacheManager.getLayerStack().setBackground(image);
+                        invalidate();
+                    }
+                });
+    }
+
+    /**
+     * Adds a new empty layer above the current one, subsequent drawing goes to the new layer.
+     */
+    public void addLayer() {
+        mCacheManager.applySelection();
+        mCacheManager.getLayerStack().addLayer();
+        invalidate();
+    }
+
+    /**
+     * Switches between drawing, and selecting strokes of the active layer with a lasso to move,
+     * scale and rotate them. Leaving lasso mode puts the selection back.
+     */
+    public void setLassoMode(boolean isLassoMode) {
+        if (isLassoMode == (mLasso != null)) {
+            return;
+        }
+        if (isLassoMode) {
+            mLasso = new LassoTool(mCacheManager);
+        } else {
+            mLasso.finish();
+            mLasso = null;
+        }
+        invalidate();
+    }
+
+    public boolean isLassoMode() {
+        return mLasso != null;
+    }
+
+    /**
+     * @return how the layers store their pixels, one of the STORAGE_ constants of
+     * {@link LayerStack}.
+     */
+    public int getStorageMode() {
+        return mCacheManager.getLayerStack().getStorageMode();
+    }
+
+    /**
+     * Switches how the layers store their pixels, trading colors for memory.
+     *
+     * @param storageMode one of the STORAGE_ constants of {@link LayerStack}.
+     */
+    public void setStorageMode(int storageMode) {
+        mCacheManager.getLayerStack().setStorageMode(storageMode);
+        invalidate();
+    }
+
+    /**
+     * @return the layers backing this view. Callers changing layer properties through it must
+     * {@link #invalidate()} this view afterwards.
+     */
+    public LayerStack getLayerStack() {
+        return mCacheManager.getLayerStack();
+    }
+
+    /**
+     * @return the drawings open, the one shown first.
+     */
+    public DrawingWorkspace getWorkspace() {
+        return mCacheManager.getWorkspace();
+    }
+
+    /**
+     * Shows a new blank drawing, keeping the current one open.
+     */
+    public void newDocument() {
+        switchToDocument(null);
+    }
+
+    /**
+     * Shows the given open drawing instead of the current one. A drawing spilled to disk shows
+     * up once it is read back.
+     *
+     * @param document the drawing to show, or null for a new blank one.
+     */
+    public void switchToDocument(DrawingDocument document) {
+        stopPlayback();
+        mDisconnectedPath.reset();
+        BackgroundImageLayer background = mCacheManager.getLayerStack().getBackground();
+        if (background != null) {
+            background.setTargetView(null);
+        }
+        if (document == null) {
+            mCacheManager.newDocument();
+        } else {
+            mCacheManager.switchToDocument(document);
+        }
+        background = mCacheManager.getLayerStack().getBackground();
+        if (background != null) {
+            background.setTargetView(this);
+        }
+        invalidate();
+    }
+
+    /**
+     * Shows a saved version of a drawing as a new drawing, keeping the current one open. New
+     * versions of it are saved along with the one it came from.
+     *
+     * @param image the pixels of the version, the caller recycles it.
+     * @return false if no new drawing can be opened yet, the previous one is still being read
+     * back.
+     */
+    public boolean openVersion(Bitmap image, long versionedDrawingId) {
+        if (mCacheManager.isRestoring()) {
+            return false;
+        }
+        switchToDocument(null);
+        mCacheManager.drawImageOnActiveLayer(image);
+        mCacheManager.getWorkspace().getCurrent().setVersionedDrawingId(versionedDrawingId);
+        invalidate();
+        return true;
+    }
+
     /**
      * Clears any drawing present on this view, including offscreen caches.
      */
     public void clearCanvas() {
+        stopPlayback();
         mDisconnectedPath.reset();
         mCacheManager.resetCache();
         invalidate();
@@ -1,9 +1,18 @@
 package com.example.project.drawingboard.views;
 
 import com.example.project.drawingboard.R;
+import com.example.project.drawingboard.models.DrawingDocument;
+import com.example.project.drawingboard.models.DrawingSnapshot;
+import com.example.project.drawingboard.models.DrawingWorkspace;
+import com.example.project.drawingboard.models.HistoryPlayback;
+import com.example.project.drawingboard.models.LayerStack;
+import com.example.project.drawingboard.models.StrokeHistory;
+import com.example.project.drawingboard.sync.SharedBoardSession;
+import com.example.project.drawingboard.trace.TouchTraceWriter;
 
 import android.app.Fragment;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -40,6 +49,157 @@ public class PaintCanvasFragment extends Fragment {
         }
     }
 
+    /**
+     * Adds a new layer on top of the current one and starts drawing on it.
+     */
+    public void addLayer() {
+        if (mCanvas != null) {
+            mCanvas.addLayer();
+        }
+    }
+
+    /**
+     * Switches between drawing, and selecting strokes with a lasso to transform them.
+     */
+    public void setLassoMode(boolean isLassoMode) {
+        if (mCanvas != null) {
+            mCanvas.setLassoMode(isLassoMode);
+        }
+    }
+
+    public boolean isLassoMode() {
+        return mCanvas != null && mCanvas.isLassoMode();
+    }
+
+    /**
+     * @return how the layers of the drawing store their pixels, one of the STORAGE_ constants of
+     * {@link LayerStack}.
+     */
+    public int getStorageMode() {
+        return mCanvas != null ? mCanvas.getStorageMode() : LayerStack.STORAGE_AUTO;
+    }
+
+    /**
+     * Switches how the layers of the drawing store their pixels.
+     *
+     * @param storageMode one of the STORAGE_ constants of
+     * {@link com.example.project.drawingboard.models.LayerStack}.
+     */
+    public void setStorageMode(int storageMode) {
+        if (mCanvas != null) {
+            mCanvas.setStorageMode(storageMode);
+        }
+    }
+
+    /**
+     * Replays the drawing, stroke by stroke, on the canvas.
+     *
+     * @param speed how many times faster than it was drawn the drawing is replayed.
+     */
+    public void startPlayback(float speed) {
+        if (mCanvas != null) {
+            mCanvas.startPlayback(speed);
+        }
+    }
+
+    /**
+     * @return a playback of the drawing's stroke history, owned by the caller.
+     */
+    public HistoryPlayback createPlayback() {
+        return mCanvas.createPlayback();
+    }
+
+    /**
+     * @return the live stroke history of the drawing.
+     */
+    public StrokeHistory getStrokeHistory() {
+        return mCanvas.getStrokeHistory();
+    }
+
+    /**
+     * @return the layers of the drawing.
+     */
+    public LayerStack getLayerStack() {
+        return mCanvas.getLayerStack();
+    }
+
+    /**
+     * @return the drawings open, the one shown first.
+     */
+    public DrawingWorkspace getWorkspace() {
+        return mCanvas.getWorkspace();
+    }
+
+    /**
+     * Shows a new blank drawing, keeping the current one open.
+     */
+    public void newDocument() {
+        if (mCanvas != null) {
+            mCanvas.newDocument();
+        }
+    }
+
+    /**
+     * Shows the given open drawing instead of the current one.
+     */
+    public void switchToDocument(DrawingDocument document) {
+        if (mCanvas != null) {
+            mCanvas.switchToDocument(document);
+        }
+    }
+
+    /**
+     * Shows a saved version of a drawing as a new drawing.
+     *
+     * @return false if it could not be opened yet.
+     */
+    public boolean openVersion(Bitmap image, long versionedDrawingId) {
+        return mCanvas != null && mCanvas.openVersion(image, versionedDrawingId);
+    }
+
+    /**
+     * Shows the given image under the drawing, to trace over.
+     */
+    public void setBackgroundImage(Uri imageUri) {
+        if (mCanvas != null) {
+            mCanvas.setBackgroundImage(imageUri);
+        }
+    }
+
+    /**
+     * Connects the canvas to a shared board, or disconnects it if session is null.
+     */
+    public void setSharedBoardSession(SharedBoardSession session) {
+        if (mCanvas != null) {
+            mCanvas.setSharedBoardSession(session);
+        }
+    }
+
+    /**
+     * Saves the drawing so that it is restored on the next cold start.
+     */
+    public void saveSnapshot() {
+        if (mCanvas != null) {
+            mCanvas.saveSnapshot();
+        }
+    }
+
+    /**
+     * Records the touch events of the canvas into the given trace, or stops recording if null.
+     */
+    public void setTouchTraceWriter(TouchTraceWriter touchTrace) {
+        if (mCanvas != null) {
+            mCanvas.setTouchTraceWriter(touchTrace);
+        }
+    }
+
+    /**
+     * @return the view strokes are drawn on, for redrawing it from other threads.
+     */
+    public View getCanvasView() {
+        return mCanvas;
+    }
+
     /**
      * @return Returns true if the canvas is dirty (can be saved), false otherwise
      */
@@ -48,10 +208,11 @@ public class PaintCanvasFragment extends Fragment {
     }
 
     /**
-     * Returns the bitmap buffer from the underlying canvas being used for the painting.
+     * Returns a copy-on-write snapshot of the drawing on the canvas, to be rendered in the
+     * background and released.
      */
-    public Bitmap getBitmap() {
-        return mCanvas.getBitmap();
+    public DrawingSnapshot createSnapshot() {
+        return mCanvas.createSnapshot();
     }
 
     /**
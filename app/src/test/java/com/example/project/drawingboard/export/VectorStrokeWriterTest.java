@@ -0,0 +1,195 @@
+package com.example.project.drawingboard.export;
+
+import com.example.project.drawingboard.models.StrokeHistory;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class VectorStrokeWriterTest {
+
+    private static final int BLACK = 0xFF000000;
+
+    @Test
+    public void fixedPoint_isPrintedWithoutSuperfluousZeros() throws Exception {
+        assertEquals(".5", printFixed(5, 1));
+        assertEquals("-1.2", printFixed(-12, 1));
+        assertEquals("3", printFixed(30, 1));
+        assertEquals("0", printFixed(0, 1));
+        assertEquals(".05", printFixed(50, 3));
+        assertEquals("12", printFixed(12, 0));
+    }
+
+    @Test
+    public void svgStroke_isRelativeQuantizedAndSmooth() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SvgStrokeWriter writer = new SvgStrokeWriter(out, 100, 50, 0xFFFFFFFF);
+        writer.beginLayer(255);
+        writer.writeStroke(0x80FF0000, 4, new float[]{10, 10, 20, 10, 30, 20, 40, 20,
+                40.01f, 20.02f}, 5);
+        writer.endLayer();
+        writer.close();
+        final String svg = out.toString("US-ASCII");
+
+        assertTrue(svg.contains("viewBox=\"0 0 100 50\""));
+        assertTrue(svg.contains("stroke=\"#ff0000\" stroke-opacity=\".501\" stroke-width=\"4\""));
+        // the point that rounds to the previous one is dropped, the second curve is smooth.
+        assertTrue(svg, svg.contains("d=\"M10 10l5 0q5 0 10 5t10 5l5 0\""));
+        assertTrue(svg.endsWith("</g>\n</svg>\n"));
+    }
+
+    @Test
+    public void svgSinglePoint_isADot() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SvgStrokeWriter writer = new SvgStrokeWriter(out, 100, 50, 0xFFFFFFFF);
+        writer.beginLayer(128);
+        writer.writeStroke(BLACK, 2, new float[]{1.5f, 2.5f}, 1);
+        writer.endLayer();
+        writer.close();
+        final String svg = out.toString("US-ASCII");
+
+        assertTrue(svg.contains("<g fill=\"none\" stroke-linecap=\"round\" "
+                + "stroke-linejoin=\"round\" opacity=\".501\">"));
+        assertTrue(svg, svg.contains("d=\"M1.5 2.5l0 0\""));
+    }
+
+    @Test
+    public void invisibleStrokes_areLeftOut() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SvgStrokeWriter writer = new SvgStrokeWriter(out, 100, 50, 0xFFFFFFFF);
+        writer.beginLayer(255);
+        writer.writeStroke(0x00000000, 2, new float[]{1, 2, 3, 4}, 2);
+        writer.endLayer();
+        writer.close();
+
+        assertFalse(out.toString("US-ASCII").contains("<path"));
+    }
+
+    @Test
+    public void pdf_hasAConsistentCrossReferenceTable() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PdfStrokeWriter writer = new PdfStrokeWriter(out, 100, 50, 0xFFFFFFFF);
+        for (int layer = 0; layer < 2; layer++) {
+            writer.beginLayer(layer == 0 ? 255 : 102);
+            writer.writeStroke(BLACK, 3, new float[]{10, 10, 20, 10, 30, 20}, 3);
+            writer.writeStroke(BLACK, 3, new float[]{50, 10, 60, 30}, 2);
+            writer.endLayer();
+        }
+        writer.close();
+        final byte[] pdf = out.toByteArray();
+        final String text = new String(pdf, "ISO-8859-1");
+
+        assertTrue(text.startsWith("%PDF-1.4\n"));
+        assertTrue(text.endsWith("%%EOF\n"));
+        final int startXref = Integer.parseInt(text.substring(
+                text.lastIndexOf("startxref\n") + 10, text.lastIndexOf("\n%%EOF")));
+        assertTrue(text.startsWith("xref\n", startXref));
+        final String[] xref = text.substring(startXref).split("\n");
+        final int objectCount = Integer.parseInt(xref[1].split(" ")[1]);
+        // catalog, pages, page, resources, page content, then a form and its length a layer.
+        assertEquals(10, objectCount);
+        for (int object = 1; object < objectCount; object++) {
+            final int offset = Integer.parseInt(xref[2 + object].substring(0, 10));
+            assertTrue(text.startsWith(object + " 0 obj\n", offset));
+        }
+        assertTrue(text.contains("/a102 << /CA .4 /ca .4 >>"));
+        assertTrue(text.contains("q /a102 gs /L1 Do Q"));
+
+        // the first layer's content, with its length as written in object 7.
+        final int streamStart = text.indexOf("stream\n", text.indexOf("6 0 obj\n")) + 7;
+        final int length = Integer.parseInt(text.substring(text.indexOf("7 0 obj\n") + 8,
+                text.indexOf("\nendobj", text.indexOf("7 0 obj\n"))));
+        assertTrue(text.startsWith("\nendstream", streamStart + length));
+        final String content = inflate(pdf, streamStart, length);
+        // stroke state is only set once for both strokes.
+        assertEquals(content.indexOf(" w\n"), content.lastIndexOf(" w\n"));
+        assertTrue(content, content.contains("100 100 m\n150 100 l\n183 100 217 117 "
+                + "250 150 c\n300 200 l\nS\n"));
+    }
+
+    @Test
+    public void manyStrokes_streamWithoutGrowingMemory() throws Exception {
+        final CountingOutputStream out = new CountingOutputStream();
+        final PdfStrokeWriter writer = new PdfStrokeWriter(out, 1000, 1000, 0xFFFFFFFF);
+        final float[] points = new float[2 * 64];
+        writer.beginLayer(255);
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        final long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        for (int stroke = 0; stroke < 50000; stroke++) {
+            for (int i = 0; i < points.length; i++) {
+                points[i] = (stroke * 7 + i * 13) % 1000;
+            }
+            writer.writeStroke(BLACK | stroke, 1 + stroke % 5, points, 64);
+        }
+        System.gc();
+        final long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        writer.endLayer();
+        writer.close();
+
+        assertTrue(out.mCount > 1000000);
+        assertTrue("grew by " + (usedAfter - usedBefore), usedAfter - usedBefore < 4000000);
+    }
+
+    @Test
+    public void historyClearedMidWrite_failsTheExport() throws Exception {
+        final StrokeHistory history = new StrokeHistory();
+        for (int stroke = 0; stroke < 3; stroke++) {
+            history.append(BLACK, 2, 1, stroke, new float[]{stroke, 0, stroke, 10}, 2);
+        }
+        final SvgStrokeWriter writer = new SvgStrokeWriter(new ByteArrayOutputStream(), 100,
+                50, 0xFFFFFFFF) {
+            @Override
+            public void writeStroke(int color, float strokeWidth, float[] points,
+                                    int pointCount) throws IOException {
+                super.writeStroke(color, strokeWidth, points, pointCount);
+                // e.g. the user starts a new drawing.
+                history.clear();
+            }
+        };
+
+        try {
+            writer.writeLayers(history, new int[]{1}, new int[]{255});
+            fail("the export went on without the strokes left");
+        } catch (IOException expected) {
+            // the export task deletes the file and reports the failure.
+        }
+    }
+
+    private static String printFixed(long value, int decimals) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AsciiOutputStream ascii = new AsciiOutputStream(out);
+        ascii.printFixed(value, decimals);
+        ascii.close();
+        return out.toString("US-ASCII");
+    }
+
+    private static String inflate(byte[] data, int offset, int length) throws Exception {
+        final Inflater inflater = new Inflater();
+        inflater.setInput(data, offset, length);
+        final byte[] buffer = new byte[1 << 16];
+        final int count = inflater.inflate(buffer);
+        assertTrue(inflater.finished());
+        inflater.end();
+        return new String(buffer, 0, count, "US-ASCII");
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long mCount = 0;
+
+        @Override
+        public void write(int oneByte) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+            mCount += count;
+        }
+    }
+}
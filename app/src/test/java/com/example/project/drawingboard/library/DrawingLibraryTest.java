@@ -0,0 +1,196 @@
+package com.example.project.drawingboard.library;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DrawingLibraryTest {
+
+    private File mDirectory;
+    private DrawingLibrary mLibrary;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("library", "");
+        mDirectory.delete();
+        mLibrary = new DrawingLibrary(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void emptyLibrary_listsNothing() throws Exception {
+        assertTrue(mLibrary.list().isEmpty());
+        assertEquals(0, mLibrary.readThumbnails(mLibrary.list()).length);
+    }
+
+    @Test
+    public void added_drawings_areListedNewestFirst() throws Exception {
+        add(1, 1000, "one");
+        add(2, 3000, "two");
+        add(3, 2000, "three");
+
+        List<DrawingRecord> records = mLibrary.list();
+        assertEquals(3, records.size());
+        assertEquals(2, records.get(0).getId());
+        assertEquals(3, records.get(1).getId());
+        assertEquals(1, records.get(2).getId());
+        assertEquals(640, records.get(0).getWidth());
+        assertEquals(480, records.get(0).getHeight());
+        assertEquals(2 * 10, records.get(0).getStrokeCount());
+        assertArrayEquals(hash(2), records.get(0).getContentHash());
+
+        byte[][] thumbnails = mLibrary.readThumbnails(records);
+        assertEquals("two", new String(thumbnails[0], "UTF-8"));
+        assertEquals("three", new String(thumbnails[1], "UTF-8"));
+        assertEquals("one", new String(thumbnails[2], "UTF-8"));
+    }
+
+    @Test
+    public void latestRecord_wins() throws Exception {
+        add(1, 1000, "old");
+        add(1, 5000, "new");
+
+        List<DrawingRecord> records = mLibrary.list();
+        assertEquals(1, records.size());
+        assertEquals(5000, records.get(0).getModifiedMillis());
+        assertEquals("new", new String(mLibrary.readThumbnails(records)[0], "UTF-8"));
+    }
+
+    @Test
+    public void twoSaves_inTheSameSecond_getDistinctIds() throws Exception {
+        final long savedMillis = 1500000000123L;
+        final long firstId = mLibrary.newId(savedMillis);
+        add(firstId, savedMillis, "first");
+        final long secondId = mLibrary.newId(savedMillis + 400);
+        add(secondId, savedMillis + 400, "second");
+
+        assertEquals(1500000000L, firstId);
+        assertEquals(firstId + 1, secondId);
+        assertEquals(2, mLibrary.list().size());
+        // later saves go back to the time in seconds once it catches up.
+        assertEquals(1500000005L, mLibrary.newId(1500000005000L));
+    }
+
+    @Test
+    public void removed_drawings_areNotListed() throws Exception {
+        add(1, 1000, "one");
+        add(2, 2000, "two");
+        mLibrary.remove(1);
+
+        List<DrawingRecord> records = mLibrary.list();
+        assertEquals(1, records.size());
+        assertEquals(2, records.get(0).getId());
+    }
+
+    @Test
+    public void tornRecord_isIgnored_andOverwritten() throws Exception {
+        add(1, 1000, "one");
+        add(2, 2000, "two");
+        File index = new File(mDirectory, "drawings.idx");
+        truncate(index, index.length() - 7);
+
+        List<DrawingRecord> records = mLibrary.list();
+        assertEquals(1, records.size());
+        assertEquals(1, records.get(0).getId());
+
+        // the next record starts where the torn one did.
+        add(3, 3000, "three");
+        assertEquals(DrawingLibrary.HEADER_SIZE + 2 * DrawingLibrary.RECORD_SIZE, index.length());
+        assertEquals(2, mLibrary.list().size());
+    }
+
+    @Test
+    public void corruptRecord_isIgnored() throws Exception {
+        add(1, 1000, "one");
+        add(2, 2000, "two");
+        RandomAccessFile index = new RandomAccessFile(new File(mDirectory, "drawings.idx"), "rw");
+        try {
+            index.seek(DrawingLibrary.HEADER_SIZE + 10);
+            index.write(0xFF);
+        } finally {
+            index.close();
+        }
+
+        List<DrawingRecord> records = mLibrary.list();
+        assertEquals(1, records.size());
+        assertEquals(2, records.get(0).getId());
+    }
+
+    @Test
+    public void compact_keepsLatestRecordsAndThumbnails() throws Exception {
+        add(1, 1000, "one");
+        add(2, 2000, "two");
+        add(1, 3000, "one again");
+        add(3, 4000, "three");
+        mLibrary.remove(2);
+
+        mLibrary.compact();
+
+        File index = new File(mDirectory, "drawings.idx");
+        assertEquals(DrawingLibrary.HEADER_SIZE + 2 * DrawingLibrary.RECORD_SIZE, index.length());
+        assertFalse(new File(mDirectory, "thumbnails_0.blob").exists());
+        List<DrawingRecord> records = mLibrary.list();
+        assertEquals(2, records.size());
+        byte[][] thumbnails = mLibrary.readThumbnails(records);
+        assertEquals("three", new String(thumbnails[0], "UTF-8"));
+        assertEquals("one again", new String(thumbnails[1], "UTF-8"));
+
+        // and it keeps growing from there.
+        add(4, 5000, "four");
+        assertEquals("four", new String(mLibrary.readThumbnails(mLibrary.list())[0], "UTF-8"));
+    }
+
+    @Test
+    public void listing_aThousandDrawings_isFast() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            add(i, i, "thumbnail " + i);
+        }
+
+        long start = System.nanoTime();
+        List<DrawingRecord> records = mLibrary.list();
+        byte[][] thumbnails = mLibrary.readThumbnails(records);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(1000, records.size());
+        assertEquals("thumbnail 999", new String(thumbnails[0], "UTF-8"));
+        assertTrue("Listed in " + elapsedMillis + "ms", elapsedMillis < 1000);
+    }
+
+    private void add(long id, long modifiedMillis, String thumbnail) throws IOException {
+        mLibrary.add(id, 0, modifiedMillis, 640, 480, (int) id * 10, hash(id),
+                thumbnail.getBytes("UTF-8"));
+    }
+
+    private static byte[] hash(long id) {
+        byte[] hash = new byte[DrawingLibrary.HASH_SIZE];
+        Arrays.fill(hash, (byte) id);
+        return hash;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.project.drawingboard.library;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DrawingVersionsTest {
+
+    // three columns and two rows of tiles, the last ones cut short.
+    private static final int WIDTH = 2 * DrawingVersions.TILE_SIZE + 40;
+    private static final int HEIGHT = DrawingVersions.TILE_SIZE + 10;
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    private File mDirectory;
+    private DrawingVersions mVersions;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("versions", "");
+        mDirectory.delete();
+        mVersions = new DrawingVersions(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        mVersions.close();
+        delete(mDirectory);
+    }
+
+    @Test
+    public void noVersions_listsNothing() {
+        assertTrue(mVersions.list(1).isEmpty());
+    }
+
+    @Test
+    public void identicalTiles_areStoredOnce() throws Exception {
+        final int[] image = blank();
+        final DrawingVersions.VersionWriter writer = save(1, 1000, image);
+
+        // six tiles, but blank tiles of the same size are the same: full ones, ones cut short
+        // on the right, at the bottom, and the corner.
+        assertEquals(4, writer.getNewTileCount());
+        assertEquals(4, countTiles());
+    }
+
+    @Test
+    public void smallEdit_storesOnlyTheChangedTile() throws Exception {
+        final int[] image = blank();
+        save(1, 1000, image);
+        final int storedTiles = countTiles();
+
+        image[5 * WIDTH + DrawingVersions.TILE_SIZE + 5] = BLACK;
+        final DrawingVersions.VersionWriter writer = save(1, 2000, image);
+
+        assertEquals(1, writer.getNewTileCount());
+        assertEquals(storedTiles + 1, countTiles());
+    }
+
+    @Test
+    public void olderVersions_readBackAsSaved() throws Exception {
+        final int[] first = blank();
+        first[0] = BLACK;
+        save(1, 1000, first);
+        final int[] second = first.clone();
+        second[(HEIGHT - 1) * WIDTH + WIDTH - 1] = 0x80FF0000;
+        save(1, 2000, second);
+
+        final List<DrawingVersion> versions = mVersions.list(1);
+        assertEquals(2, versions.size());
+        assertArrayEquals(second, read(versions.get(0)));
+        assertArrayEquals(first, read(versions.get(1)));
+        assertFalse(Arrays.equals(versions.get(0).getContentHash(),
+                versions.get(1).getContentHash()));
+    }
+
+    @Test
+    public void versions_areListedNewestFirst_perDrawing() throws Exception {
+        final int[] image = blank();
+        save(1, 1000, image);
+        save(1, 3000, image);
+        save(2, 4000, image);
+        save(1, 2000, image);
+
+        final List<DrawingVersion> versions = mVersions.list(1);
+        assertEquals(3, versions.size());
+        assertEquals(3000, versions.get(0).getSavedMillis());
+        assertEquals(2000, versions.get(1).getSavedMillis());
+        assertEquals(1000, versions.get(2).getSavedMillis());
+        assertEquals(WIDTH, versions.get(0).getWidth());
+        assertEquals(HEIGHT, versions.get(0).getHeight());
+        assertEquals(7, versions.get(0).getStrokeCount());
+        assertArrayEquals(versions.get(0).getContentHash(), versions.get(2).getContentHash());
+        assertEquals(1, mVersions.list(2).size());
+    }
+
+    @Test
+    public void corruptManifest_isNotListed() throws Exception {
+        final int[] image = blank();
+        save(1, 1000, image);
+        save(1, 2000, image);
+        final DrawingVersion torn = mVersions.list(1).get(0);
+
+        final RandomAccessFile file = new RandomAccessFile(torn.getManifestFile(), "rw");
+        file.seek(40);
+        file.write(0x5A);
+        file.close();
+
+        final List<DrawingVersion> versions = mVersions.list(1);
+        assertEquals(1, versions.size());
+        assertEquals(1000, versions.get(0).getSavedMillis());
+    }
+
+    @Test
+    public void unreferencedTiles_areDeleted() throws Exception {
+        final int[] image = blank();
+        save(1, 1000, image);
+        image[0] = BLACK;
+        save(1, 2000, image);
+        final DrawingVersion kept = mVersions.list(1).get(1);
+        assertTrue(mVersions.list(1).get(0).getManifestFile().delete());
+
+        assertEquals(1, mVersions.deleteUnreferencedTiles());
+        assertArrayEquals(blank(), read(kept));
+    }
+
+    private DrawingVersions.VersionWriter save(long drawingId, long savedMillis, int[] image)
+            throws Exception {
+        final DrawingVersions.VersionWriter writer =
+                mVersions.beginVersion(drawingId, savedMillis, WIDTH, HEIGHT, 7);
+        final int size = DrawingVersions.TILE_SIZE;
+        final int[] tile = new int[size * size];
+        for (int row = 0; row * size < HEIGHT; row++) {
+            for (int column = 0; column * size < WIDTH; column++) {
+                final int tileWidth = Math.min(size, WIDTH - column * size);
+                final int tileHeight = Math.min(size, HEIGHT - row * size);
+                for (int y = 0; y < tileHeight; y++) {
+                    System.arraycopy(image, (row * size + y) * WIDTH + column * size,
+                            tile, y * tileWidth, tileWidth);
+                }
+                writer.putTile(column, row, tile);
+            }
+        }
+        writer.commit();
+        return writer;
+    }
+
+    private int[] read(DrawingVersion version) throws Exception {
+        final int[] image = new int[version.getWidth() * version.getHeight()];
+        final int size = version.getTileSize();
+        final int[] tile = new int[size * size];
+        for (int row = 0; row < version.getRows(); row++) {
+            for (int column = 0; column < version.getColumns(); column++) {
+                mVersions.readTile(version, column, row, tile);
+                final int tileWidth = Math.min(size, version.getWidth() - column * size);
+                final int tileHeight = Math.min(size, version.getHeight() - row * size);
+                for (int y = 0; y < tileHeight; y++) {
+                    System.arraycopy(tile, y * tileWidth,
+                            image, (row * size + y) * version.getWidth() + column * size,
+                            tileWidth);
+                }
+            }
+        }
+        return image;
+    }
+
+    private int countTiles() {
+        int count = 0;
+        final File[] fanOuts = new File(mDirectory, "tiles").listFiles();
+        for (File fanOut : fanOuts) {
+            count += fanOut.listFiles().length;
+        }
+        return count;
+    }
+
+    private static int[] blank() {
+        final int[] image = new int[WIDTH * HEIGHT];
+        Arrays.fill(image, WHITE);
+        return image;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.project.drawingboard.sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a local relay with several simulated boards drawing at once, and measures the end-to-end
+ * latency of a stroke, from the moment its end is sent by one board to the moment it is received
+ * by each of the others.
+ */
+public class RelayServerLoadTest {
+
+    private static final int CLIENT_COUNT = 8;
+    private static final int STROKES_PER_CLIENT = 25;
+    private static final int POINTS_PER_STROKE = 40;
+    // points a simulated board coalesces per frame, about what a 60Hz frame sees while drawing.
+    private static final int POINTS_PER_FRAME = 4;
+    private static final long FRAME_MILLIS = 16;
+
+    private RelayServer mRelay;
+    private final List<SyncConnection> mConnections = new ArrayList<SyncConnection>();
+
+    // nanoTime each stroke end was sent at, keyed by source and stroke.
+    private final ConcurrentHashMap<Long, Long> mSentAt = new ConcurrentHashMap<Long, Long>();
+    private final List<Long> mLatencies = Collections.synchronizedList(new ArrayList<Long>());
+    private CountDownLatch mDeliveries;
+
+    @Before
+    public void setUp() throws Exception {
+        mRelay = new RelayServer(0);
+    }
+
+    @After
+    public void tearDown() {
+        for (SyncConnection connection : mConnections) {
+            connection.close();
+        }
+        mRelay.stop();
+    }
+
+    @Test
+    public void strokes_reachEveryOtherBoard() throws Exception {
+        final int port = mRelay.start();
+        mDeliveries = new CountDownLatch(CLIENT_COUNT * (CLIENT_COUNT - 1) * STROKES_PER_CLIENT);
+
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            SyncConnection connection = new SyncConnection("127.0.0.1", port,
+                    new LatencyListener());
+            connection.connect();
+            mConnections.add(connection);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mRelay.getPeerCount() < CLIENT_COUNT && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CLIENT_COUNT, mRelay.getPeerCount());
+
+        List<Thread> boards = new ArrayList<Thread>();
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            final int sourceId = i;
+            Thread board = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drawStrokes(sourceId, mConnections.get(sourceId));
+                }
+            });
+            board.start();
+            boards.add(board);
+        }
+        for (Thread board : boards) {
+            board.join();
+        }
+
+        assertTrue("Not every stroke was delivered, " + mDeliveries.getCount() + " missing",
+                mDeliveries.await(30, TimeUnit.SECONDS));
+
+        List<Long> latencies = new ArrayList<Long>(mLatencies);
+        assertEquals(CLIENT_COUNT * (CLIENT_COUNT - 1) * STROKES_PER_CLIENT, latencies.size());
+        Collections.sort(latencies);
+        final double p50 = latencies.get(latencies.size() / 2) / 1e6;
+        final double p99 = latencies.get(latencies.size() * 99 / 100) / 1e6;
+        final double max = latencies.get(latencies.size() - 1) / 1e6;
+
+        // generous, this is about catching stalls and lost frames rather than benchmarking.
+        assertTrue("p50 latency of " + p50 + "ms", p50 < 250);
+        assertTrue("p99 latency of " + p99 + "ms", p99 < 1000);
+        assertTrue("max latency of " + max + "ms", max < 5000);
+    }
+
+    private void drawStrokes(int sourceId, SyncConnection connection) {
+        StrokeDeltaEncoder encoder = new StrokeDeltaEncoder();
+        float[] points = new float[2 * POINTS_PER_FRAME];
+        try {
+            for (int stroke = 0; stroke < STROKES_PER_CLIENT; stroke++) {
+                encoder.encodeStrokeBegin(sourceId, stroke, 0xFF000000, 5f);
+                for (int point = 0; point < POINTS_PER_STROKE; point += POINTS_PER_FRAME) {
+                    for (int i = 0; i < POINTS_PER_FRAME; i++) {
+                        points[2 * i] = 10 + point + i;
+                        points[2 * i + 1] = 10 + stroke * 5;
+                    }
+                    encoder.encodePoints(sourceId, stroke, points, POINTS_PER_FRAME);
+                    if (point + POINTS_PER_FRAME >= POINTS_PER_STROKE) {
+                        encoder.encodeStrokeEnd(sourceId, stroke);
+                        mSentAt.put(key(sourceId, stroke), System.nanoTime());
+                    }
+                    connection.send(encoder.toByteArray());
+                    encoder.reset();
+                    Thread.sleep(FRAME_MILLIS);
+                }
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long key(int sourceId, int strokeId) {
+        return ((long) sourceId << 32) | strokeId;
+    }
+
+    private class LatencyListener implements StrokeDeltaListener {
+        @Override
+        public void onStrokeBegin(int sourceId, int strokeId, int color, float strokeWidth) {
+        }
+
+        @Override
+        public void onStrokePoints(int sourceId, int strokeId, float[] points, int pointCount) {
+        }
+
+        @Override
+        public void onStrokeEnd(int sourceId, int strokeId) {
+            final Long sentAt = mSentAt.get(key(sourceId, strokeId));
+            if (sentAt != null) {
+                mLatencies.add(System.nanoTime() - sentAt);
+            }
+            mDeliveries.countDown();
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.project.drawingboard.sync;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StrokeDeltaCodecTest {
+
+    @Test
+    public void deltas_roundTrip() throws Exception {
+        StrokeDeltaEncoder encoder = new StrokeDeltaEncoder();
+        encoder.encodeStrokeBegin(7, 42, 0x80FF0010, 5f);
+        encoder.encodePoints(7, 42, new float[]{10f, 20f, 10.5f, 19.25f, 300f, 0f}, 3);
+        encoder.encodeStrokeEnd(7, 42);
+
+        RecordingListener listener = new RecordingListener();
+        StrokeDeltaDecoder decoder = new StrokeDeltaDecoder();
+        ByteArrayInputStream in = new ByteArrayInputStream(encoder.toByteArray());
+        while (decoder.readFrame(in)) {
+            decoder.dispatch(listener);
+        }
+
+        assertEquals(3, listener.mEvents.size());
+        assertEquals("begin 7 42 80ff0010 5.0", listener.mEvents.get(0));
+        assertEquals("points 7 42 [10.0,20.0 10.5,19.25 300.0,0.0]", listener.mEvents.get(1));
+        assertEquals("end 7 42", listener.mEvents.get(2));
+    }
+
+    @Test
+    public void points_areCompact() {
+        StrokeDeltaEncoder encoder = new StrokeDeltaEncoder();
+        float[] points = new float[2 * 100];
+        for (int i = 0; i < 100; i++) {
+            points[2 * i] = 500 + i * 3;
+            points[2 * i + 1] = 800 - i * 2;
+        }
+        encoder.encodePoints(1, 1, points, 100);
+
+        // small moves take a byte per coordinate.
+        assertTrue("Encoded to " + encoder.length() + " bytes", encoder.length() < 2 * 100 + 16);
+    }
+
+    @Test(expected = java.io.EOFException.class)
+    public void truncatedFrame_isRejected() throws Exception {
+        StrokeDeltaEncoder encoder = new StrokeDeltaEncoder();
+        encoder.encodeStrokeEnd(1, 1);
+        byte[] frame = encoder.toByteArray();
+
+        new StrokeDeltaDecoder().readFrame(new ByteArrayInputStream(frame, 0, frame.length - 1));
+    }
+
+    private static class RecordingListener implements StrokeDeltaListener {
+        final List<String> mEvents = new ArrayList<String>();
+
+        @Override
+        public void onStrokeBegin(int sourceId, int strokeId, int color, float strokeWidth) {
+            mEvents.add("begin " + sourceId + " " + strokeId + " " + Integer.toHexString(color)
+                    + " " + strokeWidth);
+        }
+
+        @Override
+        public void onStrokePoints(int sourceId, int strokeId, float[] points, int pointCount) {
+            StringBuilder event = new StringBuilder("points " + sourceId + " " + strokeId + " [");
+            for (int i = 0; i < pointCount; i++) {
+                event.append(i == 0 ? "" : " ").append(points[2 * i]).append(',')
+                        .append(points[2 * i + 1]);
+            }
+            mEvents.add(event.append(']').toString());
+        }
+
+        @Override
+        public void onStrokeEnd(int sourceId, int strokeId) {
+            mEvents.add("end " + sourceId + " " + strokeId);
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    }
+}